@@ -0,0 +1,103 @@
+package cn.scs.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection 上 UTF 字符串的读写。本机回环上的回显线程原样送回收到的字节：
+ * echoUTF 每个字符串一次往返，主要是系统调用的开销；pipelinedUTF 连续写出 16 个字符串后一次 flush 再依次读回，
+ * 往返被摊薄，剩下的主要是 writeUTF/readUTF 的编解码与缓冲区复制。字符串混有中文，覆盖多字节编码。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionBenchmark {
+
+    private static final int PIPELINE = 16;
+
+    @Param({"16", "256", "4096"})
+    public int length;
+
+    private ServerSocket serverSocket;
+    private Connection connection;
+    private String value;
+
+    @Setup
+    public void setup() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread echo = new Thread(this::echo, "jmh-echo");
+        echo.setDaemon(true);
+        echo.start();
+        connection = new Connection(InetAddress.getLoopbackAddress().getHostAddress(), serverSocket.getLocalPort());
+
+        StringBuilder sb = new StringBuilder(length);
+        String pattern = "/user/root/数据/part-";
+        while (sb.length() < length) {
+            sb.append(pattern);
+        }
+        value = sb.substring(0, length);
+    }
+
+    private void echo() {
+        try (Socket socket = serverSocket.accept()) {
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            // 基准结束时连接被关闭
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connection.close();
+        serverSocket.close();
+    }
+
+    @Benchmark
+    public String echoUTF() throws IOException {
+        connection.writeUTF(value);
+        connection.flush();
+        return connection.readUTF();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void pipelinedUTF(Blackhole bh) throws IOException {
+        for (int i = 0; i < PIPELINE; i++) {
+            connection.writeUTF(value);
+        }
+        connection.flush();
+        for (int i = 0; i < PIPELINE; i++) {
+            bh.consume(connection.readUTF());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package cn.scs.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线路格式的热点：FileInfo 的二进制编码和解码（三个块、各三个副本），MetaOpCode 与 DataOpCode 的编码和解码。
+ * 操作码的基准每次调用编码或解码一个操作码，依次轮换全部操作码；配合 -prof gc 查看每次操作的分配量。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final MetaOpCode[] META_OPS = MetaOpCode.values();
+    private static final DataOpCode[] DATA_OPS = DataOpCode.values();
+
+    private static final String PATH = "/warehouse/events/2024/10/18/part-00042.parquet";
+
+    private FileInfo fileInfo;
+    private List<String> locations;
+    private MetaFrame.BodyInput fileInfoIn;
+    private int nextOp;
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream(64);
+    private final DataOutputStream sinkOut = new DataOutputStream(sink);
+    private ByteArrayInputStream metaBytes;
+    private DataInputStream metaIn;
+    private ByteArrayInputStream dataBytes;
+    private DataInputStream dataIn;
+
+    @Setup
+    public void setup() throws IOException {
+        fileInfo = new FileInfo("part-00042.parquet", PATH, false, 3L * 134217728, "root", 1729238400000L);
+        fileInfo.setBlockSize(134217728);
+        List<BlockInfo> blocks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            blocks.add(new BlockInfo(1000 + i, 134217728, Arrays.asList(
+                    "10.0.0." + (i + 1) + ":9000", "10.0.0." + (i + 2) + ":9000", "10.0.0." + (i + 3) + ":9000")));
+        }
+        fileInfo.setBlocks(blocks);
+        locations = Arrays.asList("10.0.0.1:9000", "10.0.0.2:9000", "10.0.0.3:9000", "10.0.0.4:9000", "10.0.0.5:9000");
+        new FileInfoCodec.Encoder(sinkOut, 1).write(fileInfo, locations);
+        fileInfoIn = new MetaFrame.BodyInput(sink.toByteArray());
+        sink.reset();
+        for (MetaOpCode op : META_OPS) {
+            op.write(sinkOut);
+        }
+        metaBytes = new ByteArrayInputStream(sink.toByteArray());
+        metaIn = new DataInputStream(metaBytes);
+        sink.reset();
+        for (DataOpCode op : DATA_OPS) {
+            op.write(sinkOut);
+        }
+        dataBytes = new ByteArrayInputStream(sink.toByteArray());
+        dataIn = new DataInputStream(dataBytes);
+    }
+
+    @Benchmark
+    public int encodeFileInfo() throws IOException {
+        sink.reset();
+        new FileInfoCodec.Encoder(sinkOut, 1).write(fileInfo, locations);
+        return sink.size();
+    }
+
+    @Benchmark
+    public FileInfo decodeFileInfo() throws IOException {
+        fileInfoIn.seek(0);
+        return new FileInfoCodec.Decoder(fileInfoIn).read(PATH);
+    }
+
+    @Benchmark
+    public int encodeMetaOpCode() throws IOException {
+        sink.reset();
+        META_OPS[nextOp++ % META_OPS.length].write(sinkOut);
+        return sink.size();
+    }
+
+    @Benchmark
+    public MetaOpCode decodeMetaOpCode() throws IOException {
+        if (metaBytes.available() == 0) {
+            metaBytes.reset();
+        }
+        return MetaOpCode.read(metaIn);
+    }
+
+    @Benchmark
+    public int encodeDataOpCode() throws IOException {
+        sink.reset();
+        DATA_OPS[nextOp++ % DATA_OPS.length].write(sinkOut);
+        return sink.size();
+    }
+
+    @Benchmark
+    public DataOpCode decodeDataOpCode() throws IOException {
+        if (dataBytes.available() == 0) {
+            dataBytes.reset();
+        }
+        return DataOpCode.read(dataIn);
+    }
+}
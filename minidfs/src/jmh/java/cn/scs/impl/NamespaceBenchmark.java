@@ -0,0 +1,131 @@
+package cn.scs.impl;
+
+import cn.scs.common.Config;
+import cn.scs.common.DirectoryListing;
+import cn.scs.common.FileInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 元数据服务器命名空间的热点：在深层目录和大目录下创建文件、求父目录、按路径查找、分页与全量列目录。
+ * 每个基准方法使用一个新建的 MetadataServer，编辑日志写在临时目录，create 的耗时包含一次 logSync。
+ * 命名空间操作打印到标准输出的日志在测量期间被丢弃。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NamespaceBenchmark {
+
+    private static final String WIDE_DIR = "/wide";
+
+    @Param({"memory", "rocksdb"})
+    public String store;
+
+    // 深层目录的层数
+    @Param({"32"})
+    public int depth;
+
+    // 大目录中预先创建的文件数
+    @Param({"10000"})
+    public int width;
+
+    private MetadataServer server;
+    private File metaDir;
+    private PrintStream stdout;
+    private String deepDir;
+    private String deepFile;
+    private final AtomicLong counter = new AtomicLong();
+
+    @Setup
+    public void setup() throws IOException {
+        metaDir = Files.createTempDirectory("minidfs-jmh").toFile();
+        Config.META_DIR = metaDir.getPath();
+        Config.META_STORE = store;
+        Config.META_STORE_PATH = new File(metaDir, "namespace").getPath();
+        Config.META_SERVRE_PORT = 0; // 不占用固定端口
+        stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        server = new MetadataServer();
+
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            path.append("/d").append(i);
+        }
+        deepDir = path.toString();
+        deepFile = deepDir + "/file";
+        server.create(deepFile, "root", false);
+        for (int i = 0; i < width; i++) {
+            server.create(WIDE_DIR + "/f" + i, "root", false);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        try (Stream<java.nio.file.Path> files = Files.walk(metaDir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public FileInfo createDeep() throws IOException {
+        return server.create(deepDir + "/n" + counter.incrementAndGet(), "root", false);
+    }
+
+    @Benchmark
+    public FileInfo createWide() throws IOException {
+        return server.create(WIDE_DIR + "/n" + counter.incrementAndGet(), "root", false);
+    }
+
+    @Benchmark
+    public String getParentPathDeep() {
+        return MetadataServer.getParentPath(deepFile);
+    }
+
+    @Benchmark
+    public FileInfo lookupDeep() throws IOException {
+        return server.lookup(deepFile);
+    }
+
+    @Benchmark
+    public DirectoryListing listPageWide() throws IOException {
+        return server.listPage(WIDE_DIR, null, Config.LIST_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<String> listWide() throws IOException {
+        return server.list(WIDE_DIR);
+    }
+}
@@ -1,9 +1,14 @@
 package cn.scs.client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 public class Connection {
 
@@ -12,15 +17,18 @@ public class Connection {
     private final DataOutputStream out;
     private String host;
     private int port;
+    private volatile long lastUsed; // 最近一次归还连接池的时间
 
     public Connection(String host, int port) throws IOException {
         this.host = host;
         this.port = port;
-        socket = new Socket(host, port);
+        // 以通道方式建立连接，连接池可以用非阻塞读探测对端是否已经关闭
+        socket = SocketChannel.open(new InetSocketAddress(host, port)).socket();
+        socket.setTcpNoDelay(true);
 
-        // 获取输入流和输出流
-        in = new DataInputStream(socket.getInputStream());
-        out = new DataOutputStream(socket.getOutputStream());
+        // 获取输入流和输出流（带缓冲，写完一个请求后需调用 flush）
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
     }
 
     public DataInputStream getIn() {
@@ -67,6 +75,45 @@ public class Connection {
         out.writeInt(value); // 添加 writeInt 方法
     }
 
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+
+    /**
+     * 检查空闲连接能否复用：对端已经关闭（读到 EOF），或者还有未读的数据（上一次请求没有读完），都不能再用
+     */
+    public boolean isHealthy() {
+        if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+        SocketChannel channel = socket.getChannel();
+        try {
+            if (in.available() > 0) {
+                return false;
+            }
+            channel.configureBlocking(false);
+            try {
+                return channel.read(ByteBuffer.allocate(1)) == 0;
+            } finally {
+                channel.configureBlocking(true);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     public void close() throws IOException {
         socket.close();
     }
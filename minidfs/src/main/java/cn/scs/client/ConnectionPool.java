@@ -0,0 +1,158 @@
+package cn.scs.client;
+
+import cn.scs.common.Config;
+import cn.scs.common.Span;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 到数据服务器的连接池，按 host:port 分别管理。每个节点同时打开的连接数不超过 maxPerNode，
+ * 超出时借用方等待其他连接归还。空闲连接后进先出，借出前检查对端是否已关闭，
+ * 空闲超过 idleTimeoutMs 的连接由后台线程关闭，数据服务器因此也能及时结束对应的处理线程。
+ *
+ * 借出的连接在请求完整结束（响应读完）后调用 release 归还；出错或没有读完时调用 invalidate 丢弃，
+ * 协议状态不确定的连接不能再给下一个请求使用。
+ */
+public class ConnectionPool implements Closeable {
+    private static Logger log = LogManager.getLogger(ConnectionPool.class);
+
+    private static class NodePool {
+        final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+        final Semaphore permits;
+
+        NodePool(int maxConnections) {
+            permits = new Semaphore(maxConnections);
+        }
+    }
+
+    private final int maxPerNode;
+    private final long idleTimeoutMs;
+    private final Map<String, NodePool> pools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    public ConnectionPool() {
+        this(Config.DATA_CONN_MAX_PER_NODE, Config.DATA_CONN_IDLE_MS);
+    }
+
+    public ConnectionPool(int maxPerNode, long idleTimeoutMs) {
+        this.maxPerNode = maxPerNode;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, idleTimeoutMs / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // 借用 host:port 形式地址的连接
+    public Connection borrow(String location) throws IOException {
+        String[] parts = location.split(":");
+        return borrow(parts[0], Integer.parseInt(parts[1]));
+    }
+
+    public Connection borrow(String host, int port) throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool is closed");
+        }
+        NodePool pool = pools.computeIfAbsent(host + ":" + port, k -> new NodePool(maxPerNode));
+        try {
+            if (!pool.permits.tryAcquire(Config.DATA_CONN_BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a connection to " + host + ":" + port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + host + ":" + port, e);
+        }
+        Connection connection;
+        while ((connection = pool.idle.pollFirst()) != null) {
+            if (connection.isHealthy()) {
+                return connection;
+            }
+            closeQuietly(connection);
+        }
+        // 只有真正建立 TCP 连接时才记为追踪中的一段
+        try (Span span = Span.current().child("connect").tag("location", host + ":" + port)) {
+            return new Connection(host, port);
+        } catch (IOException e) {
+            pool.permits.release();
+            throw e;
+        }
+    }
+
+    // 归还一个请求已经完整结束的连接
+    public void release(Connection connection) {
+        NodePool pool = pools.get(connection.getHost() + ":" + connection.getPort());
+        if (closed || pool == null) {
+            closeQuietly(connection);
+            return;
+        }
+        connection.setLastUsed(System.currentTimeMillis());
+        pool.idle.offerFirst(connection);
+        pool.permits.release();
+    }
+
+    // 丢弃出错或者状态不确定的连接
+    public void invalidate(Connection connection) {
+        closeQuietly(connection);
+        NodePool pool = pools.get(connection.getHost() + ":" + connection.getPort());
+        if (pool != null) {
+            pool.permits.release();
+        }
+    }
+
+    // 关闭空闲过久的连接：最久未用的连接在队尾
+    private void evictIdle() {
+        long deadline = System.currentTimeMillis() - idleTimeoutMs;
+        for (NodePool pool : pools.values()) {
+            Connection connection;
+            while ((connection = pool.idle.peekLast()) != null && connection.getLastUsed() < deadline) {
+                if (pool.idle.removeLastOccurrence(connection)) {
+                    closeQuietly(connection);
+                }
+            }
+        }
+    }
+
+    public int getIdleCount() {
+        int count = 0;
+        for (NodePool pool : pools.values()) {
+            count += pool.idle.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (NodePool pool : pools.values()) {
+            Iterator<Connection> it = pool.idle.iterator();
+            while (it.hasNext()) {
+                closeQuietly(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            log.warn("Failed to close connection to " + connection.getHost() + ":" + connection.getPort() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package cn.scs.client;
+
+import cn.scs.common.BlockInfo;
+import cn.scs.common.Config;
+import cn.scs.common.DataChecksum;
+import cn.scs.common.DataOpCode;
+import cn.scs.common.Span;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以流的方式写入一个文件。写入的数据攒满一个包（PACKET_SIZE，按校验段对齐）就连同各段的校验和发往当前块的写流水线，
+ * 块写满（BLOCK_SIZE）后等待剩余的确认并申请下一个块，close 时提交各块长度。
+ * 客户端只缓冲一个包，写入任意大小的文件内存占用都不变。
+ * 确认不逐包等待：每发一个包顺便读走已经到达的确认，块结束时再读完其余的确认。
+ */
+class DFSOutputStream extends OutputStream {
+
+    private static final int ACK_LENGTH = 12; // [long seqno][int 状态]
+
+    private final MetaServerClient metaClient;
+    private final ConnectionPool connectionPool;
+    private final String path;
+    private final long blockSize;
+    private final DataChecksum checksum = DataChecksum.newDefault();
+    private final byte[] packet = new byte[checksum.alignPacketSize(Config.PACKET_SIZE)];
+    private final byte[] sums = new byte[checksum.checksumLength(packet.length)];
+    private int packetLength;
+
+    private final List<BlockInfo> blocks = new ArrayList<>();
+    private BlockInfo block;       // 正在写的块，null 表示尚未申请
+    private Connection connection; // 当前块流水线的第一个数据服务器
+    private long blockBytes;
+    private long nextSeqno;
+    private long ackedSeqno;
+    private boolean closed = false;
+
+    DFSOutputStream(MetaServerClient metaClient, ConnectionPool connectionPool, String path) {
+        this.metaClient = metaClient;
+        this.connectionPool = connectionPool;
+        this.path = path;
+        this.blockSize = Config.BLOCK_SIZE;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed: " + path);
+        }
+        while (len > 0) {
+            int n = (int) Math.min(len, Math.min(packet.length - packetLength, blockSize - blockBytes - packetLength));
+            System.arraycopy(b, off, packet, packetLength, n);
+            packetLength += n;
+            off += n;
+            len -= n;
+            boolean blockFull = blockBytes + packetLength == blockSize;
+            if (packetLength == packet.length || blockFull) {
+                sendPacket(blockFull);
+            }
+        }
+    }
+
+    // 数据只有在块结束时才得到确认，flush 只把已经发出的包推到网络上
+    @Override
+    public void flush() throws IOException {
+        if (connection != null) {
+            connection.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (block != null || packetLength > 0) {
+            sendPacket(true);
+        }
+        closed = true;
+        if (!metaClient.completeFile(path, blocks)) {
+            throw new IOException("Failed to complete " + path);
+        }
+    }
+
+    // 放弃写入：丢弃当前块的连接，不提交文件
+    void abort() {
+        closed = true;
+        if (connection != null) {
+            connectionPool.invalidate(connection);
+            connection = null;
+        }
+    }
+
+    private void sendPacket(boolean lastInBlock) throws IOException {
+        try {
+            if (block == null) {
+                startBlock();
+            }
+            DataOutputStream out = connection.getOut();
+            checksum.calculateChunks(packet, 0, packetLength, sums, 0);
+            out.writeLong(nextSeqno++);
+            out.writeInt(packetLength);
+            out.writeBoolean(lastInBlock);
+            out.write(sums, 0, checksum.checksumLength(packetLength));
+            out.write(packet, 0, packetLength);
+            out.flush();
+            blockBytes += packetLength;
+            packetLength = 0;
+            if (lastInBlock) {
+                finishBlock();
+            } else {
+                while (connection.getIn().available() >= ACK_LENGTH) {
+                    readAck();
+                }
+            }
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    private void startBlock() throws IOException {
+        BlockInfo allocated = metaClient.addBlock(path);
+        if (allocated == null) {
+            throw new IOException("Failed to allocate a block for " + path);
+        }
+        List<String> targets = allocated.getLocations();
+        connection = connectionPool.borrow(targets.get(0));
+        block = allocated;
+        DataOutputStream out = connection.getOut();
+        DataOpCode.WRITE_BLOCK.write(out, Span.current());
+        out.writeLong(block.getBlockId());
+        out.writeInt(targets.size() - 1);
+        for (String target : targets.subList(1, targets.size())) {
+            out.writeUTF(target);
+        }
+        checksum.writeHeader(out);
+        nextSeqno = 0;
+        ackedSeqno = 0;
+    }
+
+    private void finishBlock() throws IOException {
+        while (ackedSeqno < nextSeqno) {
+            readAck();
+        }
+        block.setNumBytes(blockBytes);
+        blocks.add(block);
+        blockBytes = 0;
+        connectionPool.release(connection);
+        connection = null;
+        block = null;
+    }
+
+    private void readAck() throws IOException {
+        long seqno = connection.readLong();
+        int status = connection.readInt();
+        if (seqno != ackedSeqno || status != 0) {
+            throw new IOException("写入块 " + block.getBlockId() + " 到流水线 " + block.getLocations() + " 失败，packet " + seqno);
+        }
+        ackedSeqno++;
+    }
+}
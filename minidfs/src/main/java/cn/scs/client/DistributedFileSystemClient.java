@@ -1,28 +1,50 @@
 package cn.scs.client;
 
+import cn.scs.common.BlockInfo;
 import cn.scs.common.Config;
+import cn.scs.common.DataChecksum;
 import cn.scs.common.DataOpCode;
+import cn.scs.common.DirectoryListing;
 import cn.scs.common.FileInfo;
 import cn.scs.common.MetaOpCode;
+import cn.scs.common.ServerStats;
+import cn.scs.common.Span;
 import cn.scs.impl.DataServer;
 import cn.scs.impl.StorageNode;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import sun.tools.jar.CommandLine;
 
 import java.io.*;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class DistributedFileSystemClient {
     private static Logger log = LogManager.getLogger(DataServer.class);
+    private static final String TRACE_SERVICE = "client"; // 追踪中客户端的服务名
 
     private MetaServerClient metaDataClient;
     private List<StorageNode> storageNodes;
     private String cur_dir = "/";
+    // 到各数据服务器的连接池，读写块时复用已经建立的连接
+    private final ConnectionPool connectionPool = new ConnectionPool();
+    // 并行读写数据块的线程池，不同的块同时与不同的数据服务器传输
+    private final ExecutorService transferPool = Executors.newFixedThreadPool(Config.CLIENT_TRANSFER_THREADS, r -> {
+        Thread t = new Thread(r, "block-transfer");
+        t.setDaemon(true);
+        return t;
+    });
+    // 条带化并行读取，各副本同时提供同一个文件的不同部分；每个条带的读取慢于对冲延迟时再向其他副本发出
+    private final HedgedReader hedgedReader = new HedgedReader(this::fetchRange);
+    private final StripedReader stripedReader = new StripedReader(transferPool, hedgedReader, Config.CLIENT_READ_STRIPE_SIZE);
 
     public DistributedFileSystemClient() throws IOException {
         metaDataClient = new MetaServerClient();
@@ -37,6 +59,9 @@ public class DistributedFileSystemClient {
     public void disconnect() throws IOException {
         // 客户端连接关闭操作
         metaDataClient.close();
+        transferPool.shutdownNow();
+        hedgedReader.shutdown();
+        connectionPool.close();
         //与存储节点断开连接
         disconnectFromStorageNodes();
         log.info("客户端已经成功断开连接！");
@@ -57,99 +82,421 @@ public class DistributedFileSystemClient {
         throw new RuntimeException("No suitable storage node found for file ID: " + fileId);
     }
 
+    /**
+     * 打开文件用于顺序读取：返回的流按顺序逐块读取，读到某个块时才连接其数据服务器
+     */
     public DataInputStream openFile(String path) {
         try {
-            String fileId = metaDataClient.getFileInfo(path).getFileId();
-            if (fileId == null) {
-                log.error("打开文件失败，文件路径未找到: " + path);
-                return null;
+            return new DataInputStream(openFile(path, 0));
+        } catch (IOException e) {
+            log.error("打开文件失败: " + path + ", " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 从 offset 开始顺序读取文件。任意时刻只打开一个块的连接，内存占用与文件大小无关
+     */
+    public InputStream openFile(String path, long offset) throws IOException {
+        FileInfo fileInfo = metaDataClient.getFileInfo(path);
+        if (fileInfo == null || fileInfo.isDirectory()) {
+            throw new FileNotFoundException("File not found: " + path);
+        }
+        if (offset < 0 || offset > fileInfo.getFileSize()) {
+            throw new IOException("Invalid offset " + offset + " for " + path);
+        }
+        return new FileBlocksInputStream(fileInfo.getBlocks(), offset);
+    }
+
+    /**
+     * 把文件的各个块依次连成一个流，读完一个块（连接归还连接池）后才打开下一个块
+     */
+    private class FileBlocksInputStream extends InputStream {
+        private final Iterator<BlockInfo> blocks;
+        private long skip; // 尚未跳过的起始偏移
+        private InputStream current;
+        private boolean closed = false;
+
+        FileBlocksInputStream(List<BlockInfo> blocks, long offset) {
+            this.blocks = blocks.iterator();
+            this.skip = offset;
+        }
+
+        // 当前块读完时切换到下一个块，没有更多的块返回 false
+        private boolean advance() throws IOException {
+            while (current == null) {
+                if (closed || !blocks.hasNext()) {
+                    return false;
+                }
+                BlockInfo block = blocks.next();
+                if (skip >= block.getNumBytes()) {
+                    skip -= block.getNumBytes();
+                    continue;
+                }
+                current = openBlock(block, skip, block.getNumBytes() - skip);
+                skip = 0;
             }
+            return true;
+        }
 
-            StorageNode targetNode = selectStorageNode(fileId);
-            Connection connection = new Connection(targetNode.getHost(), targetNode.getPort());
-            DataOpCode.READ_FILE.write(connection.getOut()); // 发送读取文件操作码
-            connection.writeUTF(fileId);
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (advance()) {
+                int n = current.read(b, off, len);
+                if (n >= 0) {
+                    return n;
+                }
+                current.close();
+                current = null;
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * 读取块的 [offset, offset + length) 部分，依次尝试各个副本，返回定位到数据开头的输入流。
+     * 流读完并关闭后连接归还连接池，没有读完就关闭则丢弃连接。
+     */
+    private InputStream openBlock(BlockInfo block, long offset, long length) throws IOException {
+        IOException lastError = new IOException("No replica available for block " + block.getBlockId());
+        for (String location : block.getLocations()) {
+            try {
+                return openBlockAt(location, block, offset, length);
+            } catch (IOException e) {
+                log.error("从副本读取失败: " + location + ", " + e.getMessage());
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    // 从指定的副本读取块的一段到新数组中
+    private byte[] fetchRange(String location, BlockInfo block, long offset, int count) throws IOException {
+        byte[] data = new byte[count];
+        try (Span span = Span.current().child("readBlock").tag("location", location).tag("blockId", block.getBlockId())
+                .tag("bytes", count).activate();
+             DataInputStream in = new DataInputStream(openBlockAt(location, block, offset, count))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+
+    // 从指定的副本读取块的一段
+    private InputStream openBlockAt(String location, BlockInfo block, long offset, long length) throws IOException {
+        Connection connection = connectionPool.borrow(location);
+        try {
+            DataOpCode.READ_BLOCK.write(connection.getOut(), Span.current());
+            connection.writeLong(block.getBlockId());
+            connection.writeLong(offset);
+            connection.writeLong(length);
             connection.flush();
 
             int retCode = connection.readInt();
-            if (retCode == 0) {
-                return connection.getIn();
-            } else {
-                log.error("文件打开失败: " + connection.readUTF());
-                connection.close();
+            if (retCode != 0) {
+                throw new IOException("读取块失败: " + connection.readUTF());
+            }
+            long count = connection.readLong();
+            DataChecksum checksum = DataChecksum.readHeader(connection.getIn());
+            int skip = connection.readInt();
+            long sendLength = connection.readLong();
+            byte[] sums = new byte[checksum.checksumLength(sendLength)];
+            connection.getIn().readFully(sums);
+            if (count != length) {
+                throw new IOException("Block " + block.getBlockId() + " on " + location + " returned " + count + " of " + length + " bytes");
             }
+            return new BlockInputStream(connection, count, checksum, skip, sendLength, sums, offset - skip);
         } catch (IOException e) {
-            log.error("打开文件时发生IO异常: ", e);
+            connectionPool.invalidate(connection);
+            throw e;
         }
-        return null;
     }
 
-    public byte[] readFile(String path, long offset, int len) {
-        List<String> replicas = metaDataClient.getReplicas(path);
-        for (String replica : replicas) {
+    /**
+     * 块数据的输入流：按校验段读取连接上的数据，逐段校验后只交出请求范围内的 count 个字节，
+     * 不会越过本次响应读到连接上的后续内容。
+     */
+    private class BlockInputStream extends InputStream {
+        private final Connection connection;
+        private final DataChecksum checksum;
+        private final byte[] sums;
+        private final byte[] buffer;
+        private int sumOffset;
+        private int bufferPos;
+        private int bufferLen;
+        private int skip;          // 第一段中位于请求范围之前的字节数
+        private long blockPos;     // buffer 之后的数据在块中的位置
+        private long unread;       // 连接上尚未读取的数据字节数
+        private long remaining;    // 尚未交给调用方的字节数
+        private boolean closed = false;
+
+        BlockInputStream(Connection connection, long count, DataChecksum checksum, int skip, long sendLength, byte[] sums, long blockPos) {
+            this.connection = connection;
+            this.remaining = count;
+            this.checksum = checksum;
+            this.skip = skip;
+            this.unread = sendLength;
+            this.sums = sums;
+            this.blockPos = blockPos;
+            this.buffer = new byte[checksum.alignPacketSize(Config.PACKET_SIZE)];
+        }
+
+        // 读取并校验下一批完整的校验段
+        private void fill() throws IOException {
+            int n = (int) Math.min(buffer.length, unread);
             try {
-                String[] parts = replica.split(":");
-                String host = parts[0];
-                int port = Integer.parseInt(parts[1]);
-
-                Connection connection = new Connection(host, port);
-                DataOpCode.READ_FILE.write(connection.getOut()); // 发送读取操作码
-                connection.writeUTF(path);
-                connection.writeLong(offset);
-                connection.flush();
+                connection.getIn().readFully(buffer, 0, n);
+            } catch (EOFException e) {
+                throw new EOFException("Connection closed with " + unread + " bytes of block data left");
+            }
+            checksum.verifyChunks(buffer, 0, n, sums, sumOffset, blockPos);
+            sumOffset += checksum.checksumLength(n);
+            blockPos += n;
+            unread -= n;
+            bufferPos = skip;
+            bufferLen = n;
+            skip = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (bufferPos >= bufferLen) {
+                fill();
+            }
+            int n = (int) Math.min(Math.min(len, bufferLen - bufferPos), remaining);
+            System.arraycopy(buffer, bufferPos, b, off, n);
+            bufferPos += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(bufferLen - bufferPos, remaining);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (unread == 0) {
+                connectionPool.release(connection);
+            } else {
+                connectionPool.invalidate(connection);
+            }
+        }
+    }
+
+    /**
+     * 读取文件的 [offset, offset + len)，len <= 0 表示读到文件末尾。
+     * 覆盖到的各个块并行读取，直接填入结果数组中各自的位置。
+     */
+    public byte[] readFile(String path, long offset, int len) {
+        try (Span span = Span.startTrace(TRACE_SERVICE, "readFile").tag("path", path).activate()) {
+            return readFileTraced(path, offset, len);
+        }
+    }
 
-                // 读取数据
-                byte[] buffer = new byte[len];
-                connection.getIn().readFully(buffer);
-                connection.close();
+    private byte[] readFileTraced(String path, long offset, int len) {
+        FileInfo fileInfo = metaDataClient.getFileInfo(path);
+        if (fileInfo == null || fileInfo.isDirectory()) {
+            log.error("读取文件失败，文件路径未找到: " + path);
+            return null;
+        }
+        long end = len <= 0 ? fileInfo.getFileSize() : Math.min(offset + len, fileInfo.getFileSize());
+        if (offset < 0 || end > Integer.MAX_VALUE) {
+            log.error("读取范围无效: " + path + " [" + offset + ", " + end + ")");
+            return null;
+        }
+        byte[] buffer = new byte[(int) Math.max(0, end - offset)];
+        if (Config.CLIENT_STRIPED_READ) {
+            try {
+                stripedReader.read(fileInfo.getBlocks(), offset, end,
+                        (pos, data) -> System.arraycopy(data, 0, buffer, (int) (pos - offset), data.length));
                 return buffer;
             } catch (IOException e) {
-                log.error("从副本读取失败: " + replica, e);
+                log.error("读取文件 " + path + " 失败: " + e.getMessage());
+                return null;
             }
         }
-        return null;
+        List<Future<?>> reads = new ArrayList<>();
+        long blockStart = 0;
+        for (BlockInfo block : fileInfo.getBlocks()) {
+            long blockEnd = blockStart + block.getNumBytes();
+            long from = Math.max(offset, blockStart);
+            long to = Math.min(end, blockEnd);
+            if (from < to) {
+                final long blockOffset = from - blockStart;
+                final int pos = (int) (from - offset);
+                final int count = (int) (to - from);
+                reads.add(transferPool.submit(Span.wrap(() -> {
+                    try (Span span = Span.current().child("readBlock").tag("blockId", block.getBlockId()).activate();
+                         DataInputStream in = new DataInputStream(openBlock(block, blockOffset, count))) {
+                        in.readFully(buffer, pos, count);
+                    }
+                    return null;
+                })));
+            }
+            blockStart = blockEnd;
+        }
+        return awaitTransfers(reads, "读取文件 " + path) ? buffer : null;
     }
 
 
     /**
-     * 将data数据写至分布式文件系统路径path
+     * 将data数据写至分布式文件系统路径path。数据按块大小切分，每申请到一个块就提交给线程池，
+     * 各块并行写往元数据服务器为其选择的数据服务器，全部写完后提交各块长度。
      * @param path
      * @param data
      * @return
      */
     public boolean writeFile(String path, byte[] data) {
-        try {
-            // 向元数据服务器发送新建文件请求，返回 fileId
-            String fileId = metaDataClient.createFile(path);
-            if (fileId == null) {
-                log.error("创建文件失败: " + path);
+        try (Span span = Span.startTrace(TRACE_SERVICE, "writeFile").tag("path", path).tag("bytes", data.length).activate()) {
+            return writeFileTraced(path, data);
+        }
+    }
+
+    private boolean writeFileTraced(String path, byte[] data) {
+        // 向元数据服务器发送新建文件请求，返回 fileId
+        String fileId = metaDataClient.createFile(path);
+        if (fileId == null) {
+            log.error("创建文件失败: " + path);
+            return false;
+        }
+
+        List<BlockInfo> blocks = new ArrayList<>();
+        List<Future<?>> writes = new ArrayList<>();
+        for (long off = 0; off < data.length; off += Config.BLOCK_SIZE) {
+            BlockInfo block = metaDataClient.addBlock(path);
+            if (block == null) {
+                awaitTransfers(writes, "写入文件 " + path);
                 return false;
             }
+            final int start = (int) off;
+            final int count = (int) Math.min(Config.BLOCK_SIZE, data.length - off);
+            block.setNumBytes(count);
+            blocks.add(block);
+            writes.add(transferPool.submit(Span.wrap(() -> {
+                writeBlock(block, data, start, count);
+                return null;
+            })));
+        }
+        if (!awaitTransfers(writes, "写入文件 " + path)) {
+            return false;
+        }
+        if (metaDataClient.completeFile(path, blocks)) {
+            log.info("写入成功: " + path + ", " + blocks.size() + " blocks");
+            return true;
+        }
+        return false;
+    }
 
-            // 选择存储节点
-            StorageNode targetNode = selectStorageNode(fileId);
-            Connection connection = new Connection(targetNode.getHost(), targetNode.getPort());
-
-            // 发送写文件请求
-            DataOpCode.WRITE_FILE.write(connection.getOut());
-            connection.writeUTF(fileId);
-            connection.write(data);
-            connection.flush();
+    /**
+     * 把块写入其副本组成的流水线：只连接第一个数据服务器，其余副本由它逐级转发。
+     * 数据包连续发送而不等待确认，全部发完后再按顺序检查每个包的确认。
+     */
+    private void writeBlock(BlockInfo block, byte[] data, int off, int len) throws IOException {
+        List<String> targets = block.getLocations();
+        try (Span span = Span.current().child("writeBlock").tag("blockId", block.getBlockId()).tag("targets", targets)
+                .tag("bytes", len).activate()) {
+            Connection connection = connectionPool.borrow(targets.get(0));
+            boolean succeeded = false;
+            try {
+                DataOutputStream out = connection.getOut();
+                DataOpCode.WRITE_BLOCK.write(out, span);
+                out.writeLong(block.getBlockId());
+                out.writeInt(targets.size() - 1);
+                for (String target : targets.subList(1, targets.size())) {
+                    out.writeUTF(target);
+                }
+                DataChecksum checksum = DataChecksum.newDefault();
+                checksum.writeHeader(out);
+
+                int packetSize = checksum.alignPacketSize(Config.PACKET_SIZE);
+                byte[] sums = new byte[checksum.checksumLength(packetSize)];
+                long packets = 0;
+                Span send = span.child("send");
+                for (int pos = 0; pos < len; pos += packetSize) {
+                    int count = Math.min(packetSize, len - pos);
+                    checksum.calculateChunks(data, off + pos, count, sums, 0);
+                    out.writeLong(packets++);
+                    out.writeInt(count);
+                    out.writeBoolean(pos + count >= len);
+                    out.write(sums, 0, checksum.checksumLength(count));
+                    out.write(data, off + pos, count);
+                }
+                connection.flush();
+                send.finish();
+
+                // 检查流水线返回的确认
+                Span waitAck = span.child("waitAck");
+                for (long seqno = 0; seqno < packets; seqno++) {
+                    long ackSeqno = connection.readLong();
+                    int status = connection.readInt();
+                    if (ackSeqno != seqno || status != 0) {
+                        throw new IOException("写入块 " + block.getBlockId() + " 到流水线 " + targets + " 失败，packet " + ackSeqno);
+                    }
+                }
+                waitAck.finish();
+                succeeded = true;
+            } finally {
+                if (succeeded) {
+                    connectionPool.release(connection);
+                } else {
+                    connectionPool.invalidate(connection);
+                }
+                span.tag("succeeded", succeeded);
+            }
+        }
+    }
 
-            // 检查服务器返回的响应
-            int retCode = connection.readInt();
-            String msg = connection.readUTF();
-            if (retCode == 0) {
-                log.info("写入成功: " + msg);
-                return true;
-            } else {
-                log.error("写入失败: " + msg);
+    // 等待所有块传输完成，任意一个失败则整体失败
+    private boolean awaitTransfers(List<Future<?>> transfers, String action) {
+        boolean ok = true;
+        for (Future<?> transfer : transfers) {
+            try {
+                transfer.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error(action + " 时被中断");
+                return false;
+            } catch (ExecutionException e) {
+                log.error(action + " 时发生IO异常: ", e.getCause());
+                ok = false;
             }
-            connection.close();
-        } catch (IOException e) {
-            log.error("写入文件时发生IO异常: ", e);
         }
-        return false;
+        return ok;
     }
 
     public boolean closeFile(String path) {
@@ -161,35 +508,51 @@ public class DistributedFileSystemClient {
             }
 
             StorageNode targetNode = selectStorageNode(fileId);
-            Connection connection = new Connection(targetNode.getHost(), targetNode.getPort());
-            DataOpCode.CLOSE_FILE.write(connection.getOut());
-            connection.writeUTF(fileId);
-            connection.flush();
+            Connection connection = connectionPool.borrow(targetNode.getHost(), targetNode.getPort());
+            try {
+                DataOpCode.CLOSE_FILE.write(connection.getOut());
+                connection.writeUTF(fileId);
+                connection.flush();
 
-            int retCode = connection.readInt();
-            if (retCode == 0) {
-                log.info("文件关闭成功: " + path);
-                return true;
-            } else {
-                log.error("文件关闭失败: " + connection.readUTF());
+                int retCode = connection.readInt();
+                if (retCode == 0) {
+                    log.info("文件关闭成功: " + path);
+                    connectionPool.release(connection);
+                    return true;
+                } else {
+                    log.error("文件关闭失败: " + connection.readUTF());
+                    connectionPool.release(connection);
+                }
+            } catch (IOException e) {
+                connectionPool.invalidate(connection);
+                throw e;
             }
-            connection.close();
         } catch (IOException e) {
             log.error("关闭文件时发生IO异常: ", e);
         }
         return false;
     }
 
+    // 逐页打印目录内容，大目录也只在内存中保留一页
     private void listFiles(String path) {
-        List<String> fileList = metaDataClient.listFiles(path); // 假设有这个方法来获取文件列表
-
-        if (fileList.isEmpty()) {
-            System.out.println("No files found.");
-        } else {
+        try {
+            DirectoryListing page = metaDataClient.listFiles(path, null, Config.LIST_PAGE_SIZE);
+            if (page.getNames().isEmpty()) {
+                System.out.println("No files found.");
+                return;
+            }
             System.out.println("Files in the system:");
-            for (String file : fileList) {
-                System.out.println(file);
+            while (true) {
+                for (String file : page.getNames()) {
+                    System.out.println(file);
+                }
+                if (!page.hasMore()) {
+                    break;
+                }
+                page = metaDataClient.listFiles(path, page.getLastName(), Config.LIST_PAGE_SIZE);
             }
+        } catch (IOException e) {
+            log.error("列目录失败: " + path, e);
         }
     }
 
@@ -204,118 +567,145 @@ public class DistributedFileSystemClient {
     }
 
 
-    public boolean downloadFile(String remoteFilePath, String localFilePath) {
-        // 实现下载文件逻辑
-        byte[] fileData = readFile(remoteFilePath, 0, (int) getFileSize(remoteFilePath));
-        if (fileData == null) {
-            log.error("下载文件失败，未能读取文件内容: " + remoteFilePath);
-            return false;
+    /**
+     * 以流的方式写入文件，返回的输出流关闭时提交文件；写入过程中只缓冲一个数据包
+     */
+    public OutputStream createFile(String path) throws IOException {
+        return create(path);
+    }
+
+    private DFSOutputStream create(String path) throws IOException {
+        if (metaDataClient.createFile(path) == null) {
+            throw new IOException("创建文件失败: " + path);
+        }
+        return new DFSOutputStream(metaDataClient, connectionPool, path);
+    }
+
+    // 把输入流的全部内容写入新文件；读取失败时放弃写入，不提交只写了一部分的文件
+    private long writeFrom(InputStream in, String path) throws IOException {
+        DFSOutputStream out = create(path);
+        try {
+            long size = copy(in, out);
+            out.close();
+            return size;
+        } catch (IOException e) {
+            out.abort();
+            throw e;
         }
+    }
 
-        try (FileOutputStream fos = new FileOutputStream(localFilePath)) {
-            fos.write(fileData);
+    // 在两个流之间复制数据，使用固定大小的缓冲区
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[Config.PACKET_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    public boolean uploadFile(String localFilePath, String remoteFilePath) {
+        try (Span span = Span.startTrace(TRACE_SERVICE, "uploadFile").tag("path", remoteFilePath).activate();
+             InputStream in = new BufferedInputStream(new FileInputStream(localFilePath))) {
+            long size = writeFrom(in, remoteFilePath);
+            log.info("文件上传成功: " + remoteFilePath + ", " + size + " bytes");
+            return true;
+        } catch (IOException e) {
+            log.error("上传文件时发生IO异常: " + localFilePath, e);
+        }
+        return false;
+    }
+
+    public boolean downloadFile(String remoteFilePath, String localFilePath) {
+        if (Config.CLIENT_STRIPED_READ) {
+            return stripedDownload(remoteFilePath, localFilePath);
+        }
+        // 实现下载文件逻辑：逐块读取并写入本地文件，不在内存中保存整个文件
+        try (InputStream in = openFile(remoteFilePath, 0);
+             OutputStream fos = new FileOutputStream(localFilePath)) {
+            copy(in, fos);
             log.info("文件下载成功: " + localFilePath);
             return true;
         } catch (IOException e) {
-            log.error("写入本地文件时发生IO异常: " + localFilePath, e);
+            log.error("下载文件时发生IO异常: " + remoteFilePath + " -> " + localFilePath, e);
         }
         return false;
     }
 
 
+    /**
+     * 从各个副本并行下载条带，按位置直接写入本地文件，内存占用为每个工作线程一个条带
+     */
+    private boolean stripedDownload(String remoteFilePath, String localFilePath) {
+        FileInfo fileInfo = metaDataClient.getFileInfo(remoteFilePath);
+        if (fileInfo == null || fileInfo.isDirectory()) {
+            log.error("下载文件失败，文件路径未找到: " + remoteFilePath);
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(localFilePath, "rw")) {
+            file.setLength(fileInfo.getFileSize());
+            FileChannel channel = file.getChannel();
+            stripedReader.read(fileInfo.getBlocks(), 0, fileInfo.getFileSize(), (pos, data) -> {
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                while (buf.hasRemaining()) {
+                    channel.write(buf, pos + buf.position());
+                }
+            });
+            log.info("文件下载成功: " + localFilePath);
+            return true;
+        } catch (IOException e) {
+            log.error("下载文件时发生IO异常: " + remoteFilePath + " -> " + localFilePath, e);
+        }
+        return false;
+    }
+
     public boolean deleteFile(String remoteFilePath) {
         // 实现删除文件逻辑
-        try {
-            MetaOpCode.DEL_FILE.write(metaDataClient.getConnection().getOut());
-            metaDataClient.getConnection().writeUTF(remoteFilePath);
-            metaDataClient.getConnection().flush();
-
-            int retCode = metaDataClient.getConnection().readInt();
-            if(retCode == 0){
-                log.info("文件删除成功！"+remoteFilePath);
-                return true;
-            }else {
-                log.error("文件删除失败！" + metaDataClient.getConnection().readUTF());
-            }
-        } catch (Exception e){
-            log.error("文件删除时发生IO异常" + remoteFilePath,e);
+        if (metaDataClient.deleteFile(remoteFilePath)) {
+            log.info("文件删除成功！" + remoteFilePath);
+            return true;
         }
+        log.error("文件删除失败！" + remoteFilePath);
         return false;
     }
 
 
     public boolean createDirectory(String remoteDirectoryPath) {
         // 实现创建目录逻辑
-        try {
-            MetaOpCode.CREATE_FILE.write(metaDataClient.getConnection().getOut());
-            metaDataClient.getConnection().writeUTF(remoteDirectoryPath);
-            metaDataClient.getConnection().writeUTF(Config.USER);
-            metaDataClient.getConnection().writeBoolean(true);
-
-            int retCode = metaDataClient.getConnection().readInt();
-            String msg = metaDataClient.getConnection().readUTF();
-            if(retCode == 0){
-                log.info("创建目录成功！" + msg);
-                return true;
-            }else {
-                log.error("目录创建失败：" + msg);
-            }
-        }catch (Exception e){
-            log.error("创建目录时发生IO异常: " + remoteDirectoryPath,e);
+        String msg = metaDataClient.createDirectory(remoteDirectoryPath);
+        if (msg != null) {
+            log.info("创建目录成功！" + remoteDirectoryPath);
+            return true;
         }
+        log.error("目录创建失败：" + remoteDirectoryPath);
         return false;
     }
 
     public boolean deleteDirectory(String remoteDirectoryPath) {
         // 实现删除目录逻辑
-        try {
-            MetaOpCode.DEL_FILE.write(metaDataClient.getConnection().getOut());
-            metaDataClient.getConnection().writeUTF(remoteDirectoryPath);
-            metaDataClient.getConnection().flush();
-
-            int retCode = metaDataClient.getConnection().readInt();
-            if(retCode == 0){
-                log.info("目录删除成功: " + remoteDirectoryPath);
-                return true;
-            }else {
-                log.error("目录删除失败: " + metaDataClient.getConnection().readUTF());
-            }
-        } catch (Exception e){
-                log.error("删除目录时发生IO异常: " + remoteDirectoryPath, e);
+        if (metaDataClient.deleteFile(remoteDirectoryPath)) {
+            log.info("目录删除成功: " + remoteDirectoryPath);
+            return true;
         }
+        log.error("目录删除失败: " + remoteDirectoryPath);
         return false;
     }
 
     public FileInfo getFileInfo(String remoteFilePath) {
         // 实现获取文件信息逻辑
-        try {
-            MetaOpCode.LIST_FILE.write(metaDataClient.getConnection().getOut());
-            metaDataClient.getConnection().writeUTF(remoteFilePath);
-            metaDataClient.getConnection().flush();
-
-            int retCode = metaDataClient.getConnection().readInt();
-            if(retCode == 0){
-                String fileInfoStr = metaDataClient.getConnection().readUTF();
-                FileInfo fileInfo = FileInfo.parse(fileInfoStr);
-                return fileInfo;
-            }
-            else {
-                log.error("获取文件信息失败: " + metaDataClient.getConnection().readUTF());
-            }
-        }catch (Exception e){
-            log.error("获取文件信息时发生IO异常: " + remoteFilePath, e);
+        FileInfo fileInfo = metaDataClient.getFileInfo(remoteFilePath);
+        if (fileInfo == null) {
+            log.error("获取文件信息失败: " + remoteFilePath);
         }
-        return null;
+        return fileInfo;
     }
     public boolean copyFile(String sourcePath, String destinationPath) {
         // 实现复制文件逻辑
-        try {
-            byte[] fileData = readFile(sourcePath,0,(int)getFileSize(sourcePath));
-            if(fileData == null){
-                log.error("复制文件失败，未能读取到相关内容：" + sourcePath);
-                return false;
-            }
-            return writeFile(destinationPath,fileData);
+        try (InputStream in = openFile(sourcePath, 0)) {
+            writeFrom(in, destinationPath);
+            return true;
         } catch (Exception e){
             log.error("复制文件时发生异常: " + sourcePath + " 到 " + destinationPath, e);
         }
@@ -347,20 +737,34 @@ public class DistributedFileSystemClient {
 
     //获取副本
     public List<String> getReplicas(String filePath) {
+        return metaDataClient.getReplicas(filePath);
+    }
+
+    // 批量执行元数据操作（创建、查询、删除、重命名），每 META_BATCH_MAX_OPS 项一次往返
+    public List<MetaBatch.Result> batch(MetaBatch batch) throws IOException {
+        return metaDataClient.batch(batch);
+    }
+
+    // 元数据服务器的请求指标快照
+    public ServerStats getMetaServerStats() throws IOException {
+        return metaDataClient.getStats();
+    }
+
+    // 数据服务器（host:port）的请求指标快照
+    public ServerStats getDataServerStats(String location) throws IOException {
+        Connection connection = connectionPool.borrow(location);
         try {
-            metaDataClient.getConnection().writeUTF("GET_REPLICAS");
-            metaDataClient.getConnection().writeUTF(filePath);
-            metaDataClient.getConnection().flush();
-
-            int count = metaDataClient.getConnection().readInt();
-            List<String> replicas = new ArrayList<>();
-            for (int i = 0; i < count; i++) {
-                replicas.add(metaDataClient.getConnection().readUTF());
+            DataOpCode.STATS.write(connection.getOut());
+            connection.flush();
+            if (connection.readInt() != 0) {
+                throw new IOException("Failed to get stats from " + location + ": " + connection.readUTF());
             }
-            return replicas;
+            ServerStats stats = ServerStats.read(connection.getIn());
+            connectionPool.release(connection);
+            return stats;
         } catch (IOException e) {
-            log.error("Failed to get replicas: " + e.getMessage());
-            return Collections.emptyList();
+            connectionPool.invalidate(connection);
+            throw e;
         }
     }
 
@@ -379,7 +783,7 @@ public class DistributedFileSystemClient {
         System.out.println("┗===================================================┛");
         System.out.println();
         while (running) {
-            System.out.println("操作列表：(open, cd, read, write, close, ls, cat, copy, move, download, delete, mkdir, rmdir,exit):");
+            System.out.println("操作列表：(open, cd, read, write, close, ls, cat, copy, move, download, delete, mkdir, rmdir, stats,exit):");
             String command = scanner.nextLine();
 
             switch (command.toLowerCase()) {
@@ -526,6 +930,17 @@ public class DistributedFileSystemClient {
                     }
                     break;
 
+                case "stats":
+                    // 查看服务器的请求计数与延迟分布，数据服务器输入 host:port，直接回车查看元数据服务器
+                    System.out.println("Enter data server (host:port), or press Enter for the metadata server:");
+                    String statsServer = scanner.nextLine().trim();
+                    try {
+                        System.out.println(statsServer.isEmpty() ? client.getMetaServerStats() : client.getDataServerStats(statsServer));
+                    } catch (IOException e) {
+                        System.out.println("Failed to get stats: " + e.getMessage());
+                    }
+                    break;
+
                 case "exit":
                     System.out.println("拜拜~");
                     running = false;
@@ -0,0 +1,88 @@
+package cn.scs.client;
+
+import cn.scs.common.FileInfo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 客户端的 FileInfo 缓存：容量有上限，按最近访问顺序淘汰（LRU），每个条目只在租约期内有效。
+ * 元数据服务器修改被缓存的路径时推送失效通知；通知与查询响应可能交错到达，
+ * 因此每次失效都会推进 epoch，查询发出后若发生过失效，其结果不再放入缓存。
+ */
+class FileInfoCache {
+
+    private static class CachedEntry {
+        final FileInfo fileInfo;
+        final long expiresAt;
+
+        CachedEntry(FileInfo fileInfo, long expiresAt) {
+            this.fileInfo = fileInfo;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, CachedEntry> entries;
+    private long epoch;
+    private long hits;
+    private long misses;
+
+    FileInfoCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, CachedEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedEntry> eldest) {
+                return size() > FileInfoCache.this.capacity;
+            }
+        };
+    }
+
+    synchronized FileInfo get(String path) {
+        CachedEntry entry = entries.get(path);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(path);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.fileInfo;
+    }
+
+    // 发出查询前取得当前 epoch，连同发出时间一起交给 put
+    synchronized long epoch() {
+        return epoch;
+    }
+
+    /**
+     * 缓存查询结果，租约从请求发出的时间算起；期间收到过失效通知则放弃
+     */
+    synchronized void put(String path, FileInfo fileInfo, long requestEpoch, long requestTime, long leaseMs) {
+        if (capacity <= 0 || leaseMs <= 0 || requestEpoch != epoch) {
+            return;
+        }
+        entries.put(path, new CachedEntry(fileInfo, requestTime + leaseMs));
+    }
+
+    synchronized void invalidate(String path) {
+        epoch++;
+        entries.remove(path);
+    }
+
+    // 与服务器的连接断开后收不到失效通知，清空全部缓存
+    synchronized void clear() {
+        epoch++;
+        entries.clear();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,140 @@
+package cn.scs.client;
+
+import cn.scs.common.BlockInfo;
+import cn.scs.common.Config;
+import cn.scs.common.Span;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对冲读取（hedged read）：先向首选副本发出读请求，超过对冲延迟仍未返回时，
+ * 向下一个副本发出同样的请求，哪个先读完就用哪个，其余的请求取消（中断线程会关闭其连接）。
+ * 一个因 GC 停顿或磁盘繁忙而变慢的数据服务器因此不会拖长读取的尾延迟。
+ *
+ * 对冲延迟可以固定（CLIENT_HEDGE_DELAY_MS > 0），默认取最近读取耗时的 p95，
+ * 即只有约 5% 最慢的读取会多发一个请求。
+ * 首选副本直接报错时不在这里换副本，由调用方决定是否放弃该节点。
+ */
+class HedgedReader implements StripedReader.RangeFetcher {
+    private static Logger log = LogManager.getLogger(HedgedReader.class);
+
+    private static final int SAMPLE_COUNT = 256;
+
+    private final StripedReader.RangeFetcher fetcher;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "hedged-read");
+        t.setDaemon(true);
+        return t;
+    });
+    private final long[] samples = new long[SAMPLE_COUNT]; // 最近读取的耗时（毫秒），环形缓冲区
+    private int sampleCount;
+    private int nextSample;
+    private final AtomicLong hedgedReads = new AtomicLong();
+    private final AtomicLong hedgedReadWins = new AtomicLong();
+
+    HedgedReader(StripedReader.RangeFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public byte[] fetch(String preferred, BlockInfo block, long offset, int count) throws IOException {
+        List<String> others = new ArrayList<>(block.getLocations());
+        others.remove(preferred);
+        if (!Config.CLIENT_HEDGED_READ || others.isEmpty()) {
+            return timed(preferred, block, offset, count);
+        }
+
+        ExecutorCompletionService<byte[]> attempts = new ExecutorCompletionService<>(executor);
+        List<Future<byte[]>> futures = new ArrayList<>();
+        futures.add(attempts.submit(Span.wrap(() -> timed(preferred, block, offset, count))));
+        Iterator<String> spare = others.iterator();
+        int outstanding = 1;
+        long delay = hedgeDelayMs();
+        IOException lastError = null;
+        try {
+            while (outstanding > 0) {
+                Future<byte[]> done = spare.hasNext() ? attempts.poll(delay, TimeUnit.MILLISECONDS) : attempts.take();
+                if (done == null) {
+                    // 超过对冲延迟仍未返回，向下一个副本再发一次
+                    String location = spare.next();
+                    hedgedReads.incrementAndGet();
+                    log.debug("Hedging read of block " + block.getBlockId() + " to " + location + " after " + delay + "ms");
+                    futures.add(attempts.submit(Span.wrap(() -> timed(location, block, offset, count))));
+                    outstanding++;
+                    continue;
+                }
+                outstanding--;
+                try {
+                    byte[] data = done.get();
+                    if (done != futures.get(0)) {
+                        hedgedReadWins.incrementAndGet();
+                    }
+                    return data;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    lastError = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+            throw lastError;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading block " + block.getBlockId(), e);
+        } finally {
+            for (Future<byte[]> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    // 读取并记录耗时，用于计算自适应的对冲延迟
+    private byte[] timed(String location, BlockInfo block, long offset, int count) throws IOException {
+        long start = System.nanoTime();
+        byte[] data = fetcher.fetch(location, block, offset, count);
+        record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return data;
+    }
+
+    private synchronized void record(long elapsedMs) {
+        samples[nextSample] = elapsedMs;
+        nextSample = (nextSample + 1) % SAMPLE_COUNT;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_COUNT);
+    }
+
+    synchronized long hedgeDelayMs() {
+        if (Config.CLIENT_HEDGE_DELAY_MS > 0) {
+            return Config.CLIENT_HEDGE_DELAY_MS;
+        }
+        if (sampleCount == 0) {
+            return Config.CLIENT_HEDGE_MAX_DELAY_MS;
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        long p95 = sorted[Math.min(sampleCount - 1, (int) Math.ceil(sampleCount * 0.95) - 1)];
+        return Math.max(Config.CLIENT_HEDGE_MIN_DELAY_MS, Math.min(Config.CLIENT_HEDGE_MAX_DELAY_MS, p95));
+    }
+
+    long getHedgedReads() {
+        return hedgedReads.get();
+    }
+
+    long getHedgedReadWins() {
+        return hedgedReadWins.get();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,97 @@
+package cn.scs.client;
+
+import cn.scs.common.FileInfo;
+import cn.scs.common.MetaOpCode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一组在一次往返中提交的元数据操作，由 MetaServerClient.batch 发送。
+ * 服务器对整批只加一次锁、刷一次日志，依次执行各项；各项独立成败，结果与添加顺序一一对应。
+ */
+public class MetaBatch {
+
+    static class Item {
+        final MetaOpCode op;
+        final String path;
+        final String target; // 重命名的目标路径
+        final boolean isDirectory;
+
+        Item(MetaOpCode op, String path, String target, boolean isDirectory) {
+            this.op = op;
+            this.path = path;
+            this.target = target;
+            this.isDirectory = isDirectory;
+        }
+    }
+
+    /**
+     * 一项的结果：创建成功时 message 为文件编号、fileInfo 为新建的文件信息，查询成功时 fileInfo 为文件信息，其余为服务器返回的消息
+     */
+    public static class Result {
+        private final MetaOpCode op;
+        private final boolean ok;
+        private final String message;
+        private final FileInfo fileInfo;
+
+        Result(MetaOpCode op, boolean ok, String message, FileInfo fileInfo) {
+            this.op = op;
+            this.ok = ok;
+            this.message = message;
+            this.fileInfo = fileInfo;
+        }
+
+        public MetaOpCode getOp() {
+            return op;
+        }
+
+        public boolean isOk() {
+            return ok;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public FileInfo getFileInfo() {
+            return fileInfo;
+        }
+    }
+
+    private final List<Item> items = new ArrayList<>();
+
+    public MetaBatch createFile(String path) {
+        items.add(new Item(MetaOpCode.CREATE_FILE, path, null, false));
+        return this;
+    }
+
+    public MetaBatch createDirectory(String path) {
+        items.add(new Item(MetaOpCode.CREATE_FILE, path, null, true));
+        return this;
+    }
+
+    public MetaBatch getFileInfo(String path) {
+        items.add(new Item(MetaOpCode.GET_FILE_INFO, path, null, false));
+        return this;
+    }
+
+    public MetaBatch delete(String path) {
+        items.add(new Item(MetaOpCode.DEL_FILE, path, null, false));
+        return this;
+    }
+
+    public MetaBatch rename(String oldPath, String newPath) {
+        items.add(new Item(MetaOpCode.RENAME_FILE, oldPath, newPath, false));
+        return this;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    List<Item> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+}
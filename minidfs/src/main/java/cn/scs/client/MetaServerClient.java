@@ -1,34 +1,70 @@
 package cn.scs.client;
 
+import cn.scs.common.BlockInfo;
 import cn.scs.common.Config;
+import cn.scs.common.DirectoryListing;
 import cn.scs.common.FileInfo;
+import cn.scs.common.FileInfoCodec;
+import cn.scs.common.MetaFrame;
 import cn.scs.common.MetaOpCode;
+import cn.scs.common.ServerStats;
+import cn.scs.common.Span;
 
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
-import org.apache.log4j.LogManager;
-import org.apache.log4j.Logger;
-import sun.rmi.runtime.Log;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.log4j.Logger;
 
 
+/**
+ * 元数据服务客户端。一个实例持有一条长连接，请求以帧的形式发送并带有 requestId，
+ * 后台读取线程按 requestId 把响应交给对应的 future，因此多个线程可以共享同一个实例，
+ * 也可以通过 *Async 方法在一条连接上流水线发送大量请求而不必等待前一个响应。
+ * getFileInfo 的结果在租约期内缓存在客户端，服务器在路径被修改时通过同一连接推送失效通知。
+ */
 public class MetaServerClient {
 
-    private static final String META_SERVRE_HOST = Config.META_SERVRE_HOST; // 元数据服务器的主机名
-    private static final int METADATA_SERVER_PORT = Config.META_SERVRE_PORT; // 元数据服务器的端口号
     private Connection connection;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<MetaFrame.BodyInput>> pending = new ConcurrentHashMap<>();
+    private final Thread responseReader;
+    private volatile boolean closed = false;
+    private final FileInfoCache fileInfoCache = new FileInfoCache(Config.CLIENT_META_CACHE_SIZE);
 
     private static final Logger log = Logger.getLogger(MetaServerClient.class);
 
+    // 请求参数的写入逻辑
+    private interface RequestWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // 响应内容的解析逻辑
+    private interface ResponseReader<T> {
+        T read(MetaFrame.BodyInput in) throws IOException;
+    }
+
+    // 连接 Config 中配置的元数据服务器
     public MetaServerClient() throws IOException {
-        connection = new Connection(META_SERVRE_HOST, METADATA_SERVER_PORT);
+        this(Config.META_SERVRE_HOST, Config.META_SERVRE_PORT);
     }
 
-    public Connection getConnection(){
-        return connection;
+    public MetaServerClient(String host, int port) throws IOException {
+        connection = new Connection(host, port);
+        responseReader = new Thread(this::readResponses, "meta-client-reader");
+        responseReader.setDaemon(true);
+        responseReader.start();
     }
 
     public static void main(String[] args) {
@@ -44,75 +80,204 @@ public class MetaServerClient {
             System.out.println("files:"+files);
             files = metaServerClient.listFiles("/");
             System.out.println("files:"+files);
-            metaServerClient.connection.close();
+            metaServerClient.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-
-    public List<String> listFiles(String cur_dir) {
-        List<String> fl = new ArrayList<>();
+    /**
+     * 后台读取线程：按 requestId 完成对应的请求
+     */
+    private void readResponses() {
         try {
-            MetaOpCode.LIST_FILE.write(connection.getOut()); //
-            connection.flush();
-            connection.writeUTF(cur_dir); // 客户端发送路径
-            connection.flush();
+            while (!closed) {
+                MetaFrame frame = MetaFrame.read(connection.getIn());
+                if (frame.getRequestId() == MetaFrame.PUSH_REQUEST_ID) {
+                    handlePush(frame.getBody());
+                    continue;
+                }
+                CompletableFuture<MetaFrame.BodyInput> future = pending.remove(frame.getRequestId());
+                if (future != null) {
+                    future.complete(frame.getBody());
+                } else {
+                    log.warn("Dropping response for unknown request id: " + frame.getRequestId());
+                }
+            }
+        } catch (EOFException e) {
+            failPending(new IOException("Connection closed by metadata server"));
+        } catch (IOException e) {
+            if (!closed) {
+                log.error("Metadata connection failed: " + e.getMessage());
+            }
+            failPending(e);
+        }
+    }
 
+    // 服务器推送的消息，在读取线程中按到达顺序处理
+    private void handlePush(MetaFrame.BodyInput in) throws IOException {
+        MetaOpCode op = MetaOpCode.read(in);
+        if (op != MetaOpCode.INVALIDATE) {
+            log.warn("Ignoring unexpected push from metadata server: " + op);
+            return;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            fileInfoCache.invalidate(in.readUTF());
+        }
+    }
 
+    private void failPending(IOException cause) {
+        closed = true;
+        fileInfoCache.clear();
+        for (Integer id : new ArrayList<>(pending.keySet())) {
+            CompletableFuture<MetaFrame.BodyInput> future = pending.remove(id);
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
 
-            int size =  connection.readInt();
-            System.out.println("list size:" + size);
-            for(int i = 0;i<size;i++){
-                fl.add(connection.readUTF());
+    /**
+     * 发送一个请求帧，返回其响应 body 的 future。当前线程在采样的追踪中时，请求带上 TRACE 头，
+     * 从发送到收到响应记为一个 CLIENT span
+     */
+    private <T> CompletableFuture<T> call(MetaOpCode op, RequestWriter writer, ResponseReader<T> reader) {
+        CompletableFuture<MetaFrame.BodyInput> response = new CompletableFuture<>();
+        Span span = Span.current().child(op.name()).kind(Span.CLIENT);
+        response.whenComplete((in, e) -> span.finish());
+        int requestId = nextRequestId.incrementAndGet();
+        pending.put(requestId, response);
+        if (closed) {
+            // 读取线程已经退出，不会再有响应
+            pending.remove(requestId);
+            response.completeExceptionally(new IOException("Metadata connection is closed"));
+        } else {
+            try {
+                MetaFrame.BodyBuffer body = new MetaFrame.BodyBuffer();
+                DataOutputStream bodyOut = new DataOutputStream(body);
+                op.write(bodyOut, span);
+                writer.write(bodyOut);
+                synchronized (connection) {
+                    body.writeFrame(connection.getOut(), requestId);
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                pending.remove(requestId);
+                response.completeExceptionally(e);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return fl;
+        CompletableFuture<T> result = response.thenApply(in -> {
+            try {
+                return reader.read(in);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        // 调用方放弃等待（如 await 超时）时取消请求，不再为它保留 pending 项；之后到达的响应会被丢弃
+        result.whenComplete((value, e) -> {
+            if (e instanceof CancellationException) {
+                pending.remove(requestId);
+                response.cancel(false);
+            }
+        });
+        return result;
     }
 
-    public String heartBeat(String nodeName) {
+    /**
+     * 同步等待请求结果，把异步异常还原为 IOException
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
         try {
-            MetaOpCode.HEART_BEAT.write(connection.getOut()); //
-            connection.flush();
-            connection.writeUTF(nodeName); // 读取客户端发送路径
-            connection.flush();
-            int code = connection.readInt();
-            String msg = connection.readUTF();
-            return msg;
+            return future.get(Config.META_RPC_TIMEOUT_SECS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new IOException("Interrupted while waiting for metadata server", e);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new IOException("Timed out waiting for metadata server", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException && cause.getCause() instanceof IOException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
 
+    // 读取目录中名字在 startAfter 之后的一页，startAfter 为 null 时从头开始
+    public CompletableFuture<DirectoryListing> listFilesAsync(String cur_dir, String startAfter, int pageSize) {
+        return call(MetaOpCode.LIST_FILE, out -> {
+            out.writeUTF(cur_dir);
+            out.writeUTF(startAfter == null ? "" : startAfter);
+            out.writeInt(pageSize);
+        }, in -> {
+            if (in.readInt() != 0) {
+                throw new IOException("Failed to list " + cur_dir + ": " + in.readUTF());
+            }
+            FileInfoCodec.Decoder decoder = new FileInfoCodec.Decoder(in);
+            List<String> names = new ArrayList<>(decoder.remaining());
+            List<FileInfo> entries = new ArrayList<>(decoder.remaining());
+            while (decoder.remaining() > 0) {
+                FileInfo entry = decoder.readChild(cur_dir);
+                names.add(entry.getFileName());
+                entries.add(entry);
+            }
+            return new DirectoryListing(names, entries, in.readBoolean());
+        });
+    }
+
+    public DirectoryListing listFiles(String cur_dir, String startAfter, int pageSize) throws IOException {
+        return await(listFilesAsync(cur_dir, startAfter, pageSize));
+    }
+
+    // 逐页读取整个目录
+    public List<String> listFiles(String cur_dir) {
+        List<String> fl = new ArrayList<>();
+        try {
+            DirectoryListing page = listFiles(cur_dir, null, Config.LIST_PAGE_SIZE);
+            fl.addAll(page.getNames());
+            while (page.hasMore()) {
+                page = listFiles(cur_dir, page.getLastName(), Config.LIST_PAGE_SIZE);
+                fl.addAll(page.getNames());
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to list files in " + cur_dir + ": " + e.getMessage());
         }
-        return null;
+        return fl;
+    }
+
+    public CompletableFuture<FileInfo> getFileInfoAsync(String path) {
+        FileInfo cached = fileInfoCache.get(path);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        long requestEpoch = fileInfoCache.epoch();
+        long requestTime = System.currentTimeMillis();
+        return call(MetaOpCode.GET_FILE_INFO, out -> out.writeUTF(path), in -> {
+            int code = in.readInt();
+            if (code != 0) {
+                log.error("Failed to get file info for path: " + path + ", reason: " + in.readUTF());
+                return null;
+            }
+            return readFileInfo(path, in, requestEpoch, requestTime);
+        });
+    }
+
+    // 读取 GET_FILE_INFO 成功响应中状态码之后的部分，并按租约放入缓存
+    private FileInfo readFileInfo(String path, MetaFrame.BodyInput in, long requestEpoch, long requestTime) throws IOException {
+        FileInfo fileInfo = new FileInfoCodec.Decoder(in).read(path);
+        fileInfoCache.put(path, fileInfo, requestEpoch, requestTime, in.readLong());
+        return fileInfo;
     }
 
     public FileInfo getFileInfo(String path) {
         try {
-            MetaOpCode.GET_FILE_INFO.write(connection.getOut());
-            connection.flush();
-            connection.writeUTF(path);
-            connection.flush();
-
-            int code = connection.readInt();
-            if (code == 0) {
-                String fileName = connection.readUTF();
-                boolean isDirectory = connection.readBoolean();
-                String owner = connection.readUTF();
-                long fileSize = connection.readLong();
-                List<String> locations = new ArrayList<>();
-                int locationCount = connection.readInt();
-                for (int i = 0; i < locationCount; i++) {
-                    locations.add(connection.readUTF());
-                }
-                FileInfo fileInfo = new FileInfo(fileName, path, isDirectory, fileSize, owner, System.currentTimeMillis());
-                fileInfo.setLocations(locations);
-                return fileInfo;
-            } else {
-                String msg = connection.readUTF();
-                log.error("Failed to get file info for path: " + path + ", reason: " + msg);
-            }
+            return await(getFileInfoAsync(path));
         } catch (IOException e) {
             log.error("IOException while getting file info for path: " + path, e);
         }
@@ -120,46 +285,188 @@ public class MetaServerClient {
     }
 
     public String createFile(String path) {
+        return create(path, false);
+    }
+
+    public String createDirectory(String path) {
+        return create(path, true);
+    }
+
+    private String create(String path, boolean isDirectory) {
         try {
-            MetaOpCode.CREATE_FILE.write(connection.getOut()); //
-            connection.flush();
-            connection.writeUTF(path); // 读取客户端发送路径
-            connection.writeUTF(Config.USER); // 读取客户端发送用户
-            connection.writeBoolean(false); // 是否为目录
-
-            connection.flush();
-            int code = connection.readInt();
-            String nodeAndFileId = connection.readUTF();
-            String nodeName = nodeAndFileId.split(":")[0];
-            String localFileId = nodeAndFileId.split(":")[1];
-            System.out.println(nodeName+":"+localFileId);
-            return nodeAndFileId;
+            return await(call(MetaOpCode.CREATE_FILE, out -> {
+                out.writeUTF(path); // 客户端发送路径
+                out.writeUTF(Config.USER); // 客户端发送用户
+                out.writeBoolean(isDirectory); // 是否为目录
+            }, in -> {
+                int code = in.readInt();
+                if (code != 0) {
+                    log.error("Failed to create " + path + ": " + in.readUTF());
+                    return null;
+                }
+                return new FileInfoCodec.Decoder(in).read(path).getFileId();
+            }));
+        } catch (IOException e) {
+            log.error("Failed to create " + path + ": " + e.getMessage());
+        }
+        return null;
+    }
 
+    // 为文件申请一个新块，返回块编号及应写入的数据服务器；失败返回 null
+    public BlockInfo addBlock(String path) {
+        try {
+            return await(call(MetaOpCode.ADD_BLOCK, out -> out.writeUTF(path), in -> {
+                int code = in.readInt();
+                if (code != 0) {
+                    log.error("Failed to add block to " + path + ": " + in.readUTF());
+                    return null;
+                }
+                return BlockInfo.read(in);
+            }));
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Failed to add block to " + path + ": " + e.getMessage());
         }
         return null;
     }
 
+    // 提交各块写入的实际长度
+    public boolean completeFile(String path, List<BlockInfo> blocks) {
+        return status(MetaOpCode.COMPLETE_FILE, out -> {
+            out.writeUTF(path);
+            out.writeInt(blocks.size());
+            for (BlockInfo block : blocks) {
+                out.writeLong(block.getBlockId());
+                out.writeLong(block.getNumBytes());
+            }
+        }, "complete " + path);
+    }
+
+    public boolean deleteFile(String path) {
+        return status(MetaOpCode.DEL_FILE, out -> {
+            out.writeUTF(path);
+            out.writeUTF(Config.USER);
+        }, "delete " + path);
+    }
+
+    public boolean renameFile(String oldPath, String newPath) {
+        return status(MetaOpCode.RENAME_FILE, out -> {
+            out.writeUTF(oldPath);
+            out.writeUTF(newPath);
+        }, "rename " + oldPath + " to " + newPath);
+    }
+
+    /**
+     * 提交一批操作，返回与各项一一对应的结果。超过 META_BATCH_MAX_OPS 项时拆成多个请求
+     * 在同一连接上流水线发送，每个请求由服务器单独加锁执行。
+     */
+    public List<MetaBatch.Result> batch(MetaBatch batch) throws IOException {
+        List<MetaBatch.Item> items = batch.getItems();
+        List<CompletableFuture<List<MetaBatch.Result>>> futures = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += Config.META_BATCH_MAX_OPS) {
+            futures.add(batchAsync(items.subList(from, Math.min(items.size(), from + Config.META_BATCH_MAX_OPS))));
+        }
+        List<MetaBatch.Result> results = new ArrayList<>(items.size());
+        for (CompletableFuture<List<MetaBatch.Result>> future : futures) {
+            results.addAll(await(future));
+        }
+        return results;
+    }
+
+    private CompletableFuture<List<MetaBatch.Result>> batchAsync(List<MetaBatch.Item> items) {
+        long requestEpoch = fileInfoCache.epoch();
+        long requestTime = System.currentTimeMillis();
+        return call(MetaOpCode.BATCH, out -> {
+            out.writeInt(items.size());
+            for (MetaBatch.Item item : items) {
+                item.op.write(out);
+                out.writeUTF(item.path);
+                if (item.op == MetaOpCode.CREATE_FILE) {
+                    out.writeUTF(Config.USER);
+                    out.writeBoolean(item.isDirectory);
+                } else if (item.op == MetaOpCode.DEL_FILE) {
+                    out.writeUTF(Config.USER);
+                } else if (item.op == MetaOpCode.RENAME_FILE) {
+                    out.writeUTF(item.target);
+                }
+            }
+        }, in -> {
+            if (in.readInt() != 0) {
+                throw new IOException("Batch failed: " + in.readUTF());
+            }
+            int count = in.readInt();
+            List<MetaBatch.Result> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                MetaBatch.Item item = items.get(i);
+                int code = in.readInt();
+                if (code != 0) {
+                    results.add(new MetaBatch.Result(item.op, false, in.readUTF(), null));
+                } else if (item.op == MetaOpCode.GET_FILE_INFO) {
+                    results.add(new MetaBatch.Result(item.op, true, null, readFileInfo(item.path, in, requestEpoch, requestTime)));
+                } else if (item.op == MetaOpCode.CREATE_FILE) {
+                    FileInfo fileInfo = new FileInfoCodec.Decoder(in).read(item.path);
+                    results.add(new MetaBatch.Result(item.op, true, fileInfo.getFileId(), fileInfo));
+                } else {
+                    results.add(new MetaBatch.Result(item.op, true, in.readUTF(), null));
+                }
+            }
+            return results;
+        });
+    }
 
+    // 发送只返回状态码与消息的请求
+    private boolean status(MetaOpCode op, RequestWriter writer, String action) {
+        try {
+            return await(call(op, writer, in -> {
+                int code = in.readInt();
+                String msg = in.readUTF();
+                if (code != 0) {
+                    log.error("Failed to " + action + ": " + msg);
+                }
+                return code == 0;
+            }));
+        } catch (IOException e) {
+            log.error("Failed to " + action + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    // 元数据服务器的请求指标快照
+    public ServerStats getStats() throws IOException {
+        return await(call(MetaOpCode.STATS, out -> {
+        }, in -> {
+            if (in.readInt() != 0) {
+                throw new IOException("Failed to get stats: " + in.readUTF());
+            }
+            return ServerStats.read(in);
+        }));
+    }
+
+    public long getCacheHits() {
+        return fileInfoCache.getHits();
+    }
+
+    public long getCacheMisses() {
+        return fileInfoCache.getMisses();
+    }
 
     public void close() throws IOException {
+        closed = true;
         this.connection.close();
     }
 
-    // 假设还有其他辅助方法的实现...
     public List<String> getReplicas(String path) {
         try {
-            connection.writeUTF("GET_REPLICAS");
-            connection.writeUTF(path);
-            connection.flush();
-
-            int count = connection.readInt();
-            List<String> replicas = new ArrayList<>();
-            for (int i = 0; i < count; i++) {
-                replicas.add(connection.readUTF());
-            }
-            return replicas;
+            return await(call(MetaOpCode.GET_REPLICAS, out -> out.writeUTF(path), in -> {
+                int count = in.readInt();
+                if (count < 0) {
+                    throw new IOException(in.readUTF());
+                }
+                List<String> replicas = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    replicas.add(in.readUTF());
+                }
+                return replicas;
+            }));
         } catch (IOException e) {
             log.error("Failed to get replicas: " + e.getMessage());
             return Collections.emptyList();
@@ -168,4 +475,3 @@ public class MetaServerClient {
 
 
 }
-
@@ -0,0 +1,209 @@
+package cn.scs.client;
+
+import cn.scs.common.Config;
+import cn.scs.common.FileInfo;
+import cn.scs.common.MetadataThrift;
+import cn.scs.common.StorageReport;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.layered.TFramedTransport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * MetadataService 的 Thrift 客户端（framed transport + compact protocol）。
+ * 一个实例持有一条长连接，调用是同步的，多线程共享时按调用串行化。
+ */
+public class MetaThriftClient implements Closeable {
+
+    private final TTransport transport;
+    private final TProtocol protocol;
+    private int seqid = 0;
+
+    public MetaThriftClient() throws IOException {
+        this(Config.META_SERVRE_HOST, Config.META_THRIFT_PORT);
+    }
+
+    public MetaThriftClient(String host, int port) throws IOException {
+        try {
+            transport = new TFramedTransport(new TSocket(host, port));
+            transport.open();
+            protocol = new TCompactProtocol(transport);
+        } catch (TException e) {
+            throw new IOException("Failed to connect to metadata thrift service " + host + ":" + port, e);
+        }
+    }
+
+    public synchronized FileInfo createFile(String path, String owner, boolean isDirectory) throws IOException {
+        try {
+            sendBegin(MetadataThrift.CREATE_FILE);
+            MetadataThrift.writeStringField(protocol, "path", (short) 1, path);
+            MetadataThrift.writeStringField(protocol, "owner", (short) 2, owner);
+            MetadataThrift.writeBoolField(protocol, "isDirectory", (short) 3, isDirectory);
+            sendEnd();
+            return (FileInfo) receive(MetadataThrift.CREATE_FILE, TType.STRUCT);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public synchronized void renameFile(String oldPath, String newPath) throws IOException {
+        try {
+            sendBegin(MetadataThrift.RENAME_FILE);
+            MetadataThrift.writeStringField(protocol, "oldPath", (short) 1, oldPath);
+            MetadataThrift.writeStringField(protocol, "newPath", (short) 2, newPath);
+            sendEnd();
+            receive(MetadataThrift.RENAME_FILE, TType.VOID);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public synchronized void deleteFile(String path, String requester) throws IOException {
+        try {
+            sendBegin(MetadataThrift.DEL_FILE);
+            MetadataThrift.writeStringField(protocol, "path", (short) 1, path);
+            MetadataThrift.writeStringField(protocol, "requester", (short) 2, requester);
+            sendEnd();
+            receive(MetadataThrift.DEL_FILE, TType.VOID);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized List<String> listFile(String path) throws IOException {
+        try {
+            sendBegin(MetadataThrift.LIST_FILE);
+            MetadataThrift.writeStringField(protocol, "path", (short) 1, path);
+            sendEnd();
+            return (List<String>) receive(MetadataThrift.LIST_FILE, TType.LIST);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public synchronized FileInfo getFileInfo(String path) throws IOException {
+        try {
+            sendBegin(MetadataThrift.GET_FILE_INFO);
+            MetadataThrift.writeStringField(protocol, "path", (short) 1, path);
+            sendEnd();
+            return (FileInfo) receive(MetadataThrift.GET_FILE_INFO, TType.STRUCT);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public synchronized String heartBeat(String nodeName, StorageReport report) throws IOException {
+        try {
+            sendBegin(MetadataThrift.HEART_BEAT);
+            MetadataThrift.writeStringField(protocol, "nodeName", (short) 1, nodeName);
+            MetadataThrift.writeI64Field(protocol, "capacity", (short) 2, report.getCapacity());
+            MetadataThrift.writeI64Field(protocol, "dfsUsed", (short) 3, report.getDfsUsed());
+            MetadataThrift.writeI64Field(protocol, "remaining", (short) 4, report.getRemaining());
+            MetadataThrift.writeI32Field(protocol, "activeTransfers", (short) 5, report.getActiveTransfers());
+            MetadataThrift.writeI64Field(protocol, "ioLatencyMicros", (short) 6, report.getIoLatencyMicros());
+            sendEnd();
+            return (String) receive(MetadataThrift.HEART_BEAT, TType.STRING);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized List<String> getReplicas(String path) throws IOException {
+        try {
+            sendBegin(MetadataThrift.GET_REPLICAS);
+            MetadataThrift.writeStringField(protocol, "path", (short) 1, path);
+            sendEnd();
+            return (List<String>) receive(MetadataThrift.GET_REPLICAS, TType.LIST);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private void sendBegin(String method) throws TException {
+        protocol.writeMessageBegin(new TMessage(method, TMessageType.CALL, ++seqid));
+        protocol.writeStructBegin(new TStruct(method + "_args"));
+    }
+
+    private void sendEnd() throws TException {
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        protocol.writeMessageEnd();
+        transport.flush();
+    }
+
+    /**
+     * 读取结果结构：字段 0 为返回值，字段 1 为 MetaException（转换为 IOException 抛出）
+     */
+    private Object receive(String method, byte successType) throws TException, IOException {
+        TMessage msg = protocol.readMessageBegin();
+        if (msg.type == TMessageType.EXCEPTION) {
+            TApplicationException e = TApplicationException.readFrom(protocol);
+            protocol.readMessageEnd();
+            throw e;
+        }
+        if (msg.seqid != seqid) {
+            throw new TApplicationException(TApplicationException.BAD_SEQUENCE_ID,
+                    method + " failed: out of sequence response");
+        }
+
+        Object success = null;
+        String error = null;
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            if (field.id == MetadataThrift.SUCCESS_FIELD && field.type == successType) {
+                switch (successType) {
+                    case TType.STRUCT:
+                        success = MetadataThrift.readFileInfo(protocol);
+                        break;
+                    case TType.LIST:
+                        success = MetadataThrift.readStringList(protocol);
+                        break;
+                    case TType.STRING:
+                        success = protocol.readString();
+                        break;
+                    default:
+                        TProtocolUtil.skip(protocol, field.type);
+                }
+            } else if (field.id == MetadataThrift.EXCEPTION_FIELD && field.type == TType.STRUCT) {
+                error = MetadataThrift.readMetaException(protocol);
+            } else {
+                TProtocolUtil.skip(protocol, field.type);
+            }
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+        protocol.readMessageEnd();
+
+        if (error != null) {
+            throw new IOException(error);
+        }
+        if (success == null && successType != TType.VOID) {
+            throw new TApplicationException(TApplicationException.MISSING_RESULT, method + " failed: unknown result");
+        }
+        return success;
+    }
+
+    @Override
+    public synchronized void close() {
+        transport.close();
+    }
+}
@@ -0,0 +1,222 @@
+package cn.scs.client;
+
+import cn.scs.common.BlockInfo;
+import cn.scs.common.Span;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 条带化并行读取：把要读的范围切成 stripeSize 大小的条带，按副本轮流分给各个数据服务器，
+ * 每个数据服务器一个工作线程，同时从不同副本读取，一个文件的下载速度随副本数增加。
+ *
+ * 每个数据服务器有自己的条带队列，从队头取；队列空了就从其他队列的队尾窃取
+ * 自己也有副本的条带，因此慢的节点积压的条带会被快的节点取走。
+ * 某个节点读取失败后不再使用它，它的条带改派给其他副本，所有副本都失败时整体失败。
+ * 各条带写入结果中各自的位置，顺序由位置保证。
+ */
+class StripedReader {
+    private static Logger log = LogManager.getLogger(StripedReader.class);
+
+    // 从指定副本读取块的一段
+    interface RangeFetcher {
+        byte[] fetch(String location, BlockInfo block, long offset, int count) throws IOException;
+    }
+
+    // 把一个条带的数据写到结果中 fileOffset 的位置
+    interface RangeSink {
+        void write(long fileOffset, byte[] data) throws IOException;
+    }
+
+    private static class Range {
+        final BlockInfo block;
+        final long blockOffset;
+        final int count;
+        final long fileOffset;
+        final Set<String> failedOn = new HashSet<>();
+
+        Range(BlockInfo block, long blockOffset, int count, long fileOffset) {
+            this.block = block;
+            this.blockOffset = blockOffset;
+            this.count = count;
+            this.fileOffset = fileOffset;
+        }
+
+        boolean readableFrom(String location) {
+            return block.getLocations().contains(location) && !failedOn.contains(location);
+        }
+    }
+
+    private final ExecutorService executor;
+    private final RangeFetcher fetcher;
+    private final int stripeSize;
+
+    StripedReader(ExecutorService executor, RangeFetcher fetcher, int stripeSize) {
+        this.executor = executor;
+        this.fetcher = fetcher;
+        this.stripeSize = stripeSize;
+    }
+
+    /**
+     * 读取文件的 [from, to)，blocks 为文件的块列表
+     */
+    void read(List<BlockInfo> blocks, long from, long to, RangeSink sink) throws IOException {
+        new Job(sink).run(blocks, from, to);
+    }
+
+    // 一次读取的状态，全部由 lock 保护
+    private class Job {
+        private final Object lock = new Object();
+        private final RangeSink sink;
+        private final Map<String, Deque<Range>> queues = new LinkedHashMap<>();
+        private final Set<String> activeWorkers = new HashSet<>();
+        private final Set<String> failedLocations = new HashSet<>();
+        private int remaining;
+        private IOException failure;
+
+        Job(RangeSink sink) {
+            this.sink = sink;
+        }
+
+        void run(List<BlockInfo> blocks, long from, long to) throws IOException {
+            synchronized (lock) {
+                int stripe = 0;
+                long blockStart = 0;
+                for (BlockInfo block : blocks) {
+                    long blockEnd = blockStart + block.getNumBytes();
+                    for (long pos = Math.max(from, blockStart); pos < Math.min(to, blockEnd); pos += stripeSize) {
+                        int count = (int) Math.min(stripeSize, Math.min(to, blockEnd) - pos);
+                        Range range = new Range(block, pos - blockStart, count, pos);
+                        List<String> locations = block.getLocations();
+                        if (locations.isEmpty()) {
+                            throw new IOException("No replica available for block " + block.getBlockId());
+                        }
+                        // 相邻的条带分给不同的副本
+                        String location = locations.get(stripe++ % locations.size());
+                        queues.computeIfAbsent(location, k -> new ArrayDeque<>()).addLast(range);
+                        remaining++;
+                    }
+                    blockStart = blockEnd;
+                }
+                for (String location : queues.keySet()) {
+                    startWorker(location);
+                }
+                while (remaining > 0 && failure == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failure = new IOException("Interrupted while reading stripes", e);
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+
+        // 调用方持有 lock
+        private void startWorker(String location) {
+            if (activeWorkers.add(location)) {
+                executor.execute(Span.wrap(() -> work(location)));
+            }
+        }
+
+        private void work(String location) {
+            while (true) {
+                Range range;
+                synchronized (lock) {
+                    range = failure == null ? next(location) : null;
+                    if (range == null) {
+                        activeWorkers.remove(location);
+                        return;
+                    }
+                }
+                try {
+                    sink.write(range.fileOffset, fetcher.fetch(location, range.block, range.blockOffset, range.count));
+                    synchronized (lock) {
+                        remaining--;
+                        lock.notifyAll();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Stripe at " + range.fileOffset + " failed on " + location + ": " + e.getMessage());
+                    synchronized (lock) {
+                        markFailed(location, range, e);
+                        activeWorkers.remove(location);
+                        lock.notifyAll();
+                    }
+                    return;
+                }
+            }
+        }
+
+        // 先取自己队列的队头，没有就从积压最多的队列的队尾窃取自己也能读的条带
+        private Range next(String location) {
+            Deque<Range> own = queues.get(location);
+            if (own != null && !own.isEmpty()) {
+                return own.pollFirst();
+            }
+            Deque<Range> victim = null;
+            for (Map.Entry<String, Deque<Range>> entry : queues.entrySet()) {
+                if (!entry.getKey().equals(location) && (victim == null || entry.getValue().size() > victim.size())) {
+                    for (Range range : entry.getValue()) {
+                        if (range.readableFrom(location)) {
+                            victim = entry.getValue();
+                            break;
+                        }
+                    }
+                }
+            }
+            if (victim == null) {
+                return null;
+            }
+            for (Iterator<Range> it = victim.descendingIterator(); it.hasNext(); ) {
+                Range range = it.next();
+                if (range.readableFrom(location)) {
+                    it.remove();
+                    return range;
+                }
+            }
+            return null;
+        }
+
+        // 节点失败：它手上的条带和队列中的条带都改派给其他副本
+        private void markFailed(String location, Range inFlight, Exception cause) {
+            failedLocations.add(location);
+            List<Range> orphans = new ArrayList<>();
+            orphans.add(inFlight);
+            Deque<Range> queue = queues.remove(location);
+            if (queue != null) {
+                orphans.addAll(queue);
+            }
+            for (Range range : orphans) {
+                range.failedOn.add(location);
+                String target = null;
+                for (String candidate : range.block.getLocations()) {
+                    if (!range.failedOn.contains(candidate) && !failedLocations.contains(candidate)) {
+                        target = candidate;
+                        break;
+                    }
+                }
+                if (target == null) {
+                    failure = cause instanceof IOException ? (IOException) cause
+                            : new IOException("Failed to read block " + range.block.getBlockId(), cause);
+                    return;
+                }
+                queues.computeIfAbsent(target, k -> new ArrayDeque<>()).addLast(range);
+                startWorker(target);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package cn.scs.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 元数据服务器在心跳响应中下发给数据服务器的块命令。
+ * 线上格式为 [byte 动作][long blockId][int n][n 个目标 host:port]。
+ */
+public class BlockCommand {
+
+    public static final byte DELETE = 1;    // 删除本地的块
+    public static final byte REPLICATE = 2; // 把本地的块以流水线方式复制到 targets
+
+    private final byte action;
+    private final long blockId;
+    private final List<String> targets;
+
+    public BlockCommand(byte action, long blockId, List<String> targets) {
+        this.action = action;
+        this.blockId = blockId;
+        this.targets = targets;
+    }
+
+    public static BlockCommand delete(long blockId) {
+        return new BlockCommand(DELETE, blockId, Collections.<String>emptyList());
+    }
+
+    public static BlockCommand replicate(long blockId, List<String> targets) {
+        return new BlockCommand(REPLICATE, blockId, targets);
+    }
+
+    public static BlockCommand read(DataInput in) throws IOException {
+        byte action = in.readByte();
+        long blockId = in.readLong();
+        int n = in.readInt();
+        List<String> targets = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            targets.add(in.readUTF());
+        }
+        return new BlockCommand(action, blockId, targets);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(action);
+        out.writeLong(blockId);
+        out.writeInt(targets.size());
+        for (String target : targets) {
+            out.writeUTF(target);
+        }
+    }
+
+    public byte getAction() {
+        return action;
+    }
+
+    public long getBlockId() {
+        return blockId;
+    }
+
+    public List<String> getTargets() {
+        return targets;
+    }
+
+    @Override
+    public String toString() {
+        return (action == DELETE ? "DELETE" : action == REPLICATE ? "REPLICATE" : "UNKNOWN(" + action + ")")
+                + " blk_" + blockId + (targets.isEmpty() ? "" : " -> " + targets);
+    }
+}
@@ -0,0 +1,103 @@
+package cn.scs.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文件的一个数据块：块编号、实际长度以及存放该块副本的数据服务器（host:port）。
+ * 文件按 blockSize 切分，第 i 个块覆盖文件的 [i * blockSize, i * blockSize + numBytes)。
+ */
+public class BlockInfo {
+
+    private long blockId;
+    private long numBytes;
+    private List<String> locations = new ArrayList<>(); // 副本所在的数据服务器
+
+    public BlockInfo(long blockId, long numBytes, List<String> locations) {
+        this.blockId = blockId;
+        this.numBytes = numBytes;
+        this.locations = locations;
+    }
+
+    public long getBlockId() {
+        return blockId;
+    }
+
+    public void setBlockId(long blockId) {
+        this.blockId = blockId;
+    }
+
+    public long getNumBytes() {
+        return numBytes;
+    }
+
+    public void setNumBytes(long numBytes) {
+        this.numBytes = numBytes;
+    }
+
+    public List<String> getLocations() {
+        return locations;
+    }
+
+    public void setLocations(List<String> locations) {
+        this.locations = locations;
+    }
+
+    // 数据服务器上保存该块的文件名
+    public static String blockFileName(long blockId) {
+        return "blk_" + blockId;
+    }
+
+    // 块的校验和文件，与块文件放在同一目录
+    public static String metaFileName(long blockId) {
+        return blockFileName(blockId) + ".meta";
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(blockId);
+        out.writeLong(numBytes);
+        out.writeInt(locations.size());
+        for (String location : locations) {
+            out.writeUTF(location);
+        }
+    }
+
+    public static BlockInfo read(DataInput in) throws IOException {
+        long blockId = in.readLong();
+        long numBytes = in.readLong();
+        int count = in.readInt();
+        List<String> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(in.readUTF());
+        }
+        return new BlockInfo(blockId, numBytes, locations);
+    }
+
+    public static void writeList(DataOutput out, List<BlockInfo> blocks) throws IOException {
+        out.writeInt(blocks.size());
+        for (BlockInfo block : blocks) {
+            block.write(out);
+        }
+    }
+
+    public static List<BlockInfo> readList(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<BlockInfo> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            blocks.add(read(in));
+        }
+        return blocks;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockInfo{" +
+                "blockId=" + blockId +
+                ", numBytes=" + numBytes +
+                ", locations=" + locations +
+                '}';
+    }
+}
@@ -6,10 +6,55 @@ public class Config {
     public static String META_SERVRE_HOST = "127.0.0.1";
     public static int DATA_SERVRE_PORT = 9526;//HDFS端口号
     public static int META_SERVRE_PORT = 10001;//Hive的thrift端口号
-    public static int TIMEOUT_OF_HEARTBEATS = 20;
+    public static int META_THRIFT_PORT = 10002;//元数据Thrift服务端口号
+    public static int META_HEARTBEAT_PORT = 10003;//数据服务器心跳与块汇报的专用端口号
+    public static int META_SELECTOR_THREADS = 2;//Thrift服务的selector线程数
+    public static int META_WORKER_THREADS = Runtime.getRuntime().availableProcessors() * 2;//Thrift服务的工作线程数
+    public static int META_HANDLER_THREADS = Runtime.getRuntime().availableProcessors() * 2;//元数据会话请求的处理线程数
+    public static int META_RPC_TIMEOUT_SECS = 30;//元数据请求的超时时间
+    public static String META_STORE = "memory";//命名空间存储：memory 或 rocksdb
+    public static String META_STORE_PATH = "/root/dfs-meta/namespace";//RocksDB 命名空间目录
+    public static int META_INODE_CACHE_SIZE = 100000;//RocksDB 命名空间在堆内缓存的热点 inode 数
+    public static boolean META_STORE_SYNC = false;//RocksDB 写入是否同步刷盘
+    public static String META_DIR = "/root/dfs-meta";//元数据服务器的编辑日志与检查点镜像目录
+    public static int META_CHECKPOINT_SECS = 600;//距上次检查点超过该秒数时做检查点
+    public static long META_CHECKPOINT_TXNS = 100000;//编辑日志积累到该条数时做检查点
+    public static int META_LOCK_STRIPES = 1024;//命名空间路径锁的分段数
+    public static int META_LIST_PAGE_LIMIT = 10000;//列目录时单页返回的最大子项数
+    public static int META_BATCH_MAX_OPS = 1000;//单个批量请求最多包含的操作数
+    public static int LIST_PAGE_SIZE = 1000;//客户端分页列目录的页大小
+    public static long META_LEASE_MS = 10000;//客户端缓存 FileInfo 的租约时长（毫秒）
+    public static int CLIENT_META_CACHE_SIZE = 10000;//客户端 FileInfo 缓存的最大条目数，0 表示不缓存
+    public static int TIMEOUT_OF_HEARTBEATS = 20;//超过该秒数没有心跳的数据服务器视为失联
     public static int HEARTBEAT_SECS = 5;
+    public static long BLOCK_SIZE = 128L * 1024 * 1024;//文件切分的块大小
+    public static int REPLICATION = 3;//每个块的副本数
+    public static int REPLICATION_MAX_STREAMS_PER_NODE = 2;//每个数据服务器同时参与的副本恢复数，避免恢复流量挤占前台读写
+    public static long REPLICATION_TIMEOUT_MS = 300000;//副本恢复超过该时间未完成则重新调度
+    public static int CLIENT_TRANSFER_THREADS = 8;//客户端并行读写数据块的线程数
+    public static boolean CLIENT_STRIPED_READ = true;//读取与下载时是否把文件切成条带从各个副本并行读取
+    public static int CLIENT_READ_STRIPE_SIZE = 4 * 1024 * 1024;//条带化读取的条带大小
+    public static boolean CLIENT_HEDGED_READ = true;//条带读取超时未返回时是否向其他副本发出对冲请求
+    public static long CLIENT_HEDGE_DELAY_MS = 0;//对冲延迟，0 表示取最近读取耗时的 p95
+    public static long CLIENT_HEDGE_MIN_DELAY_MS = 10;//自适应对冲延迟的下限
+    public static long CLIENT_HEDGE_MAX_DELAY_MS = 1000;//自适应对冲延迟的上限，也是没有样本时的初始值
+    public static int PACKET_SIZE = 64 * 1024;//写流水线中每个数据包的最大长度
+    public static int BYTES_PER_CHECKSUM = 512;//块数据每多少字节计算一个 CRC32C 校验和
+    public static int DATA_CONN_MAX_PER_NODE = 16;//连接池中到每个数据服务器的最大连接数
+    public static long DATA_CONN_IDLE_MS = 30000;//连接池中空闲连接的保留时间
+    public static long DATA_CONN_BORROW_TIMEOUT_MS = 10000;//连接池满时等待归还的最长时间
+    public static int DATA_SOCKET_TIMEOUT_MS = 120000;//数据服务器等待下一个请求的超时时间
+    public static int DATA_REPLICATION_THREADS = 2;//数据服务器同时执行的块复制命令数
+    public static String DATA_STORE = "file";//块存储：file 每块一个文件，segment 小块追加到段文件
+    public static long DATA_SEGMENT_BLOCK_LIMIT = 1024 * 1024;//不超过该大小的块写入段文件
+    public static long DATA_SEGMENT_SIZE = 256L * 1024 * 1024;//段文件写满该大小后换新段
+    public static int DATA_COMPACT_INTERVAL_SECS = 60;//段文件压缩检查间隔（秒）
+    public static double DATA_COMPACT_GARBAGE_RATIO = 0.5;//段内已删除数据超过该比例时压缩
+    public static boolean METRICS_JMX_ENABLED = true;//是否把服务器的请求指标注册到 JMX
+    public static double TRACE_SAMPLE_RATE = 0.0;//客户端操作被采样追踪的比例，0 表示关闭追踪
+    public static String TRACE_DIR = "traces";//采样的 span 写入该目录下的 spans-<进程号>.json
 
     public static String USER = "root";
 
-    public static final String STORAGE_PATH = "/root/dfs"; //添加存储路径
+    public static String STORAGE_PATH = "/root/dfs"; //数据服务器的块存储路径
 }
@@ -0,0 +1,153 @@
+package cn.scs.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * 块数据的分段校验：每 bytesPerChecksum 个字节一个 4 字节的校验和，块末尾的最后一段可以不满。
+ * 默认使用 CRC32C：运行在 JDK 9 及以上时通过反射取得 java.util.zip.CRC32C（有硬件指令加速），
+ * 否则退回 CRC32。校验类型随数据一起传输和保存，读写双方按同一种类型计算。
+ * 实例内部持有 Checksum 对象，不能在线程之间共享。
+ */
+public class DataChecksum {
+
+    public static final byte CHECKSUM_NULL = 0; // 没有校验和（旧的块）
+    public static final byte CHECKSUM_CRC32 = 1;
+    public static final byte CHECKSUM_CRC32C = 2;
+    public static final int CHECKSUM_SIZE = 4;
+    public static final int HEADER_SIZE = 5; // [byte 类型][int bytesPerChecksum]
+
+    private static final Constructor<? extends Checksum> CRC32C_CONSTRUCTOR = findCrc32c();
+
+    private final byte type;
+    private final int bytesPerChecksum;
+    private final Checksum summer;
+
+    private DataChecksum(byte type, int bytesPerChecksum, Checksum summer) {
+        this.type = type;
+        this.bytesPerChecksum = bytesPerChecksum;
+        this.summer = summer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends Checksum> findCrc32c() {
+        try {
+            return (Constructor<? extends Checksum>) Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (ReflectiveOperationException e) {
+            return null; // JDK 8
+        }
+    }
+
+    // 本机支持的最快的校验类型
+    public static DataChecksum newDefault() {
+        try {
+            return newInstance(CRC32C_CONSTRUCTOR != null ? CHECKSUM_CRC32C : CHECKSUM_CRC32, Config.BYTES_PER_CHECKSUM);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static DataChecksum newInstance(byte type, int bytesPerChecksum) throws IOException {
+        if (bytesPerChecksum <= 0) {
+            throw new IOException("Invalid bytesPerChecksum " + bytesPerChecksum);
+        }
+        switch (type) {
+            case CHECKSUM_NULL:
+                return new DataChecksum(type, bytesPerChecksum, null);
+            case CHECKSUM_CRC32:
+                return new DataChecksum(type, bytesPerChecksum, new CRC32());
+            case CHECKSUM_CRC32C:
+                if (CRC32C_CONSTRUCTOR == null) {
+                    throw new IOException("CRC32C is not supported by this JVM");
+                }
+                try {
+                    return new DataChecksum(type, bytesPerChecksum, CRC32C_CONSTRUCTOR.newInstance());
+                } catch (ReflectiveOperationException e) {
+                    throw new IOException("Failed to create CRC32C", e);
+                }
+            default:
+                throw new IOException("Unknown checksum type " + type);
+        }
+    }
+
+    public static DataChecksum readHeader(DataInput in) throws IOException {
+        byte type = in.readByte();
+        return newInstance(type, in.readInt());
+    }
+
+    public void writeHeader(DataOutput out) throws IOException {
+        out.writeByte(type);
+        out.writeInt(bytesPerChecksum);
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public int getBytesPerChecksum() {
+        return bytesPerChecksum;
+    }
+
+    // 长度为 dataLength 的数据的校验和所占的字节数
+    public int checksumLength(long dataLength) {
+        if (type == CHECKSUM_NULL) {
+            return 0;
+        }
+        return (int) ((dataLength + bytesPerChecksum - 1) / bytesPerChecksum) * CHECKSUM_SIZE;
+    }
+
+    // 不超过 packetSize 的、bytesPerChecksum 整数倍的包长度，保证中间的包不会切断一个校验段
+    public int alignPacketSize(int packetSize) {
+        return Math.max(bytesPerChecksum, packetSize - packetSize % bytesPerChecksum);
+    }
+
+    /**
+     * 计算 data[off, off + len) 每一段的校验和，依次写入 sums[sumOff...]
+     */
+    public void calculateChunks(byte[] data, int off, int len, byte[] sums, int sumOff) {
+        if (type == CHECKSUM_NULL) {
+            return;
+        }
+        for (int pos = 0; pos < len; pos += bytesPerChecksum) {
+            int n = Math.min(bytesPerChecksum, len - pos);
+            summer.reset();
+            summer.update(data, off + pos, n);
+            writeInt(sums, sumOff, (int) summer.getValue());
+            sumOff += CHECKSUM_SIZE;
+        }
+    }
+
+    /**
+     * 校验 data[off, off + len) 的每一段，basePos 为 data[off] 在块中的位置，仅用于错误信息
+     */
+    public void verifyChunks(byte[] data, int off, int len, byte[] sums, int sumOff, long basePos) throws IOException {
+        if (type == CHECKSUM_NULL) {
+            return;
+        }
+        for (int pos = 0; pos < len; pos += bytesPerChecksum) {
+            int n = Math.min(bytesPerChecksum, len - pos);
+            summer.reset();
+            summer.update(data, off + pos, n);
+            int expected = readInt(sums, sumOff);
+            if ((int) summer.getValue() != expected) {
+                throw new IOException("Checksum error at block offset " + (basePos + pos) + ", length " + n);
+            }
+            sumOff += CHECKSUM_SIZE;
+        }
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+}
@@ -8,7 +8,11 @@ public enum DataOpCode {
     WRITE_FILE((byte)10),
     READ_FILE((byte)11),
     DEL_FILE((byte)12),
-    CLOSE_FILE((byte)13);
+    CLOSE_FILE((byte)13),
+    WRITE_BLOCK((byte)14),
+    READ_BLOCK((byte)15),
+    STATS((byte)16), // 服务器请求指标的快照
+    TRACE((byte)17); // 请求头：其后是追踪上下文与真正的操作码
 
     public final byte code;
 
@@ -30,4 +34,14 @@ public enum DataOpCode {
     public void write(DataOutput out) throws IOException {
         out.write(code);
     }
+
+    // 写入请求的操作码；span 被采样时先写 TRACE 头 [TRACE][long traceId][long spanId]，服务器在该 span 之下记录
+    public void write(DataOutput out, Span span) throws IOException {
+        if (span.isSampled()) {
+            TRACE.write(out);
+            out.writeLong(span.getTraceId());
+            out.writeLong(span.getId());
+        }
+        write(out);
+    }
 }
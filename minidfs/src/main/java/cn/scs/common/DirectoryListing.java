@@ -0,0 +1,42 @@
+package cn.scs.common;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分页列目录的一页结果：按文件名顺序排列的名字及各子项的 FileInfo，以及之后是否还有更多子项。
+ * 下一页以本页最后一个名字作为游标（startAfter）继续读取。
+ */
+public class DirectoryListing {
+
+    private final List<String> names;
+    private final List<FileInfo> entries; // 与 names 一一对应，不含副本位置与块；只有名字时为空
+    private final boolean hasMore;
+
+    public DirectoryListing(List<String> names, boolean hasMore) {
+        this(names, Collections.<FileInfo>emptyList(), hasMore);
+    }
+
+    public DirectoryListing(List<String> names, List<FileInfo> entries, boolean hasMore) {
+        this.names = names;
+        this.entries = entries;
+        this.hasMore = hasMore;
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    public List<FileInfo> getEntries() {
+        return entries;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    // 下一页的游标
+    public String getLastName() {
+        return names.isEmpty() ? null : names.get(names.size() - 1);
+    }
+}
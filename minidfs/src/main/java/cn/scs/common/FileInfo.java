@@ -1,23 +1,30 @@
 package cn.scs.common;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 public class FileInfo {
 
     private String fileName;
-    private long fileSize;
+    private volatile long fileSize;
     private long creationTime;
     private String path;
     private String owner;
     private String group;
     private boolean isDirectory;
     private FileInfo parent;
-    private List<FileInfo> children = new ArrayList(); // 子节点
+    // 子节点按文件名排序索引：O(log n) 查找，按游标分页遍历；元数据服务器不加锁读取
+    private final ConcurrentSkipListMap<String, FileInfo> children = new ConcurrentSkipListMap<>();
     private List<String> locations = new ArrayList(); // 存储位置
     private List<Integer> status = new ArrayList();  // 副本状态
     private String fileId; // 文件的唯一标识符
+    private long inodeId; // 命名空间中的 inode 编号（持久化存储按 父inode + 文件名 组织）
+    private long parentId; // 父目录的 inode 编号
+    private long blockSize; // 文件切分的块大小
+    private volatile List<BlockInfo> blocks = new ArrayList<>(); // 按顺序排列的数据块，修改时整体替换
 
     // 修改后的构造函数，包含 fileId 初始化
     public FileInfo(String fileName, String path, boolean isDirectory, long fileSize, String owner, long creationTime) {
@@ -30,6 +37,17 @@ public class FileInfo {
         this.fileId = UUID.randomUUID().toString(); // 初始化 fileId
     }
 
+    // 解码线上的 FileInfo 时使用，fileId 由服务器给出，不必生成随机 UUID
+    FileInfo(String fileName, String path, boolean isDirectory, long fileSize, String owner, long creationTime, String fileId) {
+        this.fileName = fileName;
+        this.path = path;
+        this.isDirectory = isDirectory;
+        this.fileSize = fileSize;
+        this.owner = owner;
+        this.creationTime = creationTime;
+        this.fileId = fileId;
+    }
+
     public FileInfo(String path, String owner, boolean isDirectory, FileInfo parentInfo) {
         this.path = path;
         this.owner = owner;
@@ -39,25 +57,10 @@ public class FileInfo {
         this.fileSize = -1;
         this.creationTime = System.currentTimeMillis();
         this.fileId = UUID.randomUUID().toString(); // 初始化 fileId
-        this.parent.getChildren().add(this);
+        this.parent.addChild(this);
     }
 
 
-    // 静态方法：解析字符串为 FileInfo 对象
-    public static FileInfo parse(String fileInfostr){
-        String[] parts = fileInfostr.split(",");
-        if (parts.length < 5) {
-            throw new IllegalArgumentException("Invalid file info string: " + fileInfostr);
-        }
-        String fileName = parts[0].trim();
-        String path = parts[1].trim();
-        boolean isDirectory = Boolean.parseBoolean(parts[2].trim());
-        long fileSize = Long.parseLong(parts[3].trim());
-        String owner = parts[4].trim();
-        long creationTime = Long.parseLong(parts[5].trim());
-        FileInfo fileInfo = new FileInfo(fileName,path,isDirectory,fileSize,owner,creationTime);
-        return fileInfo;
-    }
     // 获取父目录路径
     private String getFileName(String path) {
         path = path.trim();
@@ -136,12 +139,38 @@ public class FileInfo {
         this.parent = parent;
     }
 
-    public List<FileInfo> getChildren() {
-        return children;
+    // 按文件名排序的子节点视图
+    public Collection<FileInfo> getChildren() {
+        return children.values();
+    }
+
+    public FileInfo getChild(String name) {
+        return children.get(name);
+    }
+
+    public void addChild(FileInfo child) {
+        children.put(child.getFileName(), child);
+    }
+
+    public void removeChild(FileInfo child) {
+        children.remove(child.getFileName(), child);
+    }
+
+    public void clearChildren() {
+        children.clear();
     }
 
-    public void setChildren(List<FileInfo> children) {
-        this.children = children;
+    // 文件名大于 startAfter 的前 limit 个子节点，startAfter 为 null 时从头开始
+    public List<FileInfo> listChildren(String startAfter, int limit) {
+        Collection<FileInfo> tail = startAfter == null ? children.values() : children.tailMap(startAfter, false).values();
+        List<FileInfo> page = new ArrayList<>(Math.min(limit, 1024));
+        for (FileInfo child : tail) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(child);
+        }
+        return page;
     }
 
     public List<String> getLocations() {
@@ -170,6 +199,38 @@ public class FileInfo {
         this.fileId = fileId;
     }
 
+    public long getInodeId() {
+        return inodeId;
+    }
+
+    public void setInodeId(long inodeId) {
+        this.inodeId = inodeId;
+    }
+
+    public long getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(long parentId) {
+        this.parentId = parentId;
+    }
+
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(long blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public List<BlockInfo> getBlocks() {
+        return blocks;
+    }
+
+    public void setBlocks(List<BlockInfo> blocks) {
+        this.blocks = blocks;
+    }
+
     @Override
     public String toString() {
         return "FileInfo{" +
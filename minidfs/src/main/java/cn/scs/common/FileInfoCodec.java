@@ -0,0 +1,319 @@
+package cn.scs.common;
+
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 元数据会话协议中 FileInfo 的二进制编码，GET_FILE_INFO、LIST_FILE、CREATE_FILE 及 BATCH 中的对应项都使用它。
+ * 一段编码为 [byte 版本][varint 个数][各条记录]，同一段中的记录共用一张字符串表：
+ * 所有者、组与副本位置第一次出现时写出字符串，之后只写表中的编号，列目录时同一批数据服务器地址只传一次。
+ *
+ * 记录为 [varint 标志][名字][zigzag 文件大小][varlong 创建时间][所有者][组][文件编号][varlong 块大小]，
+ * 标志含 FLAG_LOCATIONS 时其后还有 [varint n][n 个位置][varint m][m 个块：varlong 块编号, varlong 字节数, varint k, k 个位置]；
+ * 列目录的各项不带位置与块，与 ls -l 所需的属性相当，读文件时再用 GET_FILE_INFO 取得。
+ * 名字与文件编号为 [varint 字节数+1][UTF-8]，0 表示 null；所有者、组、位置为表引用：
+ * 0 表示 null，1..size 为已有的第 i 项，size+1 表示新项，其后跟着字符串。
+ * 路径不在线上传输，由请求中的路径（列目录时为 目录/名字）得到。
+ */
+public final class FileInfoCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_DIRECTORY = 1;
+    private static final int FLAG_LOCATIONS = 2;
+
+    private FileInfoCodec() {
+    }
+
+    /**
+     * 编码一段记录。写入的条数必须等于构造时给出的个数；每条记录先在本地数组中拼好，再一次写出
+     */
+    public static final class Encoder {
+        private final DataOutput out;
+        private final Map<String, Integer> table = new HashMap<>();
+        private byte[] buf = new byte[256];
+        private int count;
+
+        public Encoder(DataOutput out, int records) throws IOException {
+            this.out = out;
+            put(VERSION);
+            writeVarLong(records);
+            flush();
+        }
+
+        // locations 为文件级的副本位置，服务器填入各块副本位置的并集；为 null 时不写位置与块
+        public void write(FileInfo fileInfo, List<String> locations) throws IOException {
+            writeVarLong((fileInfo.isDirectory() ? FLAG_DIRECTORY : 0) | (locations != null ? FLAG_LOCATIONS : 0));
+            writeString(fileInfo.getFileName() == null ? "/" : fileInfo.getFileName());
+            long size = fileInfo.getFileSize();
+            writeVarLong((size << 1) ^ (size >> 63)); // 未完成的文件大小为 -1
+            writeVarLong(fileInfo.getCreationTime());
+            writeRef(fileInfo.getOwner());
+            writeRef(fileInfo.getGroup());
+            writeString(fileInfo.getFileId());
+            writeVarLong(fileInfo.getBlockSize());
+            if (locations != null) {
+                writeRefs(locations);
+                List<BlockInfo> blocks = fileInfo.getBlocks();
+                writeVarLong(blocks.size());
+                for (BlockInfo block : blocks) {
+                    writeVarLong(block.getBlockId());
+                    writeVarLong(block.getNumBytes());
+                    writeRefs(block.getLocations());
+                }
+            }
+            flush();
+        }
+
+        private void flush() throws IOException {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+
+        private void writeRefs(List<String> values) {
+            writeVarLong(values.size());
+            for (String value : values) {
+                writeRef(value);
+            }
+        }
+
+        private void writeRef(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            Integer index = table.get(value);
+            if (index != null) {
+                writeVarLong(index);
+                return;
+            }
+            index = table.size() + 1;
+            table.put(value, index);
+            writeVarLong(index);
+            writeString(value);
+        }
+
+        // 每个字节 7 位，低位在前，最高位表示后面还有字节
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buf[count++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[count++] = (byte) value;
+        }
+
+        // 先算出 UTF-8 字节数，再逐个字符写入；不成对的代理字符写为 '?'，与 String.getBytes 一致
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            int n = value.length();
+            int length = 0;
+            for (int i = 0; i < n; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    length += 1;
+                } else {
+                    length += 3;
+                }
+            }
+            writeVarLong(length + 1L);
+            ensure(length);
+            for (int i = 0; i < n; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buf[count++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[count++] = (byte) (0xc0 | (c >> 6));
+                    buf[count++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buf[count++] = (byte) (0xf0 | (cp >> 18));
+                    buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    buf[count++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    buf[count++] = '?';
+                } else {
+                    buf[count++] = (byte) (0xe0 | (c >> 12));
+                    buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[count++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        private void put(int b) {
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        private void ensure(int n) {
+            if (count + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+            }
+        }
+    }
+
+    /**
+     * 解码一段记录，直接读取 body 的数组：只创建最终的字符串与对象，不经过中间缓冲。
+     * 每读完一条记录把 body 的读取位置移到其后，之后仍可以用 DataInput 的方法读取后续字段
+     */
+    public static final class Decoder {
+        private final MetaFrame.BodyInput in;
+        private final byte[] buf;
+        private final int limit;
+        private int pos;
+        private int remaining;
+        private String[] table = new String[8];
+        private int tableSize;
+
+        public Decoder(MetaFrame.BodyInput in) throws IOException {
+            this.in = in;
+            this.buf = in.array();
+            this.limit = in.limit();
+            this.pos = in.position();
+            int version = readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported FileInfo encoding version: " + version);
+            }
+            this.remaining = readVarInt();
+            in.seek(pos);
+        }
+
+        // 尚未读取的记录数
+        public int remaining() {
+            return remaining;
+        }
+
+        // 读取路径为 path 的一条记录
+        public FileInfo read(String path) throws IOException {
+            return read(path, null);
+        }
+
+        // 读取目录 dir 下的一条记录，路径由目录与名字拼成
+        public FileInfo readChild(String dir) throws IOException {
+            return read(null, dir);
+        }
+
+        private FileInfo read(String path, String dir) throws IOException {
+            if (remaining == 0) {
+                throw new IOException("No more FileInfo records");
+            }
+            int flags = readVarInt();
+            String fileName = readString();
+            if (path == null) {
+                path = dir.endsWith("/") ? dir + fileName : dir + "/" + fileName;
+            }
+            long zigzag = readVarLong();
+            long fileSize = (zigzag >>> 1) ^ -(zigzag & 1);
+            long creationTime = readVarLong();
+            String owner = readRef();
+            String group = readRef();
+            String fileId = readString();
+            FileInfo fileInfo = new FileInfo(fileName, path, (flags & FLAG_DIRECTORY) != 0, fileSize, owner, creationTime, fileId);
+            fileInfo.setGroup(group);
+            fileInfo.setBlockSize(readVarLong());
+            if ((flags & FLAG_LOCATIONS) != 0) {
+                fileInfo.setLocations(readRefs());
+                int blockCount = readVarInt();
+                List<BlockInfo> blocks = new ArrayList<>(blockCount);
+                for (int i = 0; i < blockCount; i++) {
+                    long blockId = readVarLong();
+                    long numBytes = readVarLong();
+                    blocks.add(new BlockInfo(blockId, numBytes, readRefs()));
+                }
+                fileInfo.setBlocks(blocks);
+            }
+            remaining--;
+            in.seek(pos);
+            return fileInfo;
+        }
+
+        private List<String> readRefs() throws IOException {
+            int count = readVarInt();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readRef());
+            }
+            return values;
+        }
+
+        private String readRef() throws IOException {
+            int index = readVarInt();
+            if (index == 0) {
+                return null;
+            }
+            if (index <= tableSize) {
+                return table[index - 1];
+            }
+            if (index != tableSize + 1) {
+                throw new IOException("Invalid string table reference: " + index);
+            }
+            String value = readString();
+            if (value == null) {
+                throw new IOException("Null string table entry");
+            }
+            if (tableSize == table.length) {
+                table = Arrays.copyOf(table, tableSize * 2);
+            }
+            table[tableSize++] = value;
+            return value;
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (length > limit - pos) {
+                throw new EOFException();
+            }
+            String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        private int readByte() throws IOException {
+            if (pos >= limit) {
+                throw new EOFException();
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        private int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Invalid count: " + value);
+            }
+            return (int) value;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package cn.scs.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的延迟直方图，按 HdrHistogram 的方式对数-线性分桶：以微秒记录，[0, 64) 每个值一个桶，
+ * 之后每个 2 的幂区间均分为 32 个桶，分位数的相对误差不超过 1/32，最大记录约 12 天。
+ * 记录只做一次原子自增和一次最大值比较，可以放在请求路径上；读取时先复制计数再计算分位数。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;         // 每个 2 的幂区间的桶数
+    private static final int LINEAR_LIMIT = SUB_COUNT << 1;     // 小于此值时每个值一个桶
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKETS = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BITS - 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    // 记录一次耗时（微秒），超出范围的值按最大值计
+    public void record(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        counts.incrementAndGet(bucketOf(value));
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)); // [SUB_COUNT, 2 * SUB_COUNT)
+        return LINEAR_LIMIT + (exponent - SUB_BITS - 1) * SUB_COUNT + sub - SUB_COUNT;
+    }
+
+    // 桶内的最大值，分位数按它报告，不会低估
+    private static long highestValueOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int k = bucket - LINEAR_LIMIT;
+        int shift = k / SUB_COUNT + 1;
+        long sub = SUB_COUNT + k % SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+            total += copy[i] * highestValueOf(i);
+        }
+        return new Snapshot(copy, count, total, max.get());
+    }
+
+    /**
+     * 某一时刻的计数副本。记录与复制并发进行，各桶之间不是严格的同一时刻，但每个桶本身是准确的
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalMicros;
+        private final long maxMicros;
+
+        private Snapshot(long[] counts, long count, long totalMicros, long maxMicros) {
+            this.counts = counts;
+            this.count = count;
+            this.totalMicros = totalMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        // 按桶上界累计的总耗时，用于计算平均值
+        public long getTotalMicros() {
+            return totalMicros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        public long getMeanMicros() {
+            return count == 0 ? 0 : totalMicros / count;
+        }
+
+        // q 在 [0, 1] 之间，如 0.99；没有记录时返回 0
+        public long percentile(double q) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+    }
+}
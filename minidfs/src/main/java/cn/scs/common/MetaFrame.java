@@ -0,0 +1,138 @@
+package cn.scs.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 元数据会话协议的帧：[int 帧长][int requestId][body]，帧长不含自身的 4 个字节。
+ * 请求帧的 body 以 MetaOpCode 开头，后跟该操作的参数；响应帧的 body 即该操作的返回内容。
+ * 同一连接上可以有多个请求在途，响应按完成顺序返回，由 requestId 对应到请求。
+ * requestId 为 PUSH_REQUEST_ID 的帧由服务器主动推送，body 以 MetaOpCode 开头（如 INVALIDATE）。
+ */
+public final class MetaFrame {
+
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    public static final int PUSH_REQUEST_ID = 0; // 客户端分配的 requestId 从 1 开始
+
+    private final int requestId;
+    private final byte[] body;
+
+    private MetaFrame(int requestId, byte[] body) {
+        this.requestId = requestId;
+        this.body = body;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public BodyInput getBody() {
+        return new BodyInput(body);
+    }
+
+    public int getBodyLength() {
+        return body.length;
+    }
+
+    public static void write(DataOutputStream out, int requestId, byte[] body, int length) throws IOException {
+        out.writeInt(length + 4);
+        out.writeInt(requestId);
+        out.write(body, 0, length);
+    }
+
+    /**
+     * 组装帧 body 的缓冲区，写出时直接使用内部数组，避免 toByteArray 的复制
+     */
+    public static class BodyBuffer extends ByteArrayOutputStream {
+        public void writeFrame(DataOutputStream out, int requestId) throws IOException {
+            MetaFrame.write(out, requestId, buf, count);
+        }
+    }
+
+    /**
+     * 读取帧 body 的输入流。底层不加锁，并允许 FileInfoCodec 等解码器直接读取数组，读完后用 seek 移动读取位置
+     */
+    public static final class BodyInput extends DataInputStream {
+        private final Cursor cursor;
+
+        public BodyInput(byte[] body) {
+            this(new Cursor(body));
+        }
+
+        private BodyInput(Cursor cursor) {
+            super(cursor);
+            this.cursor = cursor;
+        }
+
+        public byte[] array() {
+            return cursor.buf;
+        }
+
+        public int position() {
+            return cursor.pos;
+        }
+
+        public int limit() {
+            return cursor.buf.length;
+        }
+
+        public void seek(int position) {
+            if (position < 0 || position > cursor.buf.length) {
+                throw new IndexOutOfBoundsException("Invalid position " + position + ", limit " + cursor.buf.length);
+            }
+            cursor.pos = position;
+        }
+    }
+
+    // 与 ByteArrayInputStream 相同，但各方法不加锁：一个 body 只由一个线程读取
+    private static final class Cursor extends InputStream {
+        private final byte[] buf;
+        private int pos;
+
+        Cursor(byte[] buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return pos < buf.length ? buf[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= buf.length) {
+                return len == 0 ? 0 : -1;
+            }
+            int n = Math.min(len, buf.length - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buf.length - pos));
+            pos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buf.length - pos;
+        }
+    }
+
+    public static MetaFrame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 4 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        int requestId = in.readInt();
+        byte[] body = new byte[length - 4];
+        in.readFully(body);
+        return new MetaFrame(requestId, body);
+    }
+}
@@ -5,15 +5,19 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 public enum MetaOpCode {
-    HEART_BEAT((byte)30),
+    HEART_BEAT((byte)30), // 只用于 HeartbeatManager 的心跳通道，元数据会话不再接受
     CREATE_FILE((byte)31),
     RENAME_FILE((byte)32),
     DEL_FILE((byte)33),
     LIST_FILE((byte)34),
-    GET_FILE_INFO((byte)35);
-
-
-
+    GET_FILE_INFO((byte)35),
+    GET_REPLICAS((byte)36),
+    ADD_BLOCK((byte)37),
+    COMPLETE_FILE((byte)38),
+    INVALIDATE((byte)39), // 服务器推送：使客户端缓存的路径失效
+    BATCH((byte)40), // 一次往返执行一组创建、查询、删除、重命名
+    STATS((byte)41), // 服务器请求指标的快照
+    TRACE((byte)42); // 请求头：其后是追踪上下文与真正的操作码
 
     public final byte code;
 
@@ -35,4 +39,14 @@ public enum MetaOpCode {
     public void write(DataOutput out) throws IOException {
         out.writeByte(code);
     }
+
+    // 写入请求的操作码；span 被采样时先写 TRACE 头 [TRACE][long traceId][long spanId]，服务器在该 span 之下记录
+    public void write(DataOutput out, Span span) throws IOException {
+        if (span.isSampled()) {
+            TRACE.write(out);
+            out.writeLong(span.getTraceId());
+            out.writeLong(span.getId());
+        }
+        write(out);
+    }
 }
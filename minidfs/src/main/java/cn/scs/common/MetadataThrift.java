@@ -0,0 +1,209 @@
+package cn.scs.common;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * src/main/thrift/MetadataService.thrift 的线上编解码，客户端与服务端共用。
+ * 字段编号、结构名与 IDL 保持一致，因此与 thrift 编译器生成的客户端在线上兼容。
+ */
+public final class MetadataThrift {
+
+    // 服务方法名
+    public static final String CREATE_FILE = "createFile";
+    public static final String RENAME_FILE = "renameFile";
+    public static final String DEL_FILE = "deleteFile";
+    public static final String LIST_FILE = "listFile";
+    public static final String GET_FILE_INFO = "getFileInfo";
+    public static final String HEART_BEAT = "heartBeat";
+    public static final String GET_REPLICAS = "getReplicas";
+
+    // 结果结构中的字段编号：0 为返回值，1 为 MetaException
+    public static final short SUCCESS_FIELD = 0;
+    public static final short EXCEPTION_FIELD = 1;
+
+    private static final TStruct FILE_INFO_STRUCT = new TStruct("TFileInfo");
+    private static final TStruct META_EXCEPTION_STRUCT = new TStruct("MetaException");
+
+    private MetadataThrift() {
+    }
+
+    /**
+     * 读取参数结构，返回按字段编号索引的数组，未知字段直接跳过
+     */
+    public static Object[] readArgs(TProtocol in, int maxFieldId) throws TException {
+        Object[] args = new Object[maxFieldId + 1];
+        in.readStructBegin();
+        while (true) {
+            TField field = in.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            if (field.id <= 0 || field.id > maxFieldId) {
+                TProtocolUtil.skip(in, field.type);
+            } else {
+                switch (field.type) {
+                    case TType.STRING:
+                        args[field.id] = in.readString();
+                        break;
+                    case TType.BOOL:
+                        args[field.id] = in.readBool();
+                        break;
+                    case TType.I32:
+                        args[field.id] = in.readI32();
+                        break;
+                    case TType.I64:
+                        args[field.id] = in.readI64();
+                        break;
+                    default:
+                        TProtocolUtil.skip(in, field.type);
+                }
+            }
+            in.readFieldEnd();
+        }
+        in.readStructEnd();
+        return args;
+    }
+
+    public static void writeStringField(TProtocol out, String name, short id, String value) throws TException {
+        if (value != null) {
+            out.writeFieldBegin(new TField(name, TType.STRING, id));
+            out.writeString(value);
+            out.writeFieldEnd();
+        }
+    }
+
+    public static void writeBoolField(TProtocol out, String name, short id, boolean value) throws TException {
+        out.writeFieldBegin(new TField(name, TType.BOOL, id));
+        out.writeBool(value);
+        out.writeFieldEnd();
+    }
+
+    public static void writeI32Field(TProtocol out, String name, short id, int value) throws TException {
+        out.writeFieldBegin(new TField(name, TType.I32, id));
+        out.writeI32(value);
+        out.writeFieldEnd();
+    }
+
+    public static void writeI64Field(TProtocol out, String name, short id, long value) throws TException {
+        out.writeFieldBegin(new TField(name, TType.I64, id));
+        out.writeI64(value);
+        out.writeFieldEnd();
+    }
+
+    public static void writeStringList(TProtocol out, List<String> values) throws TException {
+        out.writeListBegin(new TList(TType.STRING, values.size()));
+        for (String value : values) {
+            out.writeString(value);
+        }
+        out.writeListEnd();
+    }
+
+    public static List<String> readStringList(TProtocol in) throws TException {
+        TList list = in.readListBegin();
+        List<String> values = new ArrayList<>(list.size);
+        for (int i = 0; i < list.size; i++) {
+            values.add(in.readString());
+        }
+        in.readListEnd();
+        return values;
+    }
+
+    public static void writeFileInfo(TProtocol out, FileInfo fileInfo) throws TException {
+        out.writeStructBegin(FILE_INFO_STRUCT);
+        writeStringField(out, "fileName", (short) 1, fileInfo.getFileName());
+        writeStringField(out, "path", (short) 2, fileInfo.getPath());
+        writeBoolField(out, "isDirectory", (short) 3, fileInfo.isDirectory());
+        writeI64Field(out, "fileSize", (short) 4, fileInfo.getFileSize());
+        writeStringField(out, "owner", (short) 5, fileInfo.getOwner());
+        writeI64Field(out, "creationTime", (short) 6, fileInfo.getCreationTime());
+        writeStringField(out, "fileId", (short) 7, fileInfo.getFileId());
+        out.writeFieldBegin(new TField("locations", TType.LIST, (short) 8));
+        writeStringList(out, fileInfo.getLocations());
+        out.writeFieldEnd();
+        out.writeFieldStop();
+        out.writeStructEnd();
+    }
+
+    public static FileInfo readFileInfo(TProtocol in) throws TException {
+        String fileName = null;
+        String path = null;
+        boolean isDirectory = false;
+        long fileSize = -1;
+        String owner = null;
+        long creationTime = 0;
+        String fileId = null;
+        List<String> locations = new ArrayList<>();
+
+        in.readStructBegin();
+        while (true) {
+            TField field = in.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            switch (field.id) {
+                case 1:
+                    fileName = in.readString();
+                    break;
+                case 2:
+                    path = in.readString();
+                    break;
+                case 3:
+                    isDirectory = in.readBool();
+                    break;
+                case 4:
+                    fileSize = in.readI64();
+                    break;
+                case 5:
+                    owner = in.readString();
+                    break;
+                case 6:
+                    creationTime = in.readI64();
+                    break;
+                case 7:
+                    fileId = in.readString();
+                    break;
+                case 8:
+                    locations = readStringList(in);
+                    break;
+                default:
+                    TProtocolUtil.skip(in, field.type);
+            }
+            in.readFieldEnd();
+        }
+        in.readStructEnd();
+
+        FileInfo fileInfo = new FileInfo(fileName, path, isDirectory, fileSize, owner, creationTime);
+        if (fileId != null) {
+            fileInfo.setFileId(fileId);
+        }
+        fileInfo.setLocations(locations);
+        return fileInfo;
+    }
+
+    public static void writeMetaException(TProtocol out, int code, String message) throws TException {
+        out.writeStructBegin(META_EXCEPTION_STRUCT);
+        out.writeFieldBegin(new TField("code", TType.I32, (short) 1));
+        out.writeI32(code);
+        out.writeFieldEnd();
+        writeStringField(out, "message", (short) 2, message);
+        out.writeFieldStop();
+        out.writeStructEnd();
+    }
+
+    /**
+     * 读取 MetaException 结构，返回其中的错误信息
+     */
+    public static String readMetaException(TProtocol in) throws TException {
+        Object[] fields = readArgs(in, 2);
+        return (String) fields[2];
+    }
+}
@@ -0,0 +1,225 @@
+package cn.scs.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * STATS 请求返回的服务器指标快照，各项自服务器启动起累计，两次快照相减即为区间内的值。
+ * 线上格式为 [long uptimeMillis][int inFlight][int queueLength][OpStats queueWait][int n][n 个 OpStats]，
+ * OpStats 为 [UTF 名称][long count][long errors][int inFlight][long bytesIn][long bytesOut]
+ * [long totalMicros][long p50][long p90][long p99][long p999][long max]，延迟单位为微秒。
+ * queueWait 是请求在处理线程池中排队的时间，没有线程池的服务器其计数为 0。
+ * errors 为失败的操作数，由处理方法报告；BATCH 计整批失败和失败的子操作。
+ */
+public class ServerStats {
+
+    private final long uptimeMillis;
+    private final int inFlight;    // 正在处理的请求数
+    private final int queueLength; // 已收到、等待处理线程的请求数
+    private final OpStats queueWait;
+    private final List<OpStats> ops;
+
+    public ServerStats(long uptimeMillis, int inFlight, int queueLength, OpStats queueWait, List<OpStats> ops) {
+        this.uptimeMillis = uptimeMillis;
+        this.inFlight = inFlight;
+        this.queueLength = queueLength;
+        this.queueWait = queueWait;
+        this.ops = ops;
+    }
+
+    /**
+     * 一种操作的计数与延迟分布
+     */
+    public static class OpStats {
+        private final String name;
+        private final long count;
+        private final long errors;
+        private final int inFlight;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long totalMicros;
+        private final long p50Micros;
+        private final long p90Micros;
+        private final long p99Micros;
+        private final long p999Micros;
+        private final long maxMicros;
+
+        public OpStats(String name, long count, long errors, int inFlight, long bytesIn, long bytesOut,
+                       LatencyHistogram.Snapshot latency) {
+            this(name, count, errors, inFlight, bytesIn, bytesOut, latency.getTotalMicros(),
+                    latency.percentile(0.5), latency.percentile(0.9), latency.percentile(0.99),
+                    latency.percentile(0.999), latency.getMaxMicros());
+        }
+
+        private OpStats(String name, long count, long errors, int inFlight, long bytesIn, long bytesOut, long totalMicros,
+                        long p50Micros, long p90Micros, long p99Micros, long p999Micros, long maxMicros) {
+            this.name = name;
+            this.count = count;
+            this.errors = errors;
+            this.inFlight = inFlight;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.totalMicros = totalMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public static OpStats read(DataInput in) throws IOException {
+            return new OpStats(in.readUTF(), in.readLong(), in.readLong(), in.readInt(), in.readLong(), in.readLong(),
+                    in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        }
+
+        public void write(DataOutput out) throws IOException {
+            out.writeUTF(name);
+            out.writeLong(count);
+            out.writeLong(errors);
+            out.writeInt(inFlight);
+            out.writeLong(bytesIn);
+            out.writeLong(bytesOut);
+            out.writeLong(totalMicros);
+            out.writeLong(p50Micros);
+            out.writeLong(p90Micros);
+            out.writeLong(p99Micros);
+            out.writeLong(p999Micros);
+            out.writeLong(maxMicros);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getTotalMicros() {
+            return totalMicros;
+        }
+
+        public long getMeanMicros() {
+            return count == 0 ? 0 : totalMicros / count;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP90Micros() {
+            return p90Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getP999Micros() {
+            return p999Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-14s %10d %8d %8d %10d %10d %10d %10d %10d %14d %14d",
+                    name, count, errors, inFlight, getMeanMicros(), p50Micros, p99Micros, p999Micros, maxMicros, bytesIn, bytesOut);
+        }
+    }
+
+    public static ServerStats read(DataInput in) throws IOException {
+        long uptimeMillis = in.readLong();
+        int inFlight = in.readInt();
+        int queueLength = in.readInt();
+        OpStats queueWait = OpStats.read(in);
+        int n = in.readInt();
+        List<OpStats> ops = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ops.add(OpStats.read(in));
+        }
+        return new ServerStats(uptimeMillis, inFlight, queueLength, queueWait, ops);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(uptimeMillis);
+        out.writeInt(inFlight);
+        out.writeInt(queueLength);
+        queueWait.write(out);
+        out.writeInt(ops.size());
+        for (OpStats op : ops) {
+            op.write(out);
+        }
+    }
+
+    public long getUptimeMillis() {
+        return uptimeMillis;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    public OpStats getQueueWait() {
+        return queueWait;
+    }
+
+    public List<OpStats> getOps() {
+        return Collections.unmodifiableList(ops);
+    }
+
+    // 按名称查找某种操作，没有时返回 null
+    public OpStats getOp(String name) {
+        for (OpStats op : ops) {
+            if (op.getName().equals(name)) {
+                return op;
+            }
+        }
+        return null;
+    }
+
+    // 打印为表格，只列出处理过请求的操作
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("uptime=").append(uptimeMillis / 1000).append("s inFlight=").append(inFlight)
+                .append(" queueLength=").append(queueLength).append('\n');
+        sb.append(String.format("%-14s %10s %8s %8s %10s %10s %10s %10s %10s %14s %14s",
+                "op", "count", "errors", "inFlight", "mean(us)", "p50(us)", "p99(us)", "p999(us)", "max(us)", "bytesIn", "bytesOut"));
+        if (queueWait.getCount() > 0) {
+            sb.append('\n').append(queueWait);
+        }
+        for (OpStats op : ops) {
+            if (op.getCount() > 0 || op.getInFlight() > 0) {
+                sb.append('\n').append(op);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,256 @@
+package cn.scs.common;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 请求追踪中的一段计时（Zipkin 的 span）。客户端按 TRACE_SAMPLE_RATE 决定一次操作是否采样，
+ * 采样的追踪随请求把 [traceId][spanId] 放在 TRACE 头里带给服务器，服务器的 span 以它为父节点，
+ * 各进程结束的 span 由 SpanWriter 写入本地文件，按 traceId 即可拼出一次操作在各个服务器上的各阶段耗时。
+ * 没有采样时使用 NOOP，其所有方法都不做任何事，不在采样的追踪中几乎没有开销。
+ *
+ * 当前线程的 span 保存在线程局部变量中：activate 使其成为当前 span，close 时结束并恢复原来的 span；
+ * 提交到线程池的任务用 wrap 包装后在工作线程中延续提交者的 span。
+ */
+public final class Span implements Closeable {
+
+    public static final String CLIENT = "CLIENT";
+    public static final String SERVER = "SERVER";
+
+    public static final Span NOOP = new Span(0, 0, 0, null, null, false);
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    // nanoTime 换算为自 1970 年起的微秒数
+    private static final long EPOCH_OFFSET_MICROS = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+
+    private final long traceId;
+    private final long id;
+    private final long parentId; // 0 表示根 span
+    private final String name;
+    private final String service;
+    private final boolean recorded; // 远端父 span 只用来建立父子关系，本进程不记录
+    private final long startNanos;
+    private String kind;
+    private Map<String, String> tags;
+    private long durationMicros = -1;
+    private Span previous; // activate 之前的当前 span
+    private boolean active;
+
+    private Span(long traceId, long parentId, long id, String name, String service, boolean recorded) {
+        this.traceId = traceId;
+        this.parentId = parentId;
+        this.id = id;
+        this.name = name;
+        this.service = service;
+        this.recorded = recorded;
+        this.startNanos = System.nanoTime();
+    }
+
+    private static long nextId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    // 当前线程所在的 span，没有时为 NOOP
+    public static Span current() {
+        Span span = CURRENT.get();
+        return span == null ? NOOP : span;
+    }
+
+    /**
+     * 开始一次操作的追踪：当前线程已经在采样的追踪中时作为其子 span，否则按采样率决定是否开始新的追踪
+     */
+    public static Span startTrace(String service, String name) {
+        Span current = current();
+        if (current.isSampled()) {
+            return current.child(name);
+        }
+        if (Config.TRACE_SAMPLE_RATE <= 0 || ThreadLocalRandom.current().nextDouble() >= Config.TRACE_SAMPLE_RATE) {
+            return NOOP;
+        }
+        return new Span(nextId(), 0, nextId(), name, service, true);
+    }
+
+    /**
+     * 读取请求中 TRACE 头之后的 [long traceId][long spanId]，返回代表请求方 span 的远端父节点，
+     * 服务器在其下用 child 创建自己的 span，service 为本服务器的名称
+     */
+    public static Span readHeader(DataInput in, String service) throws IOException {
+        long traceId = in.readLong();
+        long spanId = in.readLong();
+        return new Span(traceId, 0, spanId, null, service, false);
+    }
+
+    public Span child(String name) {
+        if (!isSampled()) {
+            return NOOP;
+        }
+        return new Span(traceId, id, nextId(), name, service, true);
+    }
+
+    public Span kind(String kind) {
+        if (recorded) {
+            this.kind = kind;
+        }
+        return this;
+    }
+
+    public Span tag(String key, Object value) {
+        if (recorded) {
+            synchronized (this) {
+                if (tags == null) {
+                    tags = new LinkedHashMap<>();
+                }
+                tags.put(key, String.valueOf(value));
+            }
+        }
+        return this;
+    }
+
+    // 成为当前线程的 span，直到 close
+    public Span activate() {
+        if (isSampled()) {
+            previous = CURRENT.get();
+            CURRENT.set(this);
+            active = true;
+        }
+        return this;
+    }
+
+    // 结束计时并提交写出，可以在其他线程调用，重复调用只记录第一次
+    public void finish() {
+        if (!recorded) {
+            return;
+        }
+        synchronized (this) {
+            if (durationMicros >= 0) {
+                return;
+            }
+            durationMicros = Math.max(1, (System.nanoTime() - startNanos) / 1000);
+        }
+        SpanWriter.getInstance().submit(this);
+    }
+
+    @Override
+    public void close() {
+        finish();
+        if (active) {
+            active = false;
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public boolean isSampled() {
+        return traceId != 0;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    // 包装提交到线程池的任务，使其在工作线程中以提交时的当前 span 为父节点
+    public static Runnable wrap(Runnable task) {
+        Span span = current();
+        if (!span.isSampled()) {
+            return task;
+        }
+        return () -> {
+            Span previous = CURRENT.get();
+            CURRENT.set(span);
+            try {
+                task.run();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    public static <V> Callable<V> wrap(Callable<V> task) {
+        Span span = current();
+        if (!span.isSampled()) {
+            return task;
+        }
+        return () -> {
+            Span previous = CURRENT.get();
+            CURRENT.set(span);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Zipkin v2 JSON 格式的一行，id 为 16 位十六进制，timestamp 与 duration 的单位为微秒
+     */
+    synchronized String toJson() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"traceId\":\"").append(hex(traceId)).append('"');
+        if (parentId != 0) {
+            sb.append(",\"parentId\":\"").append(hex(parentId)).append('"');
+        }
+        sb.append(",\"id\":\"").append(hex(id)).append('"');
+        if (kind != null) {
+            sb.append(",\"kind\":\"").append(kind).append('"');
+        }
+        sb.append(",\"name\":");
+        quote(sb, name);
+        sb.append(",\"timestamp\":").append(EPOCH_OFFSET_MICROS + startNanos / 1000);
+        sb.append(",\"duration\":").append(durationMicros);
+        sb.append(",\"localEndpoint\":{\"serviceName\":");
+        quote(sb, service);
+        sb.append('}');
+        if (tags != null) {
+            sb.append(",\"tags\":{");
+            boolean first = true;
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                quote(sb, tag.getKey());
+                sb.append(':');
+                quote(sb, tag.getValue());
+            }
+            sb.append('}');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String hex(long value) {
+        String s = Long.toHexString(value);
+        return s.length() == 16 ? s : "0000000000000000".substring(s.length()) + s;
+    }
+
+    private static void quote(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
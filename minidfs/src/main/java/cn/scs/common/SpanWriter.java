@@ -0,0 +1,88 @@
+package cn.scs.common;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把结束的 span 写入 TRACE_DIR/spans-<进程号>.json，每行一个 Zipkin v2 JSON 对象。
+ * 请求线程只把 span 放入有界队列，由后台线程写文件；队列满时丢弃，不让追踪拖慢请求。
+ * 上传到 Zipkin 时把各行合成数组即可，如 jq -s . spans-*.json | curl -H 'Content-Type: application/json' -d @- .../api/v2/spans
+ */
+public class SpanWriter implements Runnable {
+    private static Logger log = LogManager.getLogger(SpanWriter.class);
+
+    private static final int QUEUE_SIZE = 10000;
+    private static volatile SpanWriter instance;
+
+    private final BlockingQueue<Span> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong dropped = new AtomicLong();
+    private final File file;
+
+    private SpanWriter(File file) {
+        this.file = file;
+    }
+
+    // 第一次写出 span 时创建文件与后台线程
+    static SpanWriter getInstance() {
+        if (instance == null) {
+            synchronized (SpanWriter.class) {
+                if (instance == null) {
+                    String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+                    SpanWriter writer = new SpanWriter(new File(Config.TRACE_DIR, "spans-" + pid + ".json"));
+                    Thread thread = new Thread(writer, "span-writer");
+                    thread.setDaemon(true);
+                    thread.start();
+                    instance = writer;
+                }
+            }
+        }
+        return instance;
+    }
+
+    void submit(Span span) {
+        if (!queue.offer(span)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void run() {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            log.error("Failed to create trace directory " + dir);
+            return;
+        }
+        log.info("Writing sampled spans to " + file.getAbsolutePath());
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+            while (true) {
+                Span span = queue.take();
+                do {
+                    out.write(span.toJson());
+                    out.write('\n');
+                } while ((span = queue.poll()) != null);
+                // 队列暂时为空时才刷出，突发时一次写入多行
+                out.flush();
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    log.warn("Dropped " + lost + " spans because the trace queue was full");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Failed to write spans to " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package cn.scs.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 数据服务器随心跳上报的存储与负载状况，元数据服务器据此为新块选择副本位置。
+ * 线上格式为 [long capacity][long dfsUsed][long remaining][int activeTransfers][long ioLatencyMicros]。
+ */
+public class StorageReport {
+
+    private final long capacity;        // 存储目录所在磁盘的总容量
+    private final long dfsUsed;         // 块文件占用的空间
+    private final long remaining;       // 磁盘剩余可用空间
+    private final int activeTransfers;  // 正在进行的块读写数
+    private final long ioLatencyMicros; // 最近写盘延迟的滑动平均（微秒）
+
+    public StorageReport(long capacity, long dfsUsed, long remaining, int activeTransfers, long ioLatencyMicros) {
+        this.capacity = capacity;
+        this.dfsUsed = dfsUsed;
+        this.remaining = remaining;
+        this.activeTransfers = activeTransfers;
+        this.ioLatencyMicros = ioLatencyMicros;
+    }
+
+    public static StorageReport read(DataInput in) throws IOException {
+        return new StorageReport(in.readLong(), in.readLong(), in.readLong(), in.readInt(), in.readLong());
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(capacity);
+        out.writeLong(dfsUsed);
+        out.writeLong(remaining);
+        out.writeInt(activeTransfers);
+        out.writeLong(ioLatencyMicros);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getDfsUsed() {
+        return dfsUsed;
+    }
+
+    public long getRemaining() {
+        return remaining;
+    }
+
+    public int getActiveTransfers() {
+        return activeTransfers;
+    }
+
+    public long getIoLatencyMicros() {
+        return ioLatencyMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "capacity=" + capacity + " dfsUsed=" + dfsUsed + " remaining=" + remaining
+                + " activeTransfers=" + activeTransfers + " ioLatencyMicros=" + ioLatencyMicros;
+    }
+}
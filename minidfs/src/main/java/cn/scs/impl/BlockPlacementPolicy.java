@@ -0,0 +1,99 @@
+package cn.scs.impl;
+
+import cn.scs.common.StorageReport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 新块的副本放置策略，依据数据服务器心跳上报的存储与负载状况（power of two choices）：
+ * 每选一个副本，先按剩余空间加权随机抽取两个候选节点，再取其中负载较轻的一个。
+ * 剩余空间越多的节点被抽中的概率越大，两个候选中又避开了正忙的节点，
+ * 既不会把块集中到最空的节点上，也不会让已满或正忙的节点成为写入瓶颈。
+ *
+ * 负载为正在进行的块读写数、上次心跳之后已分配给该节点的块数，以及按写盘延迟折算的份额之和。
+ * 只在发来过心跳的节点中选择（见 ReplicationMonitor.liveNodes），剩余空间放不下一个块的节点不参与选择；
+ * 旧版数据服务器的心跳不带存储状况，这样的节点按已上报节点的平均剩余空间计。
+ */
+class BlockPlacementPolicy {
+
+    // 写盘延迟每多这么多微秒，相当于多一个进行中的传输
+    private static final double LATENCY_MICROS_PER_TRANSFER = 1000.0;
+
+    /**
+     * 从 nodes 中为大小至多 blockSize 的块选择至多 replicaCount 个不同的节点，
+     * 选中的节点记一次待上报的分配
+     */
+    List<StorageNode> chooseTargets(Collection<StorageNode> nodes, int replicaCount, long blockSize) {
+        List<StorageNode> candidates = new ArrayList<>();
+        double knownWeight = 0;
+        int known = 0;
+        for (StorageNode node : nodes) {
+            StorageReport report = node.getReport();
+            if (report == null) { // 旧版心跳，没有存储状况
+                candidates.add(node);
+            } else if (report.getRemaining() >= blockSize) {
+                candidates.add(node);
+                knownWeight += report.getRemaining();
+                known++;
+            }
+        }
+        double defaultWeight = known == 0 ? 1.0 : knownWeight / known;
+
+        List<StorageNode> targets = new ArrayList<>();
+        while (targets.size() < replicaCount && !candidates.isEmpty()) {
+            StorageNode first = sample(candidates, defaultWeight, null);
+            StorageNode chosen = first;
+            if (candidates.size() > 1) {
+                StorageNode second = sample(candidates, defaultWeight, first);
+                if (load(second) < load(first)) {
+                    chosen = second;
+                }
+            }
+            candidates.remove(chosen);
+            chosen.incScheduledBlocks();
+            targets.add(chosen);
+        }
+        return targets;
+    }
+
+    // 按剩余空间加权随机抽取一个节点，跳过 excluded
+    private static StorageNode sample(List<StorageNode> candidates, double defaultWeight, StorageNode excluded) {
+        double total = 0;
+        for (StorageNode node : candidates) {
+            if (node != excluded) {
+                total += weight(node, defaultWeight);
+            }
+        }
+        double r = ThreadLocalRandom.current().nextDouble() * total;
+        StorageNode last = null;
+        for (StorageNode node : candidates) {
+            if (node == excluded) {
+                continue;
+            }
+            last = node;
+            r -= weight(node, defaultWeight);
+            if (r < 0) {
+                return node;
+            }
+        }
+        return last; // 浮点误差
+    }
+
+    private static double weight(StorageNode node, double defaultWeight) {
+        StorageReport report = node.getReport();
+        // 剩余空间为 0 的节点已在前面排除（块大小为 0 时除外），保留一个极小的权重
+        return report == null ? defaultWeight : Math.max(1.0, report.getRemaining());
+    }
+
+    private static double load(StorageNode node) {
+        StorageReport report = node.getReport();
+        double load = node.getScheduledBlocks();
+        if (report != null) {
+            load += report.getActiveTransfers() + report.getIoLatencyMicros() / LATENCY_MICROS_PER_TRANSFER;
+        }
+        return load;
+    }
+}
@@ -0,0 +1,56 @@
+package cn.scs.impl;
+
+import cn.scs.common.DataChecksum;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * 数据服务器的块存储。DataServer 负责协议、流水线与校验，存储只负责保存块数据及其分段校验和。
+ * 块写完提交之前对读取不可见；同一个块只会被写入一次。
+ */
+public interface BlockStore extends Closeable {
+
+    /**
+     * 已提交的块。数据位于 getChannel() 的 [getDataOffset(), getDataOffset() + getLength())，
+     * 可以直接 transferTo 到 socket；用完后必须 close。
+     */
+    interface StoredBlock extends Closeable {
+        FileChannel getChannel();
+
+        long getDataOffset();
+
+        long getLength();
+
+        // 块的校验类型，没有保存校验和的块为 CHECKSUM_NULL
+        DataChecksum getChecksum();
+
+        // 读取从第 chunkIndex 段开始、共 length 字节的校验和
+        void readChecksums(long chunkIndex, byte[] dst, int off, int length) throws IOException;
+    }
+
+    // 正在写入的块，按顺序追加数据包后 commit，出错时 abort
+    interface BlockWriter {
+        void write(byte[] data, int off, int len, byte[] sums, int sumOff, int sumLen) throws IOException;
+
+        void commit() throws IOException;
+
+        void abort();
+    }
+
+    // 打开已提交的块，不存在时返回 null
+    StoredBlock open(long blockId) throws IOException;
+
+    BlockWriter create(long blockId, DataChecksum checksum) throws IOException;
+
+    // 删除块，返回是否存在；正在读取它的 StoredBlock 仍可读完
+    boolean delete(long blockId) throws IOException;
+
+    // 所有已提交的块
+    List<Long> listBlocks();
+
+    // 块数据与校验和占用的字节数
+    long getUsed();
+}
@@ -1,18 +1,39 @@
 package cn.scs.impl;
 
 // DataServer 代码
-import cn.scs.client.MetaServerClient;
+import cn.scs.client.Connection;
+import cn.scs.client.ConnectionPool;
+import cn.scs.common.BlockCommand;
+import cn.scs.common.BlockInfo;
 import cn.scs.common.Config;
+import cn.scs.common.DataChecksum;
 import cn.scs.common.DataOpCode;
+import cn.scs.common.MetaOpCode;
+import cn.scs.common.ServerStats;
+import cn.scs.common.Span;
+import cn.scs.common.StorageReport;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import sun.security.krb5.internal.HostAddress;
-import sun.security.x509.IPAddressName;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DataServer {
     private static Logger log = LogManager.getLogger(DataServer.class);
@@ -21,34 +42,48 @@ public class DataServer {
     int DATA_SERVRE_PORT = 9526;
     int END_STREAM = -1;
     String storage_path;
-    MetaServerClient metaClient;
-    ServerSocket serverSocket;
+    BlockStore blockStore; // 块数据与校验和的存储
+    ServerSocketChannel serverChannel; // 以通道方式接收连接，读块时可以 transferTo 到 socket
     HeartBeatThread heartBeat;
+    // 写流水线中到下游数据服务器的连接池
+    private final ConnectionPool mirrorPool = new ConnectionPool();
+    // 随心跳上报的负载统计
+    private final AtomicInteger activeTransfers = new AtomicInteger(); // 正在处理的块读写数
+    private final AtomicLong ioLatencyMicros = new AtomicLong();       // 写盘延迟的滑动平均
+    // 上次心跳以来新增和删除的块，随下一次心跳增量汇报
+    private final Object reportLock = new Object();
+    private Set<Long> addedBlocks = new HashSet<>();
+    private Set<Long> deletedBlocks = new HashSet<>();
+    // 执行元数据服务器下发的复制命令
+    private final ExecutorService replicationPool = Executors.newFixedThreadPool(Config.DATA_REPLICATION_THREADS);
+    // 块读写请求的计数、字节数与延迟，由 STATS 请求和 JMX 读取
+    private ServerMetrics<DataOpCode> metrics;
+
+    public DataServer() throws UnknownHostException {
+        this(InetAddress.getLocalHost().getHostName(), Config.DATA_SERVRE_PORT, Config.STORAGE_PATH);
+    }
 
-    public DataServer() {
+    // 指定节点名、端口与存储路径，便于在同一台机器上启动多个数据服务器组成复制流水线
+    public DataServer(String nodeName, int port, String storagePath) {
         try {
             // 初始化节点名称
-            this.nodeName = InetAddress.getLocalHost().getHostName();
+            this.nodeName = nodeName;
+            this.DATA_SERVRE_PORT = port;
 
             // 初始化存储路径
-            storage_path = Config.STORAGE_PATH;
+            storage_path = storagePath;
             if (storage_path == null || storage_path.isEmpty()) {
                 throw new IllegalArgumentException("Storage path is not configured.");
             }
-            File storageDir = new File(storage_path);
-            if (!storageDir.exists()) {
-                boolean created = storageDir.mkdirs();
-                if (!created) {
-                    throw new IOException("Failed to create storage directory: " + storage_path);
-                }
-            }
+            blockStore = openBlockStore(new File(storage_path));
 
             // 初始化服务器套接字
-            serverSocket = new ServerSocket(DATA_SERVRE_PORT);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(DATA_SERVRE_PORT));
 
-            // 初始化心跳线程和元数据客户端
-            metaClient = new MetaServerClient();
+            // 初始化心跳线程
             heartBeat = new HeartBeatThread();
+            metrics = new ServerMetrics<>("DataServer", nodeName, DataOpCode.values());
 
             System.out.println("DataServer initialized successfully.");
         } catch (IOException e) {
@@ -58,213 +93,642 @@ public class DataServer {
     }
 
 
+    // 在后台线程中启动服务（包括心跳），用于在同一进程内启动多个数据服务器
+    public void start() {
+        Thread server = new Thread(this::serve, "data-server-" + nodeName);
+        server.setDaemon(true);
+        server.start();
+    }
+
     private void serve() {
-        if (serverSocket == null || storage_path == null || heartBeat == null) {
+        if (serverChannel == null || storage_path == null || heartBeat == null) {
             throw new IllegalStateException("DataServer is not properly initialized.");
         }
         System.out.println("┏======================================┓");
         System.out.println("|数据服务已经启动|Data Server is running ");
         System.out.println("┗======================================┛");
         isRunning = true;
+        metrics.registerMBeans();
 
         // 启动心跳线程
-        new Thread(heartBeat).start();
+        Thread heartBeatThread = new Thread(heartBeat, "heartbeat-" + nodeName);
+        heartBeatThread.setDaemon(true);
+        heartBeatThread.start();
 
         while (isRunning) {
-            Socket clientSocket = null;
             try {
-                // 接受客户端连接
-                clientSocket = serverSocket.accept();
-                System.out.println("Accepted connection from client: " + clientSocket.getRemoteSocketAddress());
+                // 接受客户端连接，每个连接由独立线程处理：写流水线中本节点会同时作为上游和下游，
+                // 串行处理连接会让两条方向相反的流水线互相等待
+                SocketChannel channel = serverChannel.accept();
+                Thread handler = new Thread(() -> handleConnection(channel), "data-xceiver-" + channel.socket().getRemoteSocketAddress());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (isRunning) {
+                    log.error("Error in server operation: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
 
-                // 初始化输入输出流
-                DataInputStream in = new DataInputStream(clientSocket.getInputStream());
-                DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream());
+    /**
+     * 一个连接上依次处理多个请求，客户端用连接池复用连接。
+     * 请求出错后连接上的协议状态不确定，此时关闭连接；客户端关闭或长时间空闲时也结束。
+     */
+    private void handleConnection(SocketChannel channel) {
+        Socket clientSocket = channel.socket();
+        try {
+            log.debug("Accepted connection from client: " + clientSocket.getRemoteSocketAddress());
+            clientSocket.setTcpNoDelay(true);
+            clientSocket.setSoTimeout(Config.DATA_SOCKET_TIMEOUT_MS);
+
+            // 初始化输入输出流
+            DataInputStream in = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
 
+            while (isRunning) {
                 // 读取客户端请求
-                DataOpCode op = null;
+                DataOpCode op;
                 try {
                     op = DataOpCode.read(in);
-                    System.out.println("Received operation: " + op);
-                } catch (Exception e) {
-                    log.error("Error reading operation code: " + e.getMessage(), e);
-                    continue;
+                } catch (EOFException e) {
+                    break; // 客户端关闭了连接
+                } catch (SocketTimeoutException e) {
+                    break; // 空闲连接
+                }
+                Span parent = Span.NOOP;
+                if (op == DataOpCode.TRACE) {
+                    // 请求在采样的追踪中，本次处理记为请求方 span 的子 span
+                    parent = Span.readHeader(in, "data-" + nodeName);
+                    op = DataOpCode.read(in);
                 }
 
                 // 处理请求
-                if (op != null) {
-                    process(op, in, out);
-                } else {
-                    log.warn("Received null operation code. Skipping request.");
+                if (op == null) {
+                    log.warn("Received null operation code. Closing connection.");
+                    break;
                 }
-            } catch (IOException e) {
-                log.error("Error in server operation: " + e.getMessage(), e);
-            } finally {
-                // 确保关闭客户端连接
-                if (clientSocket != null) {
-                    try {
-                        clientSocket.close();
-                        System.out.println("Client socket closed.");
-                    } catch (IOException e) {
-                        log.error("Failed to close client socket: " + e.getMessage(), e);
+                try (Span span = parent.child(op.name()).kind(Span.SERVER).activate()) {
+                    if (!process(op, in, out, channel)) {
+                        break;
                     }
                 }
             }
+        } catch (IOException e) {
+            log.error("Error in server operation: " + e.getMessage(), e);
+        } finally {
+            // 确保关闭客户端连接
+            try {
+                clientSocket.close();
+                log.debug("Client socket closed.");
+            } catch (IOException e) {
+                log.error("Failed to close client socket: " + e.getMessage(), e);
+            }
         }
     }
 
+    /**
+     * 心跳线程：与元数据服务器的心跳端口保持一条长连接，每个周期发送存储状况和块汇报，
+     * 并执行响应中带回的块命令。连接断开后重连，重连后的第一次汇报是全量的。
+     */
     public class HeartBeatThread implements Runnable {
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+
         @Override
         public void run() {
             while (isRunning) {
-                Socket socket = null;
-                DataOutputStream out = null;
-                DataInputStream in = null;
                 try {
-                    // 建立与元数据服务器的连接
-                    socket = new Socket(Config.META_SERVRE_HOST, Config.META_SERVRE_PORT);
-                    out = new DataOutputStream(socket.getOutputStream());
-                    in = new DataInputStream(socket.getInputStream());
-
-                    // 发送心跳信息
-                    out.writeUTF(nodeName); // 节点名称
-                    out.flush();
-                    System.out.println("HeartBeat sent from node: " + nodeName);
-
-                    // 接收元数据服务器的响应
-                    int responseCode = in.readInt();
-                    String responseMsg = in.readUTF();
-                    System.out.println("Received from MetaServer: " + responseCode + " - " + responseMsg);
-
+                    boolean fullReport = socket == null;
+                    if (fullReport) {
+                        connect();
+                    }
+                    String responseMsg = sendHeartBeat(fullReport);
+                    log.debug("Received from MetaServer: " + responseMsg);
                     // 等待下一个心跳周期
                     Thread.sleep(Config.HEARTBEAT_SECS * 1000);
                 } catch (IOException e) {
                     log.error("HeartBeat failed: " + e.getMessage());
+                    disconnect();
+                    System.out.println("Retrying heartbeat after " + Config.HEARTBEAT_SECS + " seconds...");
                     try {
-                        // 如果心跳失败，等待重试间隔
-                        System.out.println("Retrying heartbeat after " + Config.TIMEOUT_OF_HEARTBEATS + " seconds...");
-                        Thread.sleep(Config.TIMEOUT_OF_HEARTBEATS * 1000);
-                    } catch (InterruptedException ex) {
-                        log.error("Retry sleep interrupted: " + ex.getMessage());
+                        Thread.sleep(Config.HEARTBEAT_SECS * 1000);
+                    } catch (InterruptedException ie) {
+                        isRunning = false;
                     }
                 } catch (InterruptedException e) {
                     System.out.println("HeartBeat thread interrupted: " + e.getMessage());
                     isRunning = false; // 如果线程被中断，停止运行
-                } finally {
-                    try {
-                        if (out != null) out.close();
-                        if (in != null) in.close();
-                        if (socket != null) socket.close();
-                    } catch (IOException e) {
-                        log.error("Failed to close HeartBeat connection: " + e.getMessage());
-                    }
                 }
             }
+            disconnect();
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket(Config.META_SERVRE_HOST, Config.META_HEARTBEAT_PORT);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(Config.TIMEOUT_OF_HEARTBEATS * 1000);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private void disconnect() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    log.error("Failed to close heartbeat connection: " + e.getMessage());
+                }
+                socket = null;
+            }
+        }
+
+        // 发送一次心跳，执行响应中的命令，返回元数据服务器的确认信息
+        private String sendHeartBeat(boolean fullReport) throws IOException {
+            Collection<Long> added;
+            Collection<Long> deleted;
+            synchronized (reportLock) {
+                added = addedBlocks;
+                deleted = deletedBlocks;
+                addedBlocks = new HashSet<>();
+                deletedBlocks = new HashSet<>();
+            }
+            if (fullReport) {
+                added = blockStore.listBlocks();
+                deleted = Collections.emptyList();
+            }
+            MetaOpCode.HEART_BEAT.write(out);
+            out.writeUTF(nodeName);
+            out.writeInt(DATA_SERVRE_PORT);
+            storageReport().write(out);
+            out.writeBoolean(fullReport);
+            writeBlockIds(out, added);
+            writeBlockIds(out, deleted);
+            out.flush();
+
+            if (in.readInt() != 0) {
+                throw new IOException("HeartBeat rejected: " + in.readUTF());
+            }
+            String ack = in.readUTF();
+            int n = in.readInt();
+            List<BlockCommand> commands = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                commands.add(BlockCommand.read(in));
+            }
+            for (BlockCommand command : commands) {
+                executeCommand(command);
+            }
+            return ack;
         }
     }
 
+    // 根据配置选择块存储：file（默认，每块一个文件）或 segment（小块追加到段文件）
+    private static BlockStore openBlockStore(File storageDir) throws IOException {
+        if ("segment".equalsIgnoreCase(Config.DATA_STORE)) {
+            log.info("Using segment block store at " + storageDir);
+            return new SegmentBlockStore(storageDir);
+        }
+        return new FileBlockStore(storageDir);
+    }
 
+    private static void writeBlockIds(DataOutputStream out, Collection<Long> blockIds) throws IOException {
+        out.writeInt(blockIds.size());
+        for (long blockId : blockIds) {
+            out.writeLong(blockId);
+        }
+    }
 
-    // 处理客户端请求并返回响应
-    protected final void process(DataOpCode op, DataInputStream in, DataOutputStream out) throws IOException {
-        switch(op) {
-            case WRITE_FILE:
-                writeFile(in,out);
+    private void blockAdded(long blockId) {
+        synchronized (reportLock) {
+            deletedBlocks.remove(blockId);
+            addedBlocks.add(blockId);
+        }
+    }
+
+    private void blockDeleted(long blockId) {
+        synchronized (reportLock) {
+            addedBlocks.remove(blockId);
+            deletedBlocks.add(blockId);
+        }
+    }
+
+    private void executeCommand(BlockCommand command) {
+        log.debug("Executing command from MetaServer: " + command);
+        switch (command.getAction()) {
+            case BlockCommand.DELETE:
+                deleteBlock(command.getBlockId());
                 break;
-            case READ_FILE:
-                readFile(in,out);
+            case BlockCommand.REPLICATE:
+                // 复制可能持续较久，不阻塞心跳
+                replicationPool.execute(() -> replicateBlock(command.getBlockId(), command.getTargets()));
                 break;
             default:
-                throw new IOException("Unknown op " + op + " in data stream");
+                log.warn("Unknown block command: " + command);
         }
     }
 
+    // 删除块，正在读取它的连接仍可读完
+    private void deleteBlock(long blockId) {
+        try {
+            blockStore.delete(blockId);
+            blockDeleted(blockId);
+            log.debug("Block deleted: " + BlockInfo.blockFileName(blockId));
+        } catch (IOException e) {
+            log.error("Failed to delete block " + blockId + ": " + e.getMessage());
+        }
+    }
 
+    /**
+     * 执行复制命令：把本地的块以 WRITE_BLOCK 流水线写到 targets，数据包带上保存的校验和，
+     * 下游照常逐段校验，本地副本已经损坏时复制失败而不会扩散。
+     */
+    private void replicateBlock(long blockId, List<String> targets) {
+        Connection mirror = null;
+        boolean succeeded = false;
+        activeTransfers.incrementAndGet();
+        try (BlockStore.StoredBlock block = blockStore.open(blockId)) {
+            if (block == null) {
+                throw new FileNotFoundException("Block not found: " + BlockInfo.blockFileName(blockId));
+            }
+            DataChecksum checksum = block.getChecksum();
+            long length = block.getLength();
+
+            mirror = mirrorPool.borrow(targets.get(0));
+            DataOutputStream mirrorOut = mirror.getOut();
+            DataOpCode.WRITE_BLOCK.write(mirrorOut);
+            mirrorOut.writeLong(blockId);
+            mirrorOut.writeInt(targets.size() - 1);
+            for (String target : targets.subList(1, targets.size())) {
+                mirrorOut.writeUTF(target);
+            }
+            checksum.writeHeader(mirrorOut);
+
+            int packetSize = checksum.alignPacketSize(Config.PACKET_SIZE);
+            byte[] buffer = new byte[packetSize];
+            byte[] sums = new byte[checksum.checksumLength(packetSize)];
+            long packets = 0;
+            long position = 0;
+            do {
+                int count = (int) Math.min(packetSize, length - position);
+                int sumLength = checksum.checksumLength(count);
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+                while (data.hasRemaining()) {
+                    if (block.getChannel().read(data, block.getDataOffset() + position + data.position()) < 0) {
+                        throw new EOFException("Block " + blockId + " is shorter than " + length + " bytes");
+                    }
+                }
+                block.readChecksums(position / checksum.getBytesPerChecksum(), sums, 0, sumLength);
+                position += count;
+                mirrorOut.writeLong(packets++);
+                mirrorOut.writeInt(count);
+                mirrorOut.writeBoolean(position >= length);
+                mirrorOut.write(sums, 0, sumLength);
+                mirrorOut.write(buffer, 0, count);
+            } while (position < length);
+            mirrorOut.flush();
+
+            for (long seqno = 0; seqno < packets; seqno++) {
+                long ackSeqno = mirror.readLong();
+                int status = mirror.readInt();
+                if (ackSeqno != seqno || status != 0) {
+                    throw new IOException("pipeline " + targets + " failed at packet " + ackSeqno);
+                }
+            }
+            succeeded = true;
+            log.debug("Block replicated: " + BlockInfo.blockFileName(blockId) + " -> " + targets);
+        } catch (IOException e) {
+            log.error("Failed to replicate block " + blockId + " to " + targets + ": " + e.getMessage());
+        } finally {
+            activeTransfers.decrementAndGet();
+            if (mirror != null) {
+                if (succeeded) {
+                    mirrorPool.release(mirror);
+                } else {
+                    mirrorPool.invalidate(mirror);
+                }
+            }
+        }
+    }
+
+    // 本节点当前的存储与负载状况
+    StorageReport storageReport() {
+        File storageDir = new File(storage_path);
+        return new StorageReport(storageDir.getTotalSpace(), blockStore.getUsed(), storageDir.getUsableSpace(),
+                activeTransfers.get(), ioLatencyMicros.get());
+    }
+
+    // 记录一次写盘耗时，以 1/8 的权重计入滑动平均
+    private void recordIoLatency(long nanos) {
+        ioLatencyMicros.accumulateAndGet(nanos / 1000, (average, sample) -> average + (sample - average) / 8);
+    }
 
-    private void writeFile(DataInputStream in, DataOutputStream out) {
+    // 处理客户端请求并返回响应，返回 false 表示连接不能再处理下一个请求
+    protected final boolean process(DataOpCode op, DataInputStream in, DataOutputStream out, SocketChannel channel) throws IOException {
+        OpMetrics opMetrics = metrics.op(op);
+        long start = opMetrics.begin();
+        activeTransfers.incrementAndGet();
         try {
-            String fileId = in.readUTF();
-            String path = Config.STORAGE_PATH + File.separator + fileId;
-            FileOutputStream fout = new FileOutputStream(path);
-
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                fout.write(buffer, 0, bytesRead);
+            switch(op) {
+                case WRITE_BLOCK:
+                    return writeBlock(in, out, opMetrics);
+                case READ_BLOCK:
+                    return readBlock(in, out, channel, opMetrics);
+                case STATS:
+                    // 响应为 [int 0][ServerStats]
+                    out.writeInt(0);
+                    getStats().write(out);
+                    out.flush();
+                    return true;
+                default:
+                    opMetrics.error();
+                    throw new IOException("Unknown op " + op + " in data stream");
             }
-            fout.close();
+        } finally {
+            activeTransfers.decrementAndGet();
+            opMetrics.end(start);
+        }
+    }
 
-            out.writeInt(0);
-            out.writeUTF("File written successfully: " + path);
+    // 块读写请求的指标快照，自服务器启动起累计
+    public ServerStats getStats() {
+        return metrics.snapshot();
+    }
 
-            // 同步写入到副本节点
-            notifyReplicas(fileId, buffer);
-        } catch (IOException e) {
-            log.error("Failed to write file: " + e.getMessage());
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 以流水线方式写入一个块。请求头为 [long blockId][int n][n 个下游 host:port][byte 校验类型][int bytesPerChecksum]，
+     * 随后是若干数据包 [long seqno][int 长度][boolean 是否最后一个][各段校验和][数据]，
+     * 除最后一个包外包长度都是 bytesPerChecksum 的整数倍。
+     * 每个节点都校验收到的数据，校验和原样交给块存储与数据一起保存，读取时随数据一起发给客户端。
+     * 每个包先转发给流水线中的下一个节点，再写入本地；PacketResponder 在本地写完且下游确认后
+     * 向上游回复 [long seqno][int 状态]。各副本同时写入，三副本的写入延迟接近单副本。
+     * 块在最后一个包写完后才提交到块存储，读请求不会看到写了一半的块。
+     * 返回整个流水线是否写入成功；失败时上游可能还在发送数据包，连接不能复用。
+     */
+    private boolean writeBlock(DataInputStream in, DataOutputStream out, OpMetrics opMetrics) {
+        Connection mirror = null;
+        PacketResponder responder = null;
+        Thread responderThread = null;
+        long seqno = -1;
+        try {
+            long blockId = in.readLong();
+            int targetCount = in.readInt();
+            List<String> targets = new ArrayList<>(targetCount);
+            for (int i = 0; i < targetCount; i++) {
+                targets.add(in.readUTF());
+            }
+            DataChecksum checksum = DataChecksum.readHeader(in);
+            Span.current().tag("blockId", blockId);
+
+            // 连接流水线中的下一个节点，把剩余的目标转交给它
+            if (!targets.isEmpty()) {
+                mirror = mirrorPool.borrow(targets.get(0));
+                DataOpCode.WRITE_BLOCK.write(mirror.getOut(), Span.current());
+                mirror.writeLong(blockId);
+                mirror.writeInt(targets.size() - 1);
+                for (String target : targets.subList(1, targets.size())) {
+                    mirror.writeUTF(target);
+                }
+                checksum.writeHeader(mirror.getOut());
+            }
+            responder = new PacketResponder(out, mirror == null ? null : mirror.getIn());
+            responderThread = new Thread(responder, "packet-responder-" + blockId);
+            responderThread.start();
+
+            byte[] buffer = new byte[Math.max(Config.PACKET_SIZE, checksum.getBytesPerChecksum())];
+            byte[] sums = new byte[checksum.checksumLength(buffer.length)];
+            long blockOffset = 0;
+            boolean lastPacket = false;
+            // 各阶段的累计耗时，记在追踪的 span 上：等待并接收数据、转发下游、校验、写盘
+            long receiveNanos = 0;
+            long mirrorNanos = 0;
+            long verifyNanos = 0;
+            long diskNanos = 0;
+            BlockStore.BlockWriter writer = blockStore.create(blockId, checksum);
             try {
-                out.writeInt(-1);
-                out.writeUTF(e.getMessage());
-            } catch (IOException ex) {
-                log.error("Failed to send error response: " + ex.getMessage());
+                while (!lastPacket) {
+                    long packetStart = System.nanoTime();
+                    seqno = in.readLong();
+                    int length = in.readInt();
+                    lastPacket = in.readBoolean();
+                    if (length < 0 || length > buffer.length || (!lastPacket && length % checksum.getBytesPerChecksum() != 0)) {
+                        throw new IOException("Invalid packet length " + length + " for block " + blockId);
+                    }
+                    int sumLength = checksum.checksumLength(length);
+                    in.readFully(sums, 0, sumLength);
+                    in.readFully(buffer, 0, length);
+                    opMetrics.addBytesIn(length);
+                    long received = System.nanoTime();
+                    receiveNanos += received - packetStart;
+
+                    if (mirror != null) {
+                        DataOutputStream mirrorOut = mirror.getOut();
+                        mirrorOut.writeLong(seqno);
+                        mirrorOut.writeInt(length);
+                        mirrorOut.writeBoolean(lastPacket);
+                        mirrorOut.write(sums, 0, sumLength);
+                        mirrorOut.write(buffer, 0, length);
+                        mirrorOut.flush();
+                    }
+                    long mirrored = System.nanoTime();
+                    mirrorNanos += mirrored - received;
+                    // 网络上损坏的数据不落盘，向上游回报失败
+                    checksum.verifyChunks(buffer, 0, length, sums, 0, blockOffset);
+                    long writeStart = System.nanoTime();
+                    verifyNanos += writeStart - mirrored;
+                    writer.write(buffer, 0, length, sums, 0, sumLength);
+                    long writeNanos = System.nanoTime() - writeStart;
+                    diskNanos += writeNanos;
+                    recordIoLatency(writeNanos);
+                    blockOffset += length;
+                    if (!lastPacket) {
+                        responder.enqueue(seqno, 0, false);
+                    }
+                }
+                try (Span commit = Span.current().child("commit")) {
+                    writer.commit();
+                }
+            } catch (IOException | RuntimeException e) {
+                writer.abort();
+                throw e;
+            } finally {
+                Span.current().tag("bytes", blockOffset).tag("targets", targets)
+                        .tag("receiveMicros", receiveNanos / 1000).tag("mirrorMicros", mirrorNanos / 1000)
+                        .tag("verifyMicros", verifyNanos / 1000).tag("diskMicros", diskNanos / 1000);
+            }
+            blockAdded(blockId);
+            responder.enqueue(seqno, 0, true);
+            log.debug("Block written successfully: " + BlockInfo.blockFileName(blockId) + " (" + blockOffset + " bytes)");
+        } catch (IOException e) {
+            log.error("Failed to write block: " + e.getMessage());
+            if (responder != null) {
+                responder.enqueue(seqno, -1, true);
+            } else {
+                try {
+                    out.writeLong(seqno);
+                    out.writeInt(-1);
+                    out.flush();
+                } catch (IOException ex) {
+                    log.error("Failed to send error response: " + ex.getMessage());
+                }
+            }
+        } finally {
+            if (responderThread != null) {
+                // 本地写完后等待下游确认最后一个包
+                try (Span waitAck = Span.current().child("waitAck")) {
+                    responderThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
         }
+        boolean succeeded = responder != null && responder.succeeded;
+        if (!succeeded) {
+            opMetrics.error();
+        }
+        if (mirror != null) {
+            // 下游确认了最后一个包，连接上的请求已经完整结束
+            if (succeeded) {
+                mirrorPool.release(mirror);
+            } else {
+                mirrorPool.invalidate(mirror);
+            }
+        }
+        return succeeded;
     }
 
-    private void readFile(DataInputStream in, DataOutputStream out) {
-        try {
-            String fileId = in.readUTF(); // 文件 ID
-            String path = Config.STORAGE_PATH + "/" + fileId; // 使用配置路径
-            File file = new File(path);
-
-            if (!file.exists()) {
-                out.writeInt(-1);
-                out.writeUTF("File not found: " + path);
-                return;
-            }
+    /**
+     * 流水线的确认线程：按包的顺序等待本地写完，再读取下游对同一个包的确认，合并状态后回复上游
+     */
+    private class PacketResponder implements Runnable {
+        private final BlockingQueue<long[]> pending = new LinkedBlockingQueue<>(); // {seqno, 状态, 是否最后一个}
+        private final DataOutputStream upstream;
+        private final DataInputStream downstream;
+        volatile boolean succeeded = false; // 是否已向上游确认最后一个包成功
+
+        PacketResponder(DataOutputStream upstream, DataInputStream downstream) {
+            this.upstream = upstream;
+            this.downstream = downstream;
+        }
 
-            FileInputStream fin = new FileInputStream(file);
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = fin.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
+        void enqueue(long seqno, int status, boolean last) {
+            pending.add(new long[]{seqno, status, last ? 1 : 0});
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long[] ack = pending.take();
+                    long seqno = ack[0];
+                    int status = (int) ack[1];
+                    if (status == 0 && downstream != null) {
+                        try {
+                            long downstreamSeqno = downstream.readLong();
+                            int downstreamStatus = downstream.readInt();
+                            if (downstreamSeqno != seqno) {
+                                log.error("Pipeline ack out of order: expected " + seqno + ", got " + downstreamSeqno);
+                                status = -1;
+                            } else {
+                                status = downstreamStatus;
+                            }
+                        } catch (IOException e) {
+                            log.error("Lost ack from downstream for packet " + seqno + ": " + e.getMessage());
+                            status = -1;
+                        }
+                    }
+                    upstream.writeLong(seqno);
+                    upstream.writeInt(status);
+                    upstream.flush();
+                    if (ack[2] == 1 || status != 0) {
+                        succeeded = ack[2] == 1 && status == 0;
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                log.error("Failed to send ack upstream: " + e.getMessage());
             }
-            fin.close();
+        }
+    }
 
-            out.writeInt(0); // 成功代码
-            out.flush();
+    /**
+     * 读取块的一段：请求为 [long blockId][long offset][long length]，越过块末尾的部分被截掉。
+     * 响应为 [int 0][long 实际长度][byte 校验类型][int bytesPerChecksum][int 首段内的跳过字节数]
+     * [long 发送长度][各段校验和][数据]：发送的数据按校验段对齐，覆盖请求范围涉及的所有段，
+     * 客户端逐段校验后丢弃范围以外的字节。没有保存校验和的旧块校验类型为 CHECKSUM_NULL。
+     * 状态头与校验和先经缓冲流发出，数据再由 FileChannel.transferTo 从页缓存直接送到 socket（sendfile），
+     * 不经过堆内缓冲区。返回 false 表示数据发送到一半失败，连接不能复用。
+     */
+    private boolean readBlock(DataInputStream in, DataOutputStream out, SocketChannel channel, OpMetrics opMetrics) {
+        boolean headerSent = false;
+        try {
+            long blockId = in.readLong();
+            long offset = in.readLong();
+            long length = in.readLong();
+            Span.current().tag("blockId", blockId).tag("offset", offset).tag("length", length);
+            try (BlockStore.StoredBlock block = blockStore.open(blockId)) {
+                if (block == null || offset < 0 || length < 0) {
+                    opMetrics.error();
+                    out.writeInt(-1);
+                    out.writeUTF(block != null ? "Invalid range: offset " + offset + ", length " + length : "Block not found: " + BlockInfo.blockFileName(blockId));
+                    out.flush();
+                    return true;
+                }
+                long blockLength = block.getLength();
+                long count = Math.max(0, Math.min(length, blockLength - offset));
+                DataChecksum checksum = block.getChecksum();
+                byte[] sums = new byte[0];
+                long start = offset;
+                long end = offset + count;
+                if (count > 0 && checksum.getType() != DataChecksum.CHECKSUM_NULL) {
+                    int bytesPerChecksum = checksum.getBytesPerChecksum();
+                    start = offset - offset % bytesPerChecksum;
+                    end = Math.min(blockLength, (end + bytesPerChecksum - 1) / bytesPerChecksum * bytesPerChecksum);
+                    sums = new byte[checksum.checksumLength(end - start)];
+                    block.readChecksums(start / bytesPerChecksum, sums, 0, sums.length);
+                }
+                out.writeInt(0); // 成功代码
+                out.writeLong(count);
+                checksum.writeHeader(out);
+                out.writeInt((int) (offset - start));
+                out.writeLong(end - start);
+                out.write(sums);
+                out.flush();
+                headerSent = true;
+                FileChannel file = block.getChannel();
+                long position = block.getDataOffset() + start;
+                long remaining = end - start;
+                try (Span transfer = Span.current().child("transfer").tag("bytes", remaining)) {
+                    while (remaining > 0) {
+                        long sent = file.transferTo(position, remaining, channel);
+                        if (sent <= 0 && position >= file.size()) {
+                            throw new EOFException("Block " + blockId + " shrank while reading");
+                        }
+                        position += sent;
+                        remaining -= sent;
+                        opMetrics.addBytesOut(sent);
+                    }
+                }
+            }
+            return true;
         } catch (IOException e) {
-            log.error("Failed to read file: " + e.getMessage());
+            log.error("Failed to read block: " + e.getMessage());
+            opMetrics.error();
+            if (headerSent) {
+                return false; // 状态头已经发出，无法再回报错误，关闭连接后客户端会改读其他副本
+            }
             try {
                 out.writeInt(-1); // 失败代码
                 out.writeUTF(e.getMessage());
                 out.flush();
+                return true;
             } catch (IOException ex) {
                 log.error("Failed to send error response: " + ex.getMessage());
-            }
-        }
-    }
-
-
-    private void notifyReplicas(String fileId, byte[] data) {
-        List<String> replicaNodes = metaClient.getReplicas(fileId); // 获取副本节点
-        for (String node : replicaNodes) {
-            try {
-                String[] parts = node.split(":");
-                String host = parts[0];
-                int port = Integer.parseInt(parts[1]);
-
-                Socket socket = new Socket(host, port);
-                DataOutputStream replicaOut = new DataOutputStream(socket.getOutputStream());
-
-                replicaOut.writeUTF(fileId);
-                replicaOut.write(data);
-                replicaOut.flush();
-                replicaOut.close();
-                socket.close();
-
-                System.out.println("Replica sent to " + node);
-            } catch (IOException e) {
-                log.error("Failed to send replica to " + node + ": " + e.getMessage());
+                return false;
             }
         }
     }
@@ -278,13 +742,21 @@ public class DataServer {
 
     public void shutdown() {
         isRunning = false;
+        replicationPool.shutdownNow();
+        mirrorPool.close();
+        metrics.unregisterMBeans();
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
             }
         } catch (IOException e) {
             log.error("Failed to close server socket: " + e.getMessage());
         }
+        try {
+            blockStore.close();
+        } catch (IOException e) {
+            log.error("Failed to close block store: " + e.getMessage());
+        }
     }
 
 
@@ -295,12 +767,7 @@ public class DataServer {
             // 初始化 DataServer
             dataServer = new DataServer();
 
-            // 启动心跳线程
-            Thread heartBeatThread = new Thread(dataServer.heartBeat);
-            heartBeatThread.start();
-            System.out.println("HeartBeat thread started for node: " + dataServer.nodeName);
-
-            // 启动数据服务器服务
+            // 启动数据服务器服务，心跳线程随服务一起启动
             dataServer.serve();
         } catch (Exception e) {
             System.err.println("DataServer failed to start: " + e.getMessage());
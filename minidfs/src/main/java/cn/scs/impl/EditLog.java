@@ -0,0 +1,348 @@
+package cn.scs.impl;
+
+import cn.scs.common.Span;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 元数据服务器的预写编辑日志（只追加）。
+ *
+ * 修改命名空间的线程在持有命名空间锁时调用 logEdit 把记录写入内存缓冲区，
+ * 释放锁之后、向客户端确认之前调用 logSync。同一时刻只有一个线程执行 fsync：
+ * 它交换双缓冲区，把期间积累的所有记录一次写盘并 force，其余线程等待或直接返回，
+ * 因此并发修改的落盘代价约为每批一次 fsync，而不是每个操作一次（group commit）。
+ *
+ * 日志按段存放在 edits_<起始事务号> 文件中，检查点完成后旧的段即可删除。
+ * 记录格式：[long txid][byte op][int 长度][内容][int CRC32]，回放时遇到残缺的尾部记录即停止。
+ */
+public class EditLog implements Closeable {
+    private static Logger log = LogManager.getLogger(EditLog.class);
+
+    private static final String SEGMENT_PREFIX = "edits_";
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    // 记录内容的写入逻辑
+    public interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // 回放时对每条记录的处理逻辑
+    public interface RecordHandler {
+        void apply(long txid, EditOpCode op, DataInputStream in) throws IOException;
+    }
+
+    private final File dir;
+    private FileOutputStream stream;
+    private FileChannel channel;
+    private long segmentStartTxId;
+
+    private long lastTxId;   // 最后分配的事务号
+    private long syncedTxId; // 已经落盘的事务号
+    private boolean isSyncRunning;
+    private IOException syncFailure;
+
+    // 双缓冲：bufCurrent 接收新记录，bufReady 由执行 fsync 的线程写盘
+    private EditBuffer bufCurrent = new EditBuffer();
+    private EditBuffer bufReady = new EditBuffer();
+    private final EditBuffer scratch = new EditBuffer();
+    private final CRC32 crc = new CRC32();
+
+    // 当前线程最后写入的事务号，logSync 只需保证它已经落盘
+    private final ThreadLocal<Long> myTxId = new ThreadLocal<Long>() {
+        @Override
+        protected Long initialValue() {
+            return 0L;
+        }
+    };
+
+    private long numSyncs;
+    private long numTxnsSynced;
+
+    public EditLog(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create edit log directory: " + dir);
+        }
+    }
+
+    /**
+     * 从 startTxId 开始写一个新的日志段
+     */
+    public synchronized void openForWrite(long startTxId) throws IOException {
+        File file = new File(dir, SEGMENT_PREFIX + startTxId);
+        stream = new FileOutputStream(file, false);
+        channel = stream.getChannel();
+        segmentStartTxId = startTxId;
+        lastTxId = startTxId - 1;
+        syncedTxId = lastTxId;
+        log.info("Opened edit log segment " + file);
+    }
+
+    /**
+     * 写入一条记录到内存缓冲区，返回分配的事务号。调用方随后需调用 logSync。
+     */
+    public synchronized long logEdit(EditOpCode op, RecordWriter writer) throws IOException {
+        if (channel == null) {
+            throw new IOException("Edit log is not open for write");
+        }
+        scratch.reset();
+        writer.write(scratch.out);
+
+        long txid = ++lastTxId;
+        int start = bufCurrent.size();
+        bufCurrent.out.writeLong(txid);
+        op.write(bufCurrent.out);
+        bufCurrent.out.writeInt(scratch.size());
+        bufCurrent.out.write(scratch.buffer(), 0, scratch.size());
+        crc.reset();
+        crc.update(bufCurrent.buffer(), start, bufCurrent.size() - start);
+        bufCurrent.out.writeInt((int) crc.getValue());
+
+        myTxId.set(txid);
+        return txid;
+    }
+
+    /**
+     * 保证当前线程写入的记录已经落盘
+     */
+    public void logSync() throws IOException {
+        logSync(myTxId.get());
+    }
+
+    public void logSync(long txid) throws IOException {
+        try (Span span = Span.current().child("logSync").activate()) {
+            logSync(txid, span);
+        }
+    }
+
+    // 追踪中记录本次是否由自己执行 fsync，以及一次落盘的记录数
+    private void logSync(long txid, Span span) throws IOException {
+        EditBuffer toSync;
+        long syncStart;
+        synchronized (this) {
+            while (txid > syncedTxId && isSyncRunning) {
+                try {
+                    wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for edit log sync", e);
+                }
+            }
+            if (syncFailure != null) {
+                throw new IOException("Edit log is unusable after a failed sync", syncFailure);
+            }
+            if (txid <= syncedTxId) {
+                span.tag("synced", "byOther");
+                return; // 其他线程的 fsync 已经覆盖了这条记录
+            }
+            // 成为本批次的同步线程：交换缓冲区，把此前积累的记录一次写盘
+            isSyncRunning = true;
+            syncStart = lastTxId;
+            toSync = bufCurrent;
+            bufCurrent = bufReady;
+            bufReady = toSync;
+            span.tag("synced", "self").tag("txns", syncStart - syncedTxId);
+        }
+
+        IOException failure = null;
+        try {
+            toSync.writeTo(channel);
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("Failed to sync edit log: " + e.getMessage(), e);
+            failure = e;
+        }
+
+        synchronized (this) {
+            if (failure == null) {
+                numTxnsSynced += syncStart - syncedTxId;
+                numSyncs++;
+                syncedTxId = syncStart;
+            } else {
+                syncFailure = failure;
+            }
+            toSync.reset();
+            isSyncRunning = false;
+            notifyAll();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 结束当前日志段并开始新的日志段，返回旧段中最后一个事务号。
+     * 调用方需保证期间没有并发的 logEdit（检查点线程通过 lockNamespace 持有命名空间写锁）。
+     */
+    public synchronized long rollEditLog() throws IOException {
+        while (isSyncRunning) {
+            try {
+                wait(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while rolling edit log", e);
+            }
+        }
+        long endTxId = lastTxId;
+        bufCurrent.writeTo(channel);
+        bufCurrent.reset();
+        channel.force(false);
+        syncedTxId = endTxId;
+        notifyAll();
+        stream.close();
+        openForWrite(endTxId + 1);
+        return endTxId;
+    }
+
+    /**
+     * 删除起始事务号小于 minTxIdToKeep 的旧日志段（已被检查点覆盖）
+     */
+    public synchronized void purgeLogsOlderThan(long minTxIdToKeep) {
+        for (long start : listSegments()) {
+            if (start < minTxIdToKeep && start != segmentStartTxId) {
+                File file = new File(dir, SEGMENT_PREFIX + start);
+                if (!file.delete()) {
+                    log.warn("Failed to delete old edit log segment " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按事务号顺序回放所有 txid 大于 afterTxId 的记录，返回回放到的最后一个事务号
+     */
+    public long replay(long afterTxId, RecordHandler handler) throws IOException {
+        long lastApplied = afterTxId;
+        for (long start : listSegments()) {
+            File file = new File(dir, SEGMENT_PREFIX + start);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    long txid;
+                    try {
+                        txid = in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    byte op;
+                    byte[] body;
+                    int checksum;
+                    try {
+                        op = in.readByte();
+                        int length = in.readInt();
+                        if (length < 0 || length > MAX_RECORD_LENGTH) {
+                            log.warn("Corrupt record length " + length + " in " + file + ", ignoring rest of segment");
+                            break;
+                        }
+                        body = new byte[length];
+                        in.readFully(body);
+                        checksum = in.readInt();
+                    } catch (EOFException e) {
+                        log.warn("Truncated record at txid " + txid + " in " + file + ", ignoring rest of segment");
+                        break;
+                    }
+                    ByteBuffer header = ByteBuffer.allocate(13).putLong(txid).put(op).putInt(body.length);
+                    crc.reset();
+                    crc.update(header.array(), 0, 13);
+                    crc.update(body, 0, body.length);
+                    if ((int) crc.getValue() != checksum) {
+                        log.warn("Checksum mismatch at txid " + txid + " in " + file + ", ignoring rest of segment");
+                        break;
+                    }
+                    if (txid <= lastApplied) {
+                        continue; // 已包含在检查点中
+                    }
+                    EditOpCode opCode = EditOpCode.valueOf(op);
+                    if (opCode == null) {
+                        throw new IOException("Unknown edit op " + op + " at txid " + txid + " in " + file);
+                    }
+                    handler.apply(txid, opCode, new DataInputStream(new ByteArrayInputStream(body)));
+                    lastApplied = txid;
+                }
+            }
+        }
+        return lastApplied;
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length())));
+                    } catch (NumberFormatException e) {
+                        log.warn("Ignoring unexpected file in edit log directory: " + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    public synchronized long getLastTxId() {
+        return lastTxId;
+    }
+
+    public synchronized long getNumSyncs() {
+        return numSyncs;
+    }
+
+    public synchronized long getNumTxnsSynced() {
+        return numTxnsSynced;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            bufCurrent.writeTo(channel);
+            bufCurrent.reset();
+            channel.force(false);
+            syncedTxId = lastTxId;
+            stream.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * 可直接访问内部数组的缓冲区
+     */
+    private static class EditBuffer extends ByteArrayOutputStream {
+        final DataOutputStream out = new DataOutputStream(this);
+
+        EditBuffer() {
+            super(64 * 1024);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void writeTo(FileChannel channel) throws IOException {
+            ByteBuffer data = ByteBuffer.wrap(buf, 0, count);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+}
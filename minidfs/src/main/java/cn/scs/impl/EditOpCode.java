@@ -0,0 +1,37 @@
+package cn.scs.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 编辑日志中记录的命名空间修改操作
+ */
+public enum EditOpCode {
+    CREATE((byte)1),
+    UPDATE((byte)2),
+    DELETE((byte)3),
+    RENAME((byte)4),
+    REGISTER_NODE((byte)5);
+
+    public final byte code;
+
+    private EditOpCode(byte code) {
+        this.code = code;
+    }
+
+    private static final int FIRST_CODE = values()[0].code;
+
+    static EditOpCode valueOf(byte code) {
+        final int i = (code & 0xff) - FIRST_CODE;
+        return i < 0 || i >= values().length? null: values()[i];
+    }
+
+    public static EditOpCode read(DataInput in) throws IOException {
+        return valueOf(in.readByte());
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(code);
+    }
+}
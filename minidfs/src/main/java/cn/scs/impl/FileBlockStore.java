@@ -0,0 +1,235 @@
+package cn.scs.impl;
+
+import cn.scs.common.BlockInfo;
+import cn.scs.common.Config;
+import cn.scs.common.DataChecksum;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个块一个文件的块存储：数据在 blk_<id>，分段校验和在旁边的 blk_<id>.meta。
+ * 块先写入 .tmp 文件，提交时先改名校验和文件再改名块文件，块文件出现时其校验和一定已经就绪。
+ * .meta 文件格式：[short 版本][byte 校验类型][int bytesPerChecksum][各段校验和]；没有 .meta 的旧块按 CHECKSUM_NULL 读取。
+ */
+public class FileBlockStore implements BlockStore {
+    private static Logger log = LogManager.getLogger(FileBlockStore.class);
+
+    private static final short META_VERSION = 1;
+    private static final int META_HEADER_SIZE = 2 + DataChecksum.HEADER_SIZE;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File dir;
+    private final AtomicLong used = new AtomicLong();
+
+    public FileBlockStore(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create storage directory: " + dir);
+        }
+        File[] files = dir.listFiles((d, name) -> name.startsWith("blk_"));
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(TMP_SUFFIX)) {
+                    // 上次退出时没有写完的块
+                    if (!file.delete()) {
+                        log.warn("Failed to delete stale temporary file " + file);
+                    }
+                } else {
+                    used.addAndGet(file.length());
+                }
+            }
+        }
+    }
+
+    private class FileStoredBlock implements StoredBlock {
+        private final FileChannel channel;
+        private final RandomAccessFile meta;
+        private final DataChecksum checksum;
+
+        FileStoredBlock(FileChannel channel, RandomAccessFile meta, DataChecksum checksum) {
+            this.channel = channel;
+            this.meta = meta;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public long getDataOffset() {
+            return 0;
+        }
+
+        @Override
+        public long getLength() {
+            try {
+                return channel.size();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public DataChecksum getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public void readChecksums(long chunkIndex, byte[] dst, int off, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            meta.seek(META_HEADER_SIZE + chunkIndex * DataChecksum.CHECKSUM_SIZE);
+            meta.readFully(dst, off, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                if (meta != null) {
+                    meta.close();
+                }
+            }
+        }
+    }
+
+    private class FileBlockWriter implements BlockWriter {
+        private final File blockFile;
+        private final File metaFile;
+        private final File tmpFile;
+        private final File tmpMetaFile;
+        private final FileOutputStream out;
+        private final DataOutputStream metaOut;
+
+        FileBlockWriter(long blockId, DataChecksum checksum) throws IOException {
+            blockFile = new File(dir, BlockInfo.blockFileName(blockId));
+            metaFile = new File(dir, BlockInfo.metaFileName(blockId));
+            tmpFile = new File(dir, blockFile.getName() + TMP_SUFFIX);
+            tmpMetaFile = new File(dir, metaFile.getName() + TMP_SUFFIX);
+            out = new FileOutputStream(tmpFile);
+            try {
+                metaOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpMetaFile)));
+                metaOut.writeShort(META_VERSION);
+                checksum.writeHeader(metaOut);
+            } catch (IOException e) {
+                out.close();
+                tmpFile.delete();
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len, byte[] sums, int sumOff, int sumLen) throws IOException {
+            out.write(data, off, len);
+            metaOut.write(sums, sumOff, sumLen);
+        }
+
+        @Override
+        public void commit() throws IOException {
+            out.close();
+            metaOut.close();
+            if (!tmpMetaFile.renameTo(metaFile) || !tmpFile.renameTo(blockFile)) {
+                throw new IOException("Failed to finalize block file: " + blockFile);
+            }
+            used.addAndGet(blockFile.length() + metaFile.length());
+        }
+
+        @Override
+        public void abort() {
+            try {
+                out.close();
+                metaOut.close();
+            } catch (IOException e) {
+                log.warn("Failed to close temporary block file: " + e.getMessage());
+            }
+            tmpFile.delete();
+            tmpMetaFile.delete();
+        }
+    }
+
+    @Override
+    public StoredBlock open(long blockId) throws IOException {
+        File blockFile = new File(dir, BlockInfo.blockFileName(blockId));
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(blockFile.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        RandomAccessFile meta = null;
+        try {
+            DataChecksum checksum = DataChecksum.newInstance(DataChecksum.CHECKSUM_NULL, Config.BYTES_PER_CHECKSUM);
+            File metaFile = new File(dir, BlockInfo.metaFileName(blockId));
+            if (metaFile.exists()) {
+                meta = new RandomAccessFile(metaFile, "r");
+                meta.readShort();
+                checksum = DataChecksum.readHeader(meta);
+            }
+            return new FileStoredBlock(channel, meta, checksum);
+        } catch (IOException e) {
+            channel.close();
+            if (meta != null) {
+                meta.close();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public BlockWriter create(long blockId, DataChecksum checksum) throws IOException {
+        return new FileBlockWriter(blockId, checksum);
+    }
+
+    @Override
+    public boolean delete(long blockId) {
+        File blockFile = new File(dir, BlockInfo.blockFileName(blockId));
+        File metaFile = new File(dir, BlockInfo.metaFileName(blockId));
+        boolean existed = false;
+        for (File file : new File[]{blockFile, metaFile}) {
+            long length = file.length();
+            if (file.delete()) {
+                used.addAndGet(-length);
+                existed = true;
+            }
+        }
+        return existed;
+    }
+
+    @Override
+    public List<Long> listBlocks() {
+        List<Long> blockIds = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.matches("blk_\\d+"));
+        if (files != null) {
+            for (File file : files) {
+                blockIds.add(Long.parseLong(file.getName().substring("blk_".length())));
+            }
+        }
+        return blockIds;
+    }
+
+    @Override
+    public long getUsed() {
+        return used.get();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,209 @@
+package cn.scs.impl;
+
+import cn.scs.common.BlockCommand;
+import cn.scs.common.Config;
+import cn.scs.common.MetaOpCode;
+import cn.scs.common.StorageReport;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 数据服务器的心跳通道。使用独立的端口和接收线程，每个数据服务器一条长连接、一个处理线程，
+ * 心跳和块汇报不会排在客户端的元数据请求之后，客户端请求突增时节点也不会被误判为失联。
+ *
+ * 请求为 [HEART_BEAT][节点名][int 数据端口][StorageReport][boolean 是否全量][int n][新增的块...][int m][删除的块...]，
+ * 响应为 [int 0][ack][int k][k 个 BlockCommand]。连接建立后的第一次汇报是全量的，
+ * 之后只汇报上次心跳以来新增和删除的块。要下发给某个节点的命令先排队，随它下一次心跳的响应带回。
+ */
+class HeartbeatManager {
+    private static Logger log = LogManager.getLogger(HeartbeatManager.class);
+
+    private static final int MAX_COMMANDS_PER_HEARTBEAT = 1000;
+
+    private final MetadataServer server;
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+    // 节点位置 host:port -> 该节点汇报持有的块
+    private final Map<String, Set<Long>> nodeBlocks = new ConcurrentHashMap<>();
+    // 节点位置 host:port -> 等待下发的命令
+    private final Map<String, Queue<BlockCommand>> pendingCommands = new ConcurrentHashMap<>();
+
+    HeartbeatManager(MetadataServer server) {
+        this.server = server;
+    }
+
+    void start(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "heartbeat-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Heartbeat service started on port " + port);
+    }
+
+    void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            log.error("Failed to close heartbeat socket: " + e.getMessage());
+        }
+    }
+
+    // 排队一条命令，在 location 节点下一次心跳时下发
+    void queueCommand(String location, BlockCommand command) {
+        pendingCommands.computeIfAbsent(location, k -> new ConcurrentLinkedQueue<>()).add(command);
+    }
+
+    // 通知持有该块的节点删除它：包括 locations 以及汇报过持有它的节点
+    void invalidateBlock(long blockId, Collection<String> locations) {
+        Set<String> holders = new HashSet<>(locations);
+        for (Map.Entry<String, Set<Long>> entry : nodeBlocks.entrySet()) {
+            if (entry.getValue().contains(blockId)) {
+                holders.add(entry.getKey());
+            }
+        }
+        for (String location : holders) {
+            queueCommand(location, BlockCommand.delete(blockId));
+        }
+    }
+
+    // location 节点最近汇报持有的块
+    Set<Long> getReportedBlocks(String location) {
+        Set<Long> blocks = nodeBlocks.get(location);
+        return blocks == null ? Collections.<Long>emptySet() : Collections.unmodifiableSet(blocks);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread handler = new Thread(() -> handleConnection(socket), "heartbeat-" + socket.getRemoteSocketAddress());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.error("Error accepting heartbeat connection: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    // 一个数据服务器的长连接：依次处理它的心跳，超过失联时限没有心跳则断开
+    private void handleConnection(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(Math.max(Config.TIMEOUT_OF_HEARTBEATS, Config.HEARTBEAT_SECS * 3) * 1000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (running) {
+                MetaOpCode op;
+                try {
+                    op = MetaOpCode.read(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (op != MetaOpCode.HEART_BEAT) {
+                    log.warn("Unexpected op " + op + " on heartbeat channel from " + socket.getRemoteSocketAddress());
+                    break;
+                }
+                handleHeartbeat(in, out);
+            }
+        } catch (SocketTimeoutException e) {
+            log.warn("Heartbeat channel idle, closing: " + socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            log.error("Error on heartbeat channel " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.error("Failed to close heartbeat connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleHeartbeat(DataInputStream in, DataOutputStream out) throws IOException {
+        String nodeName = in.readUTF();
+        int dataPort = in.readInt();
+        StorageReport report = StorageReport.read(in);
+        boolean fullReport = in.readBoolean();
+        List<Long> added = readBlockIds(in);
+        List<Long> deleted = readBlockIds(in);
+
+        String ack;
+        try {
+            ack = server.registerHeartBeat(nodeName, dataPort, report);
+        } catch (IOException e) {
+            out.writeInt(-1);
+            out.writeUTF(e.getMessage());
+            out.flush();
+            return;
+        }
+        String location = server.getStorageNodeLocation(nodeName);
+        Set<Long> blocks = nodeBlocks.computeIfAbsent(location, k -> ConcurrentHashMap.newKeySet());
+        if (fullReport) {
+            blocks.clear();
+        }
+        blocks.addAll(added);
+        blocks.removeAll(deleted);
+
+        List<BlockCommand> commands = new ArrayList<>();
+        Queue<BlockCommand> queue = pendingCommands.get(location);
+        while (queue != null && commands.size() < MAX_COMMANDS_PER_HEARTBEAT) {
+            BlockCommand command = queue.poll();
+            if (command == null) {
+                break;
+            }
+            commands.add(command);
+        }
+        try {
+            out.writeInt(0);
+            out.writeUTF(ack);
+            out.writeInt(commands.size());
+            for (BlockCommand command : commands) {
+                command.write(out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // 没有送达的命令留到下次心跳
+            for (BlockCommand command : commands) {
+                queueCommand(location, command);
+            }
+            throw e;
+        }
+        if (!commands.isEmpty()) {
+            log.info("Sent " + commands.size() + " block commands to " + location);
+        }
+    }
+
+    private static List<Long> readBlockIds(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<Long> ids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ids.add(in.readLong());
+        }
+        return ids;
+    }
+}
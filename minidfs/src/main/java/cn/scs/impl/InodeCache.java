@@ -0,0 +1,126 @@
+package cn.scs.impl;
+
+import cn.scs.common.FileInfo;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RocksDBNamespaceStore 的路径到 inode 缓存，容量有上限，按近似 LRU 淘汰。
+ * 读取只是一次 ConcurrentHashMap 查找并标记“最近访问”，不加锁也不调整链表；
+ * 超出容量时由一个线程做一轮二次机会（CLOCK）扫描：访问过的条目清除标记留下，未访问的淘汰，
+ * 直到降到容量的 EVICT_TO 比例。其他线程不等待淘汰，容量在淘汰期间可能短暂超出。
+ *
+ * 未命中时读者不加路径锁地从 RocksDB 读取再填入缓存，可能读到删除或重命名之前的旧值，
+ * 填入又晚于修改者的失效，旧路径就会一直留在缓存中。因此每次失效都先递增代数 generation：
+ * 读者在读取前记下代数，用 fill 填入后再检查一次，代数变了就撤回自己填入的条目。
+ * 修改者须在数据写入 RocksDB 之后再失效。
+ */
+class InodeCache {
+
+    private static final double EVICT_TO = 0.9;
+
+    private static final class Node {
+        final FileInfo fileInfo;
+        volatile boolean referenced;
+
+        Node(FileInfo fileInfo) {
+            this.fileInfo = fileInfo;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private final AtomicLong generation = new AtomicLong();
+
+    InodeCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    FileInfo get(String path) {
+        Node node = nodes.get(path);
+        if (node == null) {
+            return null;
+        }
+        if (!node.referenced) {
+            node.referenced = true; // 已标记时不再写，避免热点条目的缓存行来回失效
+        }
+        return node.fileInfo;
+    }
+
+    void put(String path, FileInfo fileInfo) {
+        nodes.put(path, new Node(fileInfo));
+        evictIfNeeded();
+    }
+
+    // 当前代数，读者在从 RocksDB 读取之前取得，再传给 fill
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 读者填入从 RocksDB 读到的 inode：路径不在缓存中时放入，返回缓存中的对象（已有的或刚放入的）。
+     * 自 generation 取得以来发生过失效时撤回刚放入的条目，读到的值仍返回给调用方
+     */
+    FileInfo fill(String path, FileInfo fileInfo, long generation) {
+        Node node = new Node(fileInfo);
+        Node existing = nodes.putIfAbsent(path, node);
+        if (existing != null) {
+            return existing.fileInfo;
+        }
+        if (this.generation.get() != generation) {
+            nodes.remove(path, node);
+            return fileInfo;
+        }
+        evictIfNeeded();
+        return fileInfo;
+    }
+
+    void remove(String path) {
+        generation.incrementAndGet();
+        nodes.remove(path);
+    }
+
+    // 删除以 prefix 开头的所有路径
+    void removePrefix(String prefix) {
+        generation.incrementAndGet();
+        nodes.keySet().removeIf(path -> path.startsWith(prefix));
+    }
+
+    void clear() {
+        generation.incrementAndGet();
+        nodes.clear();
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    private void evictIfNeeded() {
+        if (nodes.size() <= capacity || !evictLock.tryLock()) {
+            return;
+        }
+        try {
+            int target = (int) (capacity * EVICT_TO);
+            // 第一轮清除标记并淘汰未访问的条目，仍然超出时第二轮所有条目都已无标记
+            for (int round = 0; round < 2 && nodes.size() > target; round++) {
+                Iterator<Map.Entry<String, Node>> it = nodes.entrySet().iterator();
+                while (it.hasNext() && nodes.size() > target) {
+                    Map.Entry<String, Node> entry = it.next();
+                    Node node = entry.getValue();
+                    if (node.referenced) {
+                        node.referenced = false;
+                    } else {
+                        nodes.remove(entry.getKey(), node);
+                    }
+                }
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+}
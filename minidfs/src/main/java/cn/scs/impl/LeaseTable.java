@@ -0,0 +1,88 @@
+package cn.scs.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端元数据缓存的租约表：记录哪些会话在什么时间之前缓存了某个路径的 FileInfo。
+ * 路径被修改时取出仍然有效的租约持有者，由调用方向它们推送失效通知；过期的租约不再通知，
+ * 客户端到期后也会自行丢弃缓存。
+ *
+ * 同一路径的登记与撤销都在 ConcurrentHashMap 的 compute/remove 中完成，互相串行：
+ * 先登记租约再读取命名空间，因此读到旧值的请求一定会收到随后修改的失效通知。
+ */
+class LeaseTable<H> {
+
+    private static final int PURGE_INTERVAL = 4096;
+
+    private final ConcurrentHashMap<String, Map<H, Long>> leases = new ConcurrentHashMap<>();
+    private final AtomicInteger grantsSincePurge = new AtomicInteger();
+
+    /**
+     * 登记 holder 对 path 的租约，返回租约时长
+     */
+    long grant(String path, H holder, long durationMs) {
+        final long expiry = System.currentTimeMillis() + durationMs;
+        leases.compute(path, (p, holders) -> {
+            if (holders == null) {
+                holders = new HashMap<>();
+            }
+            holders.put(holder, expiry);
+            return holders;
+        });
+        if (grantsSincePurge.incrementAndGet() >= PURGE_INTERVAL) {
+            grantsSincePurge.set(0);
+            purgeExpired();
+        }
+        return durationMs;
+    }
+
+    /**
+     * 撤销 path（subtree 为 true 时连同其子树）上的租约，返回各个仍持有有效租约的会话及其需要失效的路径
+     */
+    Map<H, List<String>> revoke(String path, boolean subtree) {
+        Map<H, List<String>> notify = new HashMap<>();
+        long now = System.currentTimeMillis();
+        revokePath(path, now, notify);
+        if (subtree) {
+            String prefix = "/".equals(path) ? "/" : path + "/";
+            for (String leased : leases.keySet()) {
+                if (leased.startsWith(prefix)) {
+                    revokePath(leased, now, notify);
+                }
+            }
+        }
+        return notify;
+    }
+
+    private void revokePath(String path, long now, Map<H, List<String>> notify) {
+        Map<H, Long> holders = leases.remove(path);
+        if (holders == null) {
+            return;
+        }
+        for (Map.Entry<H, Long> entry : holders.entrySet()) {
+            if (entry.getValue() > now) {
+                notify.computeIfAbsent(entry.getKey(), h -> new ArrayList<>()).add(path);
+            }
+        }
+    }
+
+    // 清理过期的租约，包括已断开会话留下的租约
+    void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (String path : leases.keySet()) {
+            leases.computeIfPresent(path, (p, holders) -> {
+                holders.values().removeIf(expiry -> expiry <= now);
+                return holders.isEmpty() ? null : holders;
+            });
+        }
+    }
+
+    int size() {
+        return leases.size();
+    }
+}
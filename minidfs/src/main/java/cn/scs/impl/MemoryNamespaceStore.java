@@ -0,0 +1,162 @@
+package cn.scs.impl;
+
+import cn.scs.common.BlockInfo;
+import cn.scs.common.FileInfo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 纯内存的命名空间：路径到 FileInfo 的映射加上 FileInfo 之间的父子指针，重启后丢失。
+ * 映射与子节点列表都是并发容器，查询无需加锁；修改由 MetadataServer 的路径锁串行化。
+ */
+public class MemoryNamespaceStore implements NamespaceStore {
+
+    private final Map<String, FileInfo> fileSystem = new ConcurrentHashMap<>(); // 文件路径到文件信息的映射
+
+    public MemoryNamespaceStore() {
+        // 初始化根目录
+        fileSystem.put("/", new FileInfo(null, "/", true, 0L, "root", 0L));
+    }
+
+    @Override
+    public FileInfo get(String path) {
+        return fileSystem.get(path);
+    }
+
+    @Override
+    public FileInfo create(FileInfo parent, String path, String owner, boolean isDirectory) {
+        FileInfo fileInfo = new FileInfo(path, owner, isDirectory, parent);
+        fileSystem.put(path, fileInfo);
+        return fileInfo;
+    }
+
+    @Override
+    public void update(FileInfo fileInfo) {
+        // FileInfo 对象本身就是存储，无需额外操作
+    }
+
+    @Override
+    public void delete(FileInfo fileInfo) {
+        removeSubtree(fileInfo);
+        if (fileInfo.getParent() != null) {
+            fileInfo.getParent().removeChild(fileInfo);
+        }
+    }
+
+    @Override
+    public void rename(FileInfo fileInfo, FileInfo newParent, String newPath) {
+        fileInfo.getParent().removeChild(fileInfo);
+        removeSubtree(fileInfo);
+        fileInfo.setParent(newParent);
+        fileInfo.setFileName(newPath.substring(newPath.lastIndexOf('/') + 1));
+        newParent.addChild(fileInfo);
+        relocateSubtree(fileInfo, newPath);
+    }
+
+    @Override
+    public List<FileInfo> list(FileInfo directory) {
+        return new ArrayList<>(directory.getChildren());
+    }
+
+    @Override
+    public List<FileInfo> list(FileInfo directory, String startAfter, int limit) {
+        return directory.listChildren(startAfter, limit);
+    }
+
+    /**
+     * 镜像按先序遍历写出（父目录总在子项之前），根目录固定存在不写入
+     */
+    @Override
+    public void saveImage(DataOutputStream out) throws IOException {
+        for (FileInfo child : fileSystem.get("/").getChildren()) {
+            saveSubtree(child, out);
+        }
+        out.writeBoolean(false);
+    }
+
+    private void saveSubtree(FileInfo fileInfo, DataOutputStream out) throws IOException {
+        out.writeBoolean(true);
+        out.writeUTF(fileInfo.getPath());
+        out.writeBoolean(fileInfo.isDirectory());
+        out.writeLong(fileInfo.getFileSize());
+        out.writeLong(fileInfo.getCreationTime());
+        out.writeUTF(fileInfo.getOwner());
+        out.writeUTF(fileInfo.getGroup() == null ? "" : fileInfo.getGroup());
+        out.writeUTF(fileInfo.getFileId());
+        out.writeInt(fileInfo.getLocations().size());
+        for (String location : fileInfo.getLocations()) {
+            out.writeUTF(location);
+        }
+        out.writeLong(fileInfo.getBlockSize());
+        BlockInfo.writeList(out, fileInfo.getBlocks());
+        for (FileInfo child : fileInfo.getChildren()) {
+            saveSubtree(child, out);
+        }
+    }
+
+    @Override
+    public void loadImage(DataInputStream in) throws IOException {
+        while (in.readBoolean()) {
+            String path = in.readUTF();
+            boolean isDirectory = in.readBoolean();
+            long fileSize = in.readLong();
+            long creationTime = in.readLong();
+            String owner = in.readUTF();
+            String group = in.readUTF();
+            String fileId = in.readUTF();
+            int count = in.readInt();
+            List<String> locations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                locations.add(in.readUTF());
+            }
+            long blockSize = in.readLong();
+            List<BlockInfo> blocks = BlockInfo.readList(in);
+            int lastSeparatorIndex = path.lastIndexOf('/');
+            FileInfo parent = fileSystem.get(lastSeparatorIndex <= 0 ? "/" : path.substring(0, lastSeparatorIndex));
+            if (parent == null) {
+                throw new IOException("Corrupt namespace image: parent of " + path + " is missing");
+            }
+            FileInfo fileInfo = create(parent, path, owner, isDirectory);
+            fileInfo.setFileSize(fileSize);
+            fileInfo.setCreationTime(creationTime);
+            fileInfo.setGroup(group.isEmpty() ? null : group);
+            fileInfo.setFileId(fileId);
+            fileInfo.setLocations(locations);
+            fileInfo.setBlockSize(blockSize);
+            fileInfo.setBlocks(blocks);
+        }
+    }
+
+    @Override
+    public void clear() {
+        FileInfo root = fileSystem.get("/");
+        root.clearChildren();
+        fileSystem.clear();
+        fileSystem.put("/", root);
+    }
+
+    private void removeSubtree(FileInfo fileInfo) {
+        for (FileInfo child : fileInfo.getChildren()) {
+            removeSubtree(child);
+        }
+        fileSystem.remove(fileInfo.getPath());
+    }
+
+    private void relocateSubtree(FileInfo fileInfo, String path) {
+        fileInfo.setPath(path);
+        fileSystem.put(path, fileInfo);
+        for (FileInfo child : fileInfo.getChildren()) {
+            relocateSubtree(child, path + "/" + child.getFileName());
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -1,36 +1,80 @@
 package cn.scs.impl;
 
 
+import cn.scs.common.BlockInfo;
 import cn.scs.common.Config;
+import cn.scs.common.DirectoryListing;
 import cn.scs.common.FileInfo;
+import cn.scs.common.FileInfoCodec;
+import cn.scs.common.MetaFrame;
 import cn.scs.common.MetaOpCode;
+import cn.scs.common.ServerStats;
+import cn.scs.common.Span;
+import cn.scs.common.StorageReport;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.layered.TFramedTransport;
+
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class MetadataServer {
     private static Logger log = LogManager.getLogger(MetadataServer.class);
+    private static final String TRACE_SERVICE = "metadata"; // 追踪中元数据服务器的服务名
     private ServerSocket serverSocket;
     private Map<String, String> fileToStorageNode; // 文件路径到存储节点名称的映射
-    private LinkedHashMap<String,StorageNode> storageNodes = new LinkedHashMap();
-    private LinkedHashMap<String,Long> storageNodesUpTime = new LinkedHashMap();
+    private Map<String,StorageNode> storageNodes = new ConcurrentHashMap<>();
+    private Map<String,Long> storageNodesUpTime = new ConcurrentHashMap<>();
     private Map<String, String> fileOwners;
-    private Map<String, FileInfo> fileSystem; // 文件元数据，文件路径到文件信息的映射
+    private NamespaceStore namespace; // 文件元数据，按路径查找文件信息
+    private EditLog editLog; // 命名空间修改的预写日志
+    private static final String IMAGE_FILE = "fsimage";
+    private static final int IMAGE_MAGIC = 0x4D444653; // "MDFS"
+    private static final long CHECKPOINT_CHECK_MS = 5000L;
+    private volatile long lastCheckpointTxId;
+    private volatile long lastCheckpointTime = System.currentTimeMillis();
+    private final AtomicLong nextBlockId = new AtomicLong(1); // 下一个分配的块编号
+    // 路径锁：修改只锁住涉及的路径，查询不加锁（Thrift 工作线程与会话处理线程共用）
+    private final PathLockManager pathLocks = new PathLockManager(Config.META_LOCK_STRIPES);
+    // 客户端缓存 FileInfo 的租约，路径被修改时向持有者推送失效通知
+    private final LeaseTable<ClientSession> leases = new LeaseTable<>();
+    // 按心跳上报的剩余空间与负载为新块选择副本位置
+    private final BlockPlacementPolicy placementPolicy = new BlockPlacementPolicy();
+    // 数据服务器心跳与块命令的专用通道
+    private final HeartbeatManager heartbeats = new HeartbeatManager(this);
+    // 失联检测与副本恢复
+    private final ReplicationMonitor replicationMonitor = new ReplicationMonitor(this, heartbeats, placementPolicy);
+    private TServer thriftServer;
+    private Thread monitorThread;
+    // 会话请求的处理线程池，各连接的请求在此并发执行
+    private final ExecutorService handlerPool = Executors.newFixedThreadPool(Config.META_HANDLER_THREADS);
+    // 会话请求的计数、延迟与排队时间，由 STATS 请求和 JMX 读取
+    private final ServerMetrics<MetaOpCode> metrics =
+            new ServerMetrics<>("MetadataServer", String.valueOf(Config.META_SERVRE_PORT), MetaOpCode.values());
 
-    private boolean isRunning;
+    private volatile boolean isRunning;
 
     public MetadataServer() {
         try {
-            fileSystem = new HashMap<>();
             fileToStorageNode = new HashMap<>();
-            storageNodes.put("1", new StorageNode("datanode1", "192.168.88.101", 9526));
-            storageNodes.put("2", new StorageNode("datanode2", "192.168.88.102", 9526));
-            // 初始化根目录
-            fileSystem.put("/", new FileInfo(null, "/", true, 0L, "root", 0L));
+            // 初始化命名空间（包含根目录），并从检查点和编辑日志恢复
+            namespace = openNamespaceStore();
+            loadNamespace();
 
             // 初始化服务器套接字
             serverSocket = new ServerSocket(Config.META_SERVRE_PORT);
@@ -42,55 +86,385 @@ public class MetadataServer {
     }
 
 
+    // 根据配置选择命名空间存储：memory（默认）或 rocksdb
+    private static NamespaceStore openNamespaceStore() throws IOException {
+        if ("rocksdb".equalsIgnoreCase(Config.META_STORE)) {
+            log.info("Using RocksDB namespace store at " + Config.META_STORE_PATH);
+            return new RocksDBNamespaceStore(Config.META_STORE_PATH, Config.META_INODE_CACHE_SIZE, Config.META_STORE_SYNC);
+        }
+        return new MemoryNamespaceStore();
+    }
+
+    /**
+     * 加载最近的检查点镜像，回放其后的编辑日志，然后开始一个新的日志段
+     */
+    private void loadNamespace() throws IOException {
+        File metaDir = new File(Config.META_DIR);
+        editLog = new EditLog(metaDir);
+        long imageTxId = loadImage(new File(metaDir, IMAGE_FILE));
+        long lastTxId = editLog.replay(imageTxId, this::applyEdit);
+        editLog.openForWrite(lastTxId + 1);
+        lastCheckpointTxId = imageTxId;
+        log.info("Namespace loaded: image txid " + imageTxId + ", replayed " + (lastTxId - imageTxId) + " edits");
+    }
+
+    private long loadImage(File imageFile) throws IOException {
+        if (!imageFile.exists()) {
+            namespace.clear();
+            return 0L;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(imageFile)))) {
+            if (in.readInt() != IMAGE_MAGIC) {
+                throw new IOException("Not a namespace image: " + imageFile);
+            }
+            long txid = in.readLong();
+            nextBlockId.set(in.readLong());
+            int nodeCount = in.readInt();
+            for (int i = 0; i < nodeCount; i++) {
+                String key = in.readUTF();
+                storageNodes.put(key, new StorageNode(in.readUTF(), in.readUTF(), in.readInt()));
+            }
+            namespace.loadImage(in);
+            return txid;
+        }
+    }
+
+    /**
+     * 检查点：滚动编辑日志，把当前命名空间写成镜像，再删除已被镜像覆盖的日志段。
+     * 期间独占命名空间锁，查询不受影响，修改会短暂等待。
+     */
+    public void saveCheckpoint() throws IOException {
+        File metaDir = new File(Config.META_DIR);
+        File imageFile = new File(metaDir, IMAGE_FILE);
+        File tmpFile = new File(metaDir, IMAGE_FILE + ".ckpt");
+        long txid;
+        pathLocks.lockNamespace();
+        try {
+            txid = editLog.rollEditLog();
+            try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.writeInt(IMAGE_MAGIC);
+                out.writeLong(txid);
+                out.writeLong(nextBlockId.get());
+                out.writeInt(storageNodes.size());
+                for (Map.Entry<String, StorageNode> entry : storageNodes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue().getName());
+                    out.writeUTF(entry.getValue().getHost());
+                    out.writeInt(entry.getValue().getPort());
+                }
+                namespace.saveImage(out);
+                out.flush();
+                fos.getChannel().force(true);
+            }
+        } finally {
+            pathLocks.unlockNamespace();
+        }
+        Files.move(tmpFile.toPath(), imageFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        editLog.purgeLogsOlderThan(txid + 1);
+        log.info("Saved checkpoint at txid " + txid + " (" + (txid - lastCheckpointTxId) + " edits since last checkpoint)");
+        lastCheckpointTxId = txid;
+        lastCheckpointTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 后台检查点线程：日志积累到 META_CHECKPOINT_TXNS 条或距上次检查点超过 META_CHECKPOINT_SECS 时做检查点
+     */
+    private class Checkpointer implements Runnable {
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(CHECKPOINT_CHECK_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long txns = editLog.getLastTxId() - lastCheckpointTxId;
+                long elapsed = System.currentTimeMillis() - lastCheckpointTime;
+                if (txns > 0 && (txns >= Config.META_CHECKPOINT_TXNS || elapsed >= Config.META_CHECKPOINT_SECS * 1000L)) {
+                    try {
+                        saveCheckpoint();
+                    } catch (IOException e) {
+                        log.error("Checkpoint failed: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    public void startCheckpointer() {
+        Thread checkpointer = new Thread(new Checkpointer(), "metadata-checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    /**
+     * 回放一条编辑日志。检查点之后的修改可能已经在持久化存储中，因此每种操作都按幂等方式应用。
+     */
+    private void applyEdit(long txid, EditOpCode op, DataInputStream in) throws IOException {
+        switch (op) {
+            case CREATE: {
+                String path = in.readUTF();
+                String owner = in.readUTF();
+                boolean isDirectory = in.readBoolean();
+                long creationTime = in.readLong();
+                String fileId = in.readUTF();
+                if (namespace.get(path) == null) {
+                    FileInfo parent = namespace.get(getParentPath(path));
+                    if (parent == null) {
+                        throw new IOException("Corrupt edit log at txid " + txid + ": parent of " + path + " is missing");
+                    }
+                    FileInfo fileInfo = namespace.create(parent, path, owner, isDirectory);
+                    fileInfo.setCreationTime(creationTime);
+                    fileInfo.setFileId(fileId);
+                    namespace.update(fileInfo);
+                }
+                break;
+            }
+            case UPDATE: {
+                String path = in.readUTF();
+                long fileSize = in.readLong();
+                int count = in.readInt();
+                List<String> locations = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    locations.add(in.readUTF());
+                }
+                long blockSize = in.readLong();
+                List<BlockInfo> blocks = BlockInfo.readList(in);
+                for (BlockInfo block : blocks) {
+                    nextBlockId.accumulateAndGet(block.getBlockId() + 1, Math::max);
+                }
+                FileInfo fileInfo = namespace.get(path);
+                if (fileInfo != null) {
+                    fileInfo.setFileSize(fileSize);
+                    fileInfo.setLocations(locations);
+                    fileInfo.setBlockSize(blockSize);
+                    fileInfo.setBlocks(blocks);
+                    namespace.update(fileInfo);
+                }
+                break;
+            }
+            case DELETE: {
+                FileInfo fileInfo = namespace.get(in.readUTF());
+                if (fileInfo != null) {
+                    namespace.delete(fileInfo);
+                }
+                break;
+            }
+            case RENAME: {
+                String oldPath = in.readUTF();
+                String newPath = in.readUTF();
+                FileInfo fileInfo = namespace.get(oldPath);
+                FileInfo newParent = namespace.get(getParentPath(newPath));
+                if (fileInfo != null && newParent != null && namespace.get(newPath) == null) {
+                    namespace.rename(fileInfo, newParent, newPath);
+                }
+                break;
+            }
+            case REGISTER_NODE: {
+                String key = in.readUTF();
+                storageNodes.put(key, new StorageNode(in.readUTF(), in.readUTF(), in.readInt()));
+                break;
+            }
+            default:
+                throw new IOException("Unsupported edit op " + op + " at txid " + txid);
+        }
+    }
+
+    private void logUpdate(FileInfo fileInfo) throws IOException {
+        editLog.logEdit(EditOpCode.UPDATE, out -> {
+            out.writeUTF(fileInfo.getPath());
+            out.writeLong(fileInfo.getFileSize());
+            out.writeInt(fileInfo.getLocations().size());
+            for (String location : fileInfo.getLocations()) {
+                out.writeUTF(location);
+            }
+            out.writeLong(fileInfo.getBlockSize());
+            BlockInfo.writeList(out, fileInfo.getBlocks());
+        });
+    }
+
     //改进了老师原来写的Server方法
     private void serve() {
         System.out.println("┏======================================┓");
         System.out.println("|元数据服务已经启动|MetaServer is running|");
         System.out.println("┗======================================┛");
         isRunning = true;
+        metrics.registerMBeans();
+        try {
+            heartbeats.start(Config.META_HEARTBEAT_PORT);
+        } catch (IOException e) {
+            log.error("Failed to start heartbeat service on port " + Config.META_HEARTBEAT_PORT + ": " + e.getMessage(), e);
+        }
+        monitorThread = new Thread(replicationMonitor, "replication-monitor");
+        monitorThread.setDaemon(true);
+        monitorThread.start();
         while (isRunning) {
-            Socket clientSocket = null;
             try {
-                // 等待客户端连接
-                clientSocket = serverSocket.accept();
+                // 等待客户端连接，每个连接是一个长会话，由独立线程读取请求帧
+                Socket clientSocket = serverSocket.accept();
                 System.out.println("Accepted connection from client: " + clientSocket.getRemoteSocketAddress());
+                ClientSession session = new ClientSession(clientSocket);
+                Thread sessionThread = new Thread(session, "meta-session-" + clientSocket.getRemoteSocketAddress());
+                sessionThread.setDaemon(true);
+                sessionThread.start();
+            } catch (IOException e) {
+                if (isRunning) {
+                    log.error("Error in server operation: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 客户端长连接会话：读取线程不断读取请求帧并交给 handlerPool 处理，
+     * 处理完成后按 requestId 写回响应帧，因此同一连接上的请求可以流水线发送、乱序返回。
+     */
+    private class ClientSession implements Runnable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
 
-                // 初始化输入输出流
-                DataInputStream in = new DataInputStream(clientSocket.getInputStream());
-                DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream());
+        ClientSession(Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
 
-                // 读取客户端请求操作码
-                MetaOpCode op = null;
-                try {
-                    op = MetaOpCode.read(in);
-                    System.out.println("Received operation: " + op);
-                } catch (Exception e) {
-                    log.error("Error reading operation code from client: " + e.getMessage());
-                    continue;
+        @Override
+        public void run() {
+            try {
+                while (isRunning) {
+                    final MetaFrame frame = MetaFrame.read(in);
+                    final long enqueued = metrics.enqueued();
+                    handlerPool.execute(() -> handle(frame, enqueued));
                 }
+            } catch (EOFException e) {
+                System.out.println("Client session closed: " + socket.getRemoteSocketAddress());
+            } catch (IOException e) {
+                log.error("Error reading request from " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            } finally {
+                close();
+            }
+        }
 
-                // 处理客户端请求
-                if (op != null) {
-                    process(clientSocket, op, in, out);
+        private void handle(MetaFrame frame, long enqueued) {
+            metrics.dequeued(enqueued);
+            MetaFrame.BodyBuffer response = new MetaFrame.BodyBuffer();
+            OpMetrics opMetrics = null;
+            long start = 0;
+            try {
+                DataInputStream body = frame.getBody();
+                MetaOpCode op = MetaOpCode.read(body);
+                Span parent = Span.NOOP;
+                if (op == MetaOpCode.TRACE) {
+                    // 请求在采样的追踪中，本次处理记为请求方 span 的子 span
+                    parent = Span.readHeader(body, TRACE_SERVICE);
+                    op = MetaOpCode.read(body);
+                }
+                if (op == null) {
+                    log.warn("Received null operation code. Skipping request " + frame.getRequestId());
+                    DataOutputStream resp = new DataOutputStream(response);
+                    resp.writeInt(-1);
+                    resp.writeUTF("Unknown operation code");
                 } else {
-                    log.warn("Received null operation code. Skipping request.");
+                    opMetrics = metrics.op(op);
+                    start = opMetrics.begin();
+                    try (Span span = parent.child(op.name()).kind(Span.SERVER)
+                            .tag("queueMicros", (start - enqueued) / 1000).activate()) {
+                        // 各处理方法返回失败的操作数（BATCH 为失败的子操作数）
+                        opMetrics.addErrors(process(op, body, new DataOutputStream(response), this));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // 丢弃已写出的部分响应，改为错误响应，客户端不必等到超时
+                log.error("Error processing request " + frame.getRequestId() + ": " + e.getMessage(), e);
+                if (opMetrics != null) {
+                    opMetrics.error();
+                }
+                response.reset();
+                try {
+                    DataOutputStream resp = new DataOutputStream(response);
+                    resp.writeInt(-1);
+                    resp.writeUTF(e.getMessage() == null ? e.toString() : e.getMessage());
+                } catch (IOException ex) {
+                    log.error("Failed to build error response: " + ex.getMessage());
                 }
-            } catch (IOException e) {
-                log.error("Error in server operation: " + e.getMessage(), e);
             } finally {
-                // 确保关闭客户端连接
-                if (clientSocket != null) {
-                    try {
-                        clientSocket.close();
-                        System.out.println("Client socket closed.");
-                    } catch (IOException e) {
-                        log.error("Failed to close client socket: " + e.getMessage(), e);
-                    }
+                if (opMetrics != null) {
+                    opMetrics.end(start);
+                    opMetrics.addBytesIn(frame.getBodyLength());
+                    opMetrics.addBytesOut(response.size());
+                }
+            }
+            try {
+                synchronized (out) {
+                    response.writeFrame(out, frame.getRequestId());
+                    out.flush();
                 }
+            } catch (IOException e) {
+                log.error("Failed to send response to " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+                close();
+            }
+        }
+
+        // 推送失效通知；与响应写在同一连接上，修改者自己会先收到通知再收到修改的响应
+        void sendInvalidation(List<String> paths) {
+            try {
+                MetaFrame.BodyBuffer push = new MetaFrame.BodyBuffer();
+                DataOutputStream body = new DataOutputStream(push);
+                MetaOpCode.INVALIDATE.write(body);
+                body.writeInt(paths.size());
+                for (String path : paths) {
+                    body.writeUTF(path);
+                }
+                synchronized (out) {
+                    push.writeFrame(out, MetaFrame.PUSH_REQUEST_ID);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                log.error("Failed to send invalidation to " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.error("Failed to close client socket: " + e.getMessage(), e);
             }
         }
     }
 
+    /**
+     * 在 TThreadedSelectorServer 上启动 Thrift 元数据服务（framed transport + compact protocol）。
+     * accept 线程、selector 线程与工作线程池相互独立，请求由工作线程并发处理。
+     */
+    public void serveThrift() throws TTransportException {
+        TNonblockingServerSocket transport = new TNonblockingServerSocket(Config.META_THRIFT_PORT);
+        TThreadedSelectorServer.Args args = new TThreadedSelectorServer.Args(transport)
+                .selectorThreads(Config.META_SELECTOR_THREADS)
+                .workerThreads(Config.META_WORKER_THREADS);
+        args.processor(new MetadataThriftProcessor(this))
+                .protocolFactory(new TCompactProtocol.Factory())
+                .transportFactory(new TFramedTransport.Factory());
+        thriftServer = new TThreadedSelectorServer(args);
+
+        Thread thriftThread = new Thread(thriftServer::serve, "metadata-thrift-server");
+        thriftThread.setDaemon(true);
+        thriftThread.start();
+        log.info("Thrift metadata service started on port " + Config.META_THRIFT_PORT
+                + " (selectors=" + Config.META_SELECTOR_THREADS + ", workers=" + Config.META_WORKER_THREADS + ")");
+    }
+
+    public void stopThrift() {
+        if (thriftServer != null) {
+            thriftServer.stop();
+        }
+    }
+
     //
     /**
      * 处理客户端元数据请求并返回响应,处理的信息包括：
@@ -102,63 +476,50 @@ public class MetadataServer {
      * 一致性和同步： 当文件信息或状态发生变化时，确保元数据服务器和数据服务器之间的信息是一致的。你可能需要考虑使用分布式一致性协议（如 Paxos、Raft）来实现这一点。
      * @throws IOException
      */
-    protected final void process(Socket clientSocket, MetaOpCode op, DataInputStream in, DataOutputStream out) {
-        while (isRunning) {
-            try {
-                switch (op) {
-                    case HEART_BEAT:
-                        handleHeartBeat(in, out);
-                        break;
-                    case CREATE_FILE:
-                        createFile(in, out);
-                        break;
-                    case RENAME_FILE:
-                        renameFile(in, out);
-                        break;
-                    case DEL_FILE:
-                        deleteFile(in, out);
-                        break;
-                    case LIST_FILE:
-                        listFile(in, out);
-                        break;
-                    default:
-                        log.warn("Unknown operation code: " + op);
-                }
-            } catch (Exception e) {  // 捕获更广义的异常
-                log.error("Error processing request: " + e.getMessage(), e);
-            } finally {
-                try {
-                    if (clientSocket != null) {
-                        clientSocket.close();
-                    }
-                } catch (IOException e) {
-                    log.error("Error closing client socket in process method: " + e.getMessage(), e);
-                }
-                break; // 处理完当前请求后退出循环
-            }
+    protected final int process(MetaOpCode op, DataInputStream in, DataOutputStream out, ClientSession session) throws IOException {
+        switch (op) {
+            case CREATE_FILE:
+                return createFile(in, out) ? 0 : 1;
+            case RENAME_FILE:
+                return renameFile(in, out) ? 0 : 1;
+            case DEL_FILE:
+                return deleteFile(in, out) ? 0 : 1;
+            case LIST_FILE:
+                return listFile(in, out) ? 0 : 1;
+            case GET_FILE_INFO:
+                return handleGetFileInfo(in, out, session) ? 0 : 1;
+            case GET_REPLICAS:
+                return handleGetReplicas(in, out) ? 0 : 1;
+            case ADD_BLOCK:
+                return handleAddBlock(in, out) ? 0 : 1;
+            case COMPLETE_FILE:
+                return handleCompleteFile(in, out) ? 0 : 1;
+            case BATCH:
+                return handleBatch(in, out, session);
+            case STATS:
+                out.writeInt(0);
+                getStats().write(out);
+                return 0;
+            default:
+                log.warn("Unknown operation code: " + op);
+                out.writeInt(-1);
+                out.writeUTF("Unknown operation code: " + op);
+                return 1;
         }
     }
 
 
 
-    private void renameFile(DataInputStream in, DataOutputStream out) {
+    private boolean renameFile(DataInputStream in, DataOutputStream out) {
         try {
             String oldPath = in.readUTF(); // 读取旧路径
             String newPath = in.readUTF(); // 读取新路径
 
-            if (fileSystem.containsKey(oldPath)) {
-                FileInfo fileInfo = fileSystem.remove(oldPath);
-                fileInfo.setFileName(newPath);
-                fileSystem.put(newPath, fileInfo);
-                out.writeInt(0); // 成功代码
-                out.writeUTF("File renamed successfully from " + oldPath + " to " + newPath);
-                log.info("File renamed from " + oldPath + " to " + newPath);
-            } else {
-                out.writeInt(-1); // 失败代码
-                out.writeUTF("File/Directory not found: " + oldPath);
-                log.info("Rename failed. File/Directory not found: " + oldPath);
-            }
+            rename(oldPath, newPath);
+            out.writeInt(0); // 成功代码
+            out.writeUTF("File renamed successfully from " + oldPath + " to " + newPath);
             out.flush();
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
             try {
@@ -168,34 +529,20 @@ public class MetadataServer {
             } catch (IOException e1) {
                 e1.printStackTrace();
             }
+            return false;
         }
     }
 
-    private void deleteFile(DataInputStream in, DataOutputStream out) {
+    private boolean deleteFile(DataInputStream in, DataOutputStream out) {
         try {
             String path = in.readUTF(); // 读取要删除的文件路径
             String requester = in.readUTF(); // 读取请求者
 
-            if (fileSystem.containsKey(path)) {
-                FileInfo fileInfo = fileSystem.get(path);
-                String owner = fileInfo.getOwner();
-                if (owner.equals(requester)) {
-                    // 删除文件或目录
-                    fileSystem.remove(path);
-                    out.writeInt(0); // 成功代码
-                    out.writeUTF((fileInfo.isDirectory() ? "Directory" : "File") + " " + path + " deleted by " + requester);
-                    log.info((fileInfo.isDirectory() ? "Directory" : "File") + " " + path + " deleted by " + requester);
-                } else {
-                    out.writeInt(-1); // 权限不足
-                    out.writeUTF("Permission denied. You are not the owner of " + path);
-                    log.info("Permission denied. You are not the owner of " + path);
-                }
-            } else {
-                out.writeInt(-1); // 文件未找到
-                out.writeUTF("File/Directory not found: " + path);
-                log.info("File/Directory " + path + " not found.");
-            }
+            FileInfo fileInfo = delete(path, requester);
+            out.writeInt(0); // 成功代码
+            out.writeUTF((fileInfo.isDirectory() ? "Directory" : "File") + " " + path + " deleted by " + requester);
             out.flush();
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
             try {
@@ -205,26 +552,23 @@ public class MetadataServer {
             } catch (IOException e1) {
                 e1.printStackTrace();
             }
+            return false;
         }
     }
 
 
-    private void createFile(DataInputStream in, DataOutputStream out) {
+    private boolean createFile(DataInputStream in, DataOutputStream out) {
         try {
             String path = in.readUTF();
             String owner = in.readUTF();
             boolean isDir = in.readBoolean();
 
-            FileInfo fileInfo = create(path, owner, isDir);
-            List<String> replicaNodes = getReplicaStorageNodes(3);
-            for (String node : replicaNodes) {
-                String localFileId = UUID.randomUUID().toString();
-                fileInfo.getLocations().add(node + ":" + localFileId);
-            }
+            FileInfo fileInfo = createFile(path, owner, isDir);
 
             out.writeInt(0);
-            out.writeUTF(String.join(",", fileInfo.getLocations()));
+            new FileInfoCodec.Encoder(out, 1).write(fileInfo, replicas(fileInfo));
             out.flush();
+            return true;
         } catch (IOException e) {
             log.error("Failed to create file: " + e.getMessage());
             try {
@@ -233,32 +577,241 @@ public class MetadataServer {
             } catch (IOException ex) {
                 log.error("Failed to send error response: " + ex.getMessage());
             }
+            return false;
+        }
+    }
+
+    // 为新块选择 replicaCount 个数据服务器，返回 host:port
+    private List<String> getReplicaStorageNodes(int replicaCount, long blockSize) {
+        List<String> targets = new ArrayList<>();
+        for (StorageNode node : placementPolicy.chooseTargets(replicationMonitor.liveNodes(), replicaCount, blockSize)) {
+            targets.add(node.getHost() + ":" + node.getPort());
         }
+        return targets;
+    }
+
+    // 响应末尾附带租约时长，租约在读取命名空间之前登记
+    private boolean handleGetFileInfo(DataInputStream in, DataOutputStream out, ClientSession session) throws IOException {
+        return writeFileInfo(in.readUTF(), out, session);
     }
 
-    private List<String> getReplicaStorageNodes(int replicaCount) {
-        List<String> nodes = new ArrayList<>(storageNodes.keySet());
-        Collections.shuffle(nodes); // 随机选择存储节点
-        return nodes.subList(0, Math.min(replicaCount, nodes.size()));
+    // 返回是否找到了 path
+    private boolean writeFileInfo(String path, DataOutputStream out, ClientSession session) throws IOException {
+        long leaseMs = session == null ? 0 : leases.grant(path, session, Config.META_LEASE_MS);
+        FileInfo fileInfo = getFileInfo(path);
+        if (fileInfo == null) {
+            out.writeInt(-1);
+            out.writeUTF("File/Directory not found: " + path);
+            return false;
+        }
+        out.writeInt(0);
+        new FileInfoCodec.Encoder(out, 1).write(fileInfo, replicas(fileInfo));
+        out.writeLong(leaseMs);
+        return true;
     }
 
-    // 新增：处理副本查询请求
-    private void handleGetReplicas(DataInputStream in, DataOutputStream out) {
+    private boolean handleAddBlock(DataInputStream in, DataOutputStream out) throws IOException {
+        String path = in.readUTF();
         try {
-            String path = in.readUTF();
-            FileInfo fileInfo = getFileInfo(path);
-            if (fileInfo != null && !fileInfo.getLocations().isEmpty()) {
-                out.writeInt(fileInfo.getLocations().size());
-                for (String location : fileInfo.getLocations()) {
-                    out.writeUTF(location);
-                }
+            BlockInfo block = addBlock(path);
+            out.writeInt(0);
+            block.write(out);
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to add block to " + path + ": " + e.getMessage());
+            out.writeInt(-1);
+            out.writeUTF(e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean handleCompleteFile(DataInputStream in, DataOutputStream out) throws IOException {
+        String path = in.readUTF();
+        int count = in.readInt();
+        List<BlockInfo> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            blocks.add(new BlockInfo(in.readLong(), in.readLong(), new ArrayList<>()));
+        }
+        try {
+            FileInfo fileInfo = completeFile(path, blocks);
+            out.writeInt(0);
+            out.writeUTF("File " + path + " completed, size " + fileInfo.getFileSize());
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to complete " + path + ": " + e.getMessage());
+            out.writeInt(-1);
+            out.writeUTF(e.getMessage());
+            return false;
+        }
+    }
+
+    // 批量请求中的一项：path 为操作的路径，arg 为创建者、删除者或重命名的目标路径
+    private static class BatchItem {
+        final MetaOpCode op;
+        final String path;
+        final String arg;
+        final boolean isDirectory;
+
+        BatchItem(MetaOpCode op, String path, String arg, boolean isDirectory) {
+            this.op = op;
+            this.path = path;
+            this.arg = arg;
+            this.isDirectory = isDirectory;
+        }
+    }
+
+    /**
+     * 批量操作：请求为 [int n][n 个子操作]，每个子操作是 MetaOpCode 加上它单独发送时的参数，
+     * 只接受 CREATE_FILE、GET_FILE_INFO、DEL_FILE、RENAME_FILE。响应为 [int 0][int n][各项的响应]，
+     * 每项的响应与单独发送时相同。整批合并涉及的路径只加一次锁，依次执行后只刷一次日志，
+     * 落盘后再撤销租约、通知数据服务器删除块。各项独立成败，某项失败不影响后面的项。
+     * 返回失败数：整批失败时为 1，否则为失败的子操作数。
+     */
+    private int handleBatch(DataInputStream in, DataOutputStream out, ClientSession session) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > Config.META_BATCH_MAX_OPS) {
+            out.writeInt(-1);
+            out.writeUTF("Batch of " + count + " operations exceeds limit " + Config.META_BATCH_MAX_OPS);
+            return 1;
+        }
+        List<BatchItem> items = new ArrayList<>(count);
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            MetaOpCode op = MetaOpCode.read(in);
+            if (op == MetaOpCode.CREATE_FILE) {
+                String path = in.readUTF();
+                String owner = in.readUTF();
+                items.add(new BatchItem(op, path, owner, in.readBoolean()));
+                targets.add(path);
+            } else if (op == MetaOpCode.GET_FILE_INFO) {
+                items.add(new BatchItem(op, in.readUTF(), null, false));
+            } else if (op == MetaOpCode.DEL_FILE) {
+                String path = in.readUTF();
+                items.add(new BatchItem(op, path, in.readUTF(), false));
+                targets.add(path);
+            } else if (op == MetaOpCode.RENAME_FILE) {
+                String oldPath = in.readUTF();
+                String newPath = in.readUTF();
+                items.add(new BatchItem(op, oldPath, newPath, false));
+                targets.add(oldPath);
+                targets.add(newPath);
             } else {
+                out.writeInt(-1);
+                out.writeUTF("Operation not allowed in batch: " + op);
+                return 1;
+            }
+        }
+
+        ByteArrayOutputStream results = new ByteArrayOutputStream();
+        ByteArrayOutputStream itemBuffer = new ByteArrayOutputStream();
+        Map<String, Boolean> invalidations = new LinkedHashMap<>(); // 路径 -> 是否连同子树
+        List<BlockInfo> deletedBlocks = new ArrayList<>();
+        PathLockManager.Locked locks = null;
+        int failures = 0;
+        if (!targets.isEmpty()) {
+            String[] paths = targets.toArray(new String[0]);
+            locks = pathLocks.lockForMutation(false, paths);
+            if (batchNeedsParents(items)) {
+                // 需要补建父目录，改为对祖先加写锁
+                locks.unlock();
+                locks = pathLocks.lockForMutation(true, paths);
+            }
+        }
+        try {
+            for (BatchItem item : items) {
+                itemBuffer.reset();
+                DataOutputStream itemOut = new DataOutputStream(itemBuffer);
+                try {
+                    if (!applyBatchItem(item, itemOut, session, invalidations, deletedBlocks)) {
+                        failures++;
+                    }
+                } catch (IOException e) {
+                    failures++;
+                    itemBuffer.reset();
+                    itemOut.writeInt(-1);
+                    itemOut.writeUTF(String.valueOf(e.getMessage()));
+                }
+                itemBuffer.writeTo(results);
+            }
+        } finally {
+            if (locks != null) {
+                locks.unlock();
+            }
+        }
+        if (!targets.isEmpty()) {
+            try {
+                editLog.logSync();
+            } catch (IOException e) {
+                log.error("Failed to sync batch of " + count + " operations: " + e.getMessage());
+                out.writeInt(-1);
+                out.writeUTF(e.getMessage());
+                return 1;
+            }
+        }
+        for (Map.Entry<String, Boolean> entry : invalidations.entrySet()) {
+            invalidate(entry.getKey(), entry.getValue());
+        }
+        invalidateBlocks(deletedBlocks);
+        out.writeInt(0);
+        out.writeInt(items.size());
+        results.writeTo(out);
+        return failures;
+    }
+
+    // 批量中是否有创建或重命名的目标缺少父目录
+    private boolean batchNeedsParents(List<BatchItem> items) throws IOException {
+        for (BatchItem item : items) {
+            if ((item.op == MetaOpCode.CREATE_FILE && parentMissing(item.path))
+                    || (item.op == MetaOpCode.RENAME_FILE && parentMissing(item.arg))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 在批量的锁内执行一项，需要在日志落盘后撤销的租约与删除或截断的块记入 invalidations 与 deletedBlocks
+    // 返回该项是否成功；GET_FILE_INFO 的路径不存在时写出错误响应并返回 false，其余失败抛出异常
+    private boolean applyBatchItem(BatchItem item, DataOutputStream out, ClientSession session,
+                                Map<String, Boolean> invalidations, List<BlockInfo> deletedBlocks) throws IOException {
+        switch (item.op) {
+            case CREATE_FILE: {
+                FileInfo fileInfo = createUnderLock(item.path, item.arg, item.isDirectory, true, deletedBlocks);
+                invalidations.merge(item.path, false, Boolean::logicalOr);
                 out.writeInt(0);
+                new FileInfoCodec.Encoder(out, 1).write(fileInfo, replicas(fileInfo));
+                return true;
             }
-            out.flush();
-        } catch (IOException e) {
-            log.error("Failed to handle GET_REPLICAS request: " + e.getMessage());
+            case GET_FILE_INFO:
+                return writeFileInfo(item.path, out, session);
+            case DEL_FILE: {
+                FileInfo fileInfo = deleteUnderLock(item.path, item.arg, deletedBlocks);
+                invalidations.merge(item.path, fileInfo.isDirectory(), Boolean::logicalOr);
+                out.writeInt(0);
+                out.writeUTF((fileInfo.isDirectory() ? "Directory" : "File") + " " + item.path + " deleted by " + item.arg);
+                return true;
+            }
+            case RENAME_FILE: {
+                boolean isDirectory = renameUnderLock(item.path, item.arg);
+                invalidations.merge(item.path, isDirectory, Boolean::logicalOr);
+                invalidations.merge(item.arg, false, Boolean::logicalOr);
+                out.writeInt(0);
+                out.writeUTF("File renamed successfully from " + item.path + " to " + item.arg);
+                return true;
+            }
+            default:
+                throw new IOException("Operation not allowed in batch: " + item.op);
+        }
+    }
+
+    // 新增：处理副本查询请求。响应为 [int n][n 个位置]；失败时异常交给 ClientSession 写出 [-1][原因]
+    private boolean handleGetReplicas(DataInputStream in, DataOutputStream out) throws IOException {
+        String path = in.readUTF();
+        List<String> replicas = getReplicas(path);
+        out.writeInt(replicas.size());
+        for (String location : replicas) {
+            out.writeUTF(location);
         }
+        return true;
     }
 
 
@@ -269,54 +822,359 @@ public class MetadataServer {
 //        fileToStorageNode.put(filePath, storageNode);
 //    }
 
+    // 创建文件或目录；新文件长度为 0，随后由客户端逐个申请数据块（addBlock）。文件已存在时截断为空文件重新写入
+    public FileInfo createFile(String path, String owner, boolean isDirectory) throws IOException {
+        List<BlockInfo> truncated = new ArrayList<>();
+        FileInfo fileInfo = createLocked(path, owner, isDirectory, true, truncated);
+        // 修改落盘后才向客户端确认
+        editLog.logSync();
+        invalidate(path, false);
+        invalidateBlocks(truncated);
+        return fileInfo;
+    }
+
+    /**
+     * 加锁后创建 path。通常只需对祖先加读锁；父目录不存在、需要补建时，
+     * 释放锁并改为对祖先加写锁后重试，避免两个请求同时补建同一个目录。
+     */
+    private FileInfo createLocked(String path, String owner, boolean isDirectory, boolean initBlocks,
+                                  List<BlockInfo> truncated) throws IOException {
+        boolean lockAncestors = false;
+        while (true) {
+            PathLockManager.Locked locks = pathLocks.lockForMutation(lockAncestors, path);
+            try {
+                if (!lockAncestors && parentMissing(path)) {
+                    lockAncestors = true;
+                    continue;
+                }
+                return createUnderLock(path, owner, isDirectory, initBlocks, truncated);
+            } finally {
+                locks.unlock();
+            }
+        }
+    }
+
+    /**
+     * 调用方需持有 path 的写锁；initBlocks 为 true 时新文件按 BLOCK_SIZE 分块。
+     * 此时已有的文件被截断为空文件，新数据从第一个块重新写起，否则 addBlock 会接在旧块之后，
+     * completeFile 时块数对不上；旧块加入 truncated，由调用方在日志落盘后通知数据服务器删除。
+     * initBlocks 为 false 时 truncated 可以为 null
+     */
+    private FileInfo createUnderLock(String path, String owner, boolean isDirectory, boolean initBlocks,
+                                     List<BlockInfo> truncated) throws IOException {
+        boolean existed = namespace.get(path) != null;
+        FileInfo fileInfo = createInternal(path, owner, isDirectory);
+        if (initBlocks && !fileInfo.isDirectory() && (existed || fileInfo.getBlockSize() == 0)) {
+            List<BlockInfo> oldBlocks = fileInfo.getBlocks();
+            fileInfo.setBlocks(new ArrayList<>());
+            fileInfo.setBlockSize(Config.BLOCK_SIZE);
+            fileInfo.setFileSize(0);
+            namespace.update(fileInfo);
+            logUpdate(fileInfo);
+            truncated.addAll(oldBlocks);
+        }
+        return fileInfo;
+    }
+
+    // path 的父目录是否不存在，需要补建
+    private boolean parentMissing(String path) throws IOException {
+        return !"/".equals(path) && namespace.get(getParentPath(path)) == null;
+    }
+
+    /**
+     * 为文件追加一个新块并选择存放副本的数据服务器。块列表整体替换而不是原地修改，
+     * 不加锁读取 FileInfo 的线程不会看到修改到一半的列表。
+     */
+    public BlockInfo addBlock(String path) throws IOException {
+        BlockInfo block;
+        PathLockManager.Locked locks = pathLocks.lockForMutation(false, path);
+        try {
+            FileInfo fileInfo = namespace.get(path);
+            if (fileInfo == null) {
+                throw new FileNotFoundException("File not found: " + path);
+            }
+            if (fileInfo.isDirectory()) {
+                throw new IOException("Cannot add a block to directory " + path);
+            }
+            List<String> targets = getReplicaStorageNodes(Config.REPLICATION, Config.BLOCK_SIZE);
+            if (targets.isEmpty()) {
+                throw new IOException("No data server available for " + path);
+            }
+            block = new BlockInfo(nextBlockId.getAndIncrement(), 0L, targets);
+            List<BlockInfo> blocks = new ArrayList<>(fileInfo.getBlocks());
+            blocks.add(block);
+            fileInfo.setBlocks(blocks);
+            namespace.update(fileInfo);
+            logUpdate(fileInfo);
+        } finally {
+            locks.unlock();
+        }
+        editLog.logSync();
+        invalidate(path, false);
+        return block;
+    }
+
+    // 客户端写完所有块后提交各块的实际长度，文件大小为各块长度之和
+    public FileInfo completeFile(String path, List<BlockInfo> written) throws IOException {
+        FileInfo fileInfo;
+        PathLockManager.Locked locks = pathLocks.lockForMutation(false, path);
+        try {
+            fileInfo = namespace.get(path);
+            if (fileInfo == null) {
+                throw new FileNotFoundException("File not found: " + path);
+            }
+            List<BlockInfo> blocks = fileInfo.getBlocks();
+            if (blocks.size() != written.size()) {
+                throw new IOException("Block count mismatch for " + path + ": expected " + blocks.size() + ", got " + written.size());
+            }
+            List<BlockInfo> completed = new ArrayList<>(blocks.size());
+            long fileSize = 0;
+            for (int i = 0; i < blocks.size(); i++) {
+                BlockInfo block = blocks.get(i);
+                if (block.getBlockId() != written.get(i).getBlockId()) {
+                    throw new IOException("Unexpected block " + written.get(i).getBlockId() + " at index " + i + " of " + path);
+                }
+                long numBytes = written.get(i).getNumBytes();
+                completed.add(new BlockInfo(block.getBlockId(), numBytes, block.getLocations()));
+                fileSize += numBytes;
+            }
+            fileInfo.setBlocks(completed);
+            fileInfo.setFileSize(fileSize);
+            namespace.update(fileInfo);
+            logUpdate(fileInfo);
+        } finally {
+            locks.unlock();
+        }
+        editLog.logSync();
+        invalidate(path, false);
+        return fileInfo;
+    }
+
     // 创建文件或目录
-    public FileInfo create(String path, String owner, boolean isDirectory) {
-        FileInfo fileInfo = null;
-        if (!fileSystem.containsKey(path)) {
+    public FileInfo create(String path, String owner, boolean isDirectory) throws IOException {
+        FileInfo fileInfo = createLocked(path, owner, isDirectory, false, null);
+        editLog.logSync();
+        invalidate(path, false);
+        return fileInfo;
+    }
+
+    // 调用方需持有 path 的写锁；父目录缺失时还需持有各祖先的写锁
+    private FileInfo createInternal(String path, String owner, boolean isDirectory) throws IOException {
+        FileInfo fileInfo = namespace.get(path);
+        if (fileInfo == null) {
 
             String parentPath = getParentPath(path);
-            if (!fileSystem.containsKey(parentPath) && !parentPath.equals("/")) {
+            FileInfo parentInfo = namespace.get(parentPath);
+            if (parentInfo == null) {
                 System.out.println("Parent directory " + parentPath + " does not exist.");
-                create(parentPath,  owner, true);
+                parentInfo = createInternal(parentPath,  owner, true);
             }
-
-            if (fileSystem.containsKey(parentPath) || parentPath.equals("/")) {
-                FileInfo parentInfo = fileSystem.get(parentPath);
-                fileInfo = new FileInfo(path, owner, isDirectory, parentInfo);
-                fileSystem.put(path, fileInfo);
-                System.out.println((isDirectory ? "Directory" : "File") + " " + path + " created by " + owner);
+            if (!parentInfo.isDirectory()) {
+                throw new IOException("Parent path is not a directory: " + parentPath);
             }
+
+            final FileInfo created = namespace.create(parentInfo, path, owner, isDirectory);
+            editLog.logEdit(EditOpCode.CREATE, out -> {
+                out.writeUTF(path);
+                out.writeUTF(owner);
+                out.writeBoolean(isDirectory);
+                out.writeLong(created.getCreationTime());
+                out.writeUTF(created.getFileId());
+            });
+            fileInfo = created;
+            System.out.println((isDirectory ? "Directory" : "File") + " " + path + " created by " + owner);
             return fileInfo;
         } else {
             System.out.println((isDirectory ? "Directory" : "File") + " " + path + " already exists.");
-            fileInfo = fileSystem.get(path);
             return fileInfo;
         }
     }
 
 
-    // 删除文件或目录
-    public void delete(String path, String requester) {
-        if (fileSystem.containsKey(path)) {
-            FileInfo fileInfo = fileSystem.get(path);
-            String owner = fileInfo.getOwner();
-            if (owner.equals(requester)) {
-                // 删除文件或目录
-                fileSystem.remove(path);
-                log.info((fileInfo.isDirectory() ? "Directory" : "File") + " " + path + " deleted by " + requester);
-            } else {
-                log.info("Permission denied. You are not the owner of " + path);
-            }
-        } else {
+    // 删除文件或目录（目录连同子树一起删除），被删文件的块随心跳通知数据服务器删除
+    public FileInfo delete(String path, String requester) throws IOException {
+        FileInfo fileInfo;
+        List<BlockInfo> blocks = new ArrayList<>();
+        PathLockManager.Locked locks = pathLocks.lockForMutation(false, path);
+        try {
+            fileInfo = deleteUnderLock(path, requester, blocks);
+        } finally {
+            locks.unlock();
+        }
+        editLog.logSync();
+        invalidate(path, fileInfo.isDirectory());
+        invalidateBlocks(blocks);
+        return fileInfo;
+    }
+
+    // 调用方需持有 path 的写锁；被删文件的块加入 blocks，日志落盘后再通知数据服务器删除
+    private FileInfo deleteUnderLock(String path, String requester, List<BlockInfo> blocks) throws IOException {
+        FileInfo fileInfo = namespace.get(path);
+        if (fileInfo == null) {
             log.info("File/Directory " + path + " not found.");
+            throw new FileNotFoundException("File/Directory not found: " + path);
+        }
+        if ("/".equals(path)) {
+            throw new IOException("Cannot delete root directory");
+        }
+        String owner = fileInfo.getOwner();
+        if (!owner.equals(requester)) {
+            log.info("Permission denied. You are not the owner of " + path);
+            throw new IOException("Permission denied. You are not the owner of " + path);
+        }
+        // 删除文件或目录
+        collectBlocks(fileInfo, blocks);
+        namespace.delete(fileInfo);
+        editLog.logEdit(EditOpCode.DELETE, out -> out.writeUTF(path));
+        log.info((fileInfo.isDirectory() ? "Directory" : "File") + " " + path + " deleted by " + requester);
+        return fileInfo;
+    }
+
+    private void invalidateBlocks(List<BlockInfo> blocks) {
+        for (BlockInfo block : blocks) {
+            heartbeats.invalidateBlock(block.getBlockId(), block.getLocations());
+        }
+    }
+
+    // 深度优先遍历命名空间中的所有文件（不加锁）
+    void visitFiles(Consumer<FileInfo> visitor) throws IOException {
+        visitFiles(namespace.get("/"), visitor);
+    }
+
+    private void visitFiles(FileInfo fileInfo, Consumer<FileInfo> visitor) throws IOException {
+        if (!fileInfo.isDirectory()) {
+            visitor.accept(fileInfo);
+            return;
+        }
+        for (FileInfo child : namespace.list(fileInfo)) {
+            visitFiles(child, visitor);
+        }
+    }
+
+    // 按路径读取文件信息（不加锁，不打印）
+    FileInfo lookup(String path) throws IOException {
+        return namespace.get(path);
+    }
+
+    /**
+     * 副本恢复完成后更新块的位置：加入 added，去掉 removed 中的失联位置。
+     * 返回更新后的副本数，文件或块已不存在时返回 -1。
+     */
+    int updateBlockLocations(String path, long blockId, List<String> added, Set<String> removed) throws IOException {
+        int replicas = -1;
+        PathLockManager.Locked locks = pathLocks.lockForMutation(false, path);
+        try {
+            FileInfo fileInfo = namespace.get(path);
+            if (fileInfo == null || fileInfo.isDirectory()) {
+                return -1;
+            }
+            List<BlockInfo> blocks = new ArrayList<>(fileInfo.getBlocks());
+            for (int i = 0; i < blocks.size(); i++) {
+                BlockInfo block = blocks.get(i);
+                if (block.getBlockId() != blockId) {
+                    continue;
+                }
+                Set<String> locations = new LinkedHashSet<>();
+                for (String location : block.getLocations()) {
+                    if (!removed.contains(location)) {
+                        locations.add(location);
+                    }
+                }
+                locations.addAll(added);
+                blocks.set(i, new BlockInfo(blockId, block.getNumBytes(), new ArrayList<>(locations)));
+                replicas = locations.size();
+            }
+            if (replicas < 0) {
+                return -1;
+            }
+            fileInfo.setBlocks(blocks);
+            namespace.update(fileInfo);
+            logUpdate(fileInfo);
+        } finally {
+            locks.unlock();
+        }
+        editLog.logSync();
+        invalidate(path, false);
+        return replicas;
+    }
+
+    // 收集文件或目录子树中所有文件的块
+    private void collectBlocks(FileInfo fileInfo, List<BlockInfo> blocks) throws IOException {
+        if (!fileInfo.isDirectory()) {
+            blocks.addAll(fileInfo.getBlocks());
+            return;
+        }
+        for (FileInfo child : namespace.list(fileInfo)) {
+            collectBlocks(child, blocks);
+        }
+    }
+
+    // 重命名文件或目录，目标的父目录不存在时自动创建（此时对两边的祖先都加写锁）
+    public void rename(String oldPath, String newPath) throws IOException {
+        boolean lockAncestors = false;
+        boolean isDirectory;
+        while (true) {
+            PathLockManager.Locked locks = pathLocks.lockForMutation(lockAncestors, oldPath, newPath);
+            try {
+                if (!lockAncestors && parentMissing(newPath)) {
+                    lockAncestors = true;
+                    continue;
+                }
+                isDirectory = renameUnderLock(oldPath, newPath);
+                break;
+            } finally {
+                locks.unlock();
+            }
+        }
+        editLog.logSync();
+        invalidate(oldPath, isDirectory);
+        invalidate(newPath, false);
+    }
+
+    // 调用方需持有两个路径的写锁，newPath 的父目录缺失时还需持有其祖先的写锁；返回被移动的是否为目录
+    private boolean renameUnderLock(String oldPath, String newPath) throws IOException {
+        FileInfo fileInfo = namespace.get(oldPath);
+        if (fileInfo == null || "/".equals(oldPath)) {
+            log.info("Rename failed. File/Directory not found: " + oldPath);
+            throw new FileNotFoundException("File/Directory not found: " + oldPath);
+        }
+        if (namespace.get(newPath) != null) {
+            throw new IOException("Destination already exists: " + newPath);
+        }
+        if (newPath.startsWith(oldPath + "/")) {
+            throw new IOException("Cannot move " + oldPath + " into its own subtree");
+        }
+        String newParentPath = getParentPath(newPath);
+        FileInfo newParent = namespace.get(newParentPath);
+        if (newParent == null) {
+            newParent = createInternal(newParentPath, fileInfo.getOwner(), true);
+        }
+        if (!newParent.isDirectory()) {
+            throw new IOException("Parent path is not a directory: " + newParentPath);
+        }
+
+        namespace.rename(fileInfo, newParent, newPath);
+        editLog.logEdit(EditOpCode.RENAME, out -> {
+            out.writeUTF(oldPath);
+            out.writeUTF(newPath);
+        });
+        log.info("File renamed from " + oldPath + " to " + newPath);
+        return fileInfo.isDirectory();
+    }
+
+    /**
+     * 修改落盘后、向修改者确认之前调用：撤销 path（及其子树）上的租约并通知各持有者
+     */
+    private void invalidate(String path, boolean subtree) {
+        for (Map.Entry<ClientSession, List<String>> entry : leases.revoke(path, subtree).entrySet()) {
+            entry.getKey().sendInvalidation(entry.getValue());
         }
     }
 
-    // 获取文件或目录信息
-    public FileInfo getFileInfo(String path) {
-        FileInfo fileInfo = null;
-        if (fileSystem.containsKey(path)) {
-            fileInfo = fileSystem.get(path);
+    // 获取文件或目录信息（不加锁）
+    public FileInfo getFileInfo(String path) throws IOException {
+        FileInfo fileInfo = namespace.get(path);
+        if (fileInfo != null) {
             System.out.print("Path: " + path);
             System.out.print( " Owner: " + fileInfo.getOwner());
             System.out.print(" Is Directory: " + fileInfo.isDirectory());
@@ -326,8 +1184,58 @@ public class MetadataServer {
         return fileInfo;
     }
 
+    // 列出目录下的文件名（不加锁）
+    public List<String> list(String path) throws IOException {
+        FileInfo fileInfo = namespace.get(path);
+        if (fileInfo == null) {
+            throw new FileNotFoundException("File/Directory not found: " + path);
+        }
+        List<String> fileList = new ArrayList<String>();
+        for (FileInfo ch : namespace.list(fileInfo)) {
+            fileList.add(ch.getFileName());
+        }
+        return fileList;
+    }
+
+    /**
+     * 分页列出目录（不加锁）：返回名字在 startAfter 之后的至多 pageSize 个子项，
+     * 多取一个用来判断是否还有下一页。页大小不超过 META_LIST_PAGE_LIMIT，单个响应的内存占用有上限。
+     */
+    public DirectoryListing listPage(String path, String startAfter, int pageSize) throws IOException {
+        FileInfo fileInfo = namespace.get(path);
+        if (fileInfo == null) {
+            throw new FileNotFoundException("File/Directory not found: " + path);
+        }
+        int limit = Math.max(1, Math.min(pageSize, Config.META_LIST_PAGE_LIMIT));
+        List<FileInfo> children = namespace.list(fileInfo, startAfter, limit + 1);
+        boolean hasMore = children.size() > limit;
+        List<FileInfo> entries = children.subList(0, Math.min(children.size(), limit));
+        List<String> names = new ArrayList<>(entries.size());
+        for (FileInfo ch : entries) {
+            names.add(ch.getFileName());
+        }
+        return new DirectoryListing(names, entries, hasMore);
+    }
+
+    // 获取文件副本所在位置：各个块副本所在数据服务器的并集
+    public List<String> getReplicas(String path) throws IOException {
+        FileInfo fileInfo = namespace.get(path);
+        if (fileInfo == null) {
+            return new ArrayList<>();
+        }
+        return replicas(fileInfo);
+    }
+
+    private static List<String> replicas(FileInfo fileInfo) {
+        Set<String> replicas = new LinkedHashSet<>(fileInfo.getLocations());
+        for (BlockInfo block : fileInfo.getBlocks()) {
+            replicas.addAll(block.getLocations());
+        }
+        return new ArrayList<>(replicas);
+    }
+
     // 获取父目录路径
-    private String getParentPath(String path) {
+    static String getParentPath(String path) {
         int lastSeparatorIndex = path.lastIndexOf('/');
         if (lastSeparatorIndex == -1) {
             return "/";
@@ -345,11 +1253,33 @@ public class MetadataServer {
         return fileToStorageNode.get(filePath);
     }
 
+    // 为大小为 fileSize 的文件选择一个存储节点，返回其在 storageNodes 中的键，没有可用节点时返回 null
     public String getNewStorageNode(long fileSize) {
-        Random random = new Random();
-        int id = random.nextInt() % storageNodes.size();
-        String sn = (String)storageNodes.keySet().toArray()[id];
-        return sn;
+        List<StorageNode> chosen = placementPolicy.chooseTargets(replicationMonitor.liveNodes(), 1, fileSize);
+        if (chosen.isEmpty()) {
+            return null;
+        }
+        for (Map.Entry<String, StorageNode> entry : storageNodes.entrySet()) {
+            if (entry.getValue() == chosen.get(0)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    Map<String, StorageNode> getStorageNodes() {
+        return storageNodes;
+    }
+
+    // 节点最近一次心跳的时间，本次启动后还没有心跳时返回 null
+    Long getLastHeartbeat(String nodeName) {
+        return storageNodesUpTime.get(nodeName);
+    }
+
+    // 节点在块副本位置中使用的 host:port，未注册的节点返回 null
+    String getStorageNodeLocation(String nodeName) {
+        StorageNode node = storageNodes.get(nodeName);
+        return node == null ? null : node.getHost() + ":" + node.getPort();
     }
 
     public void setStorageNode(List<StorageNode> storageNodes) {
@@ -358,58 +1288,99 @@ public class MetadataServer {
     }
 
 
-    private void listFile(DataInputStream in, DataOutputStream out) {
-        try {
-            List<String> fileList = new ArrayList<String>();
-            String cur_dir = in.readUTF();
-            FileInfo fileInfo = getFileInfo(cur_dir);
-            if(fileInfo != null && fileInfo.getChildren() != null){
-                for(FileInfo ch:fileInfo.getChildren()){
-                    fileList.add(ch.getFileName());
-                }
-            }
-            int size = fileList.size();
-            out.writeInt(size);
-            System.out.println(" size:" + size);
-            if(size > 0) {
-                for (String name : fileList) {
-                    out.writeUTF(name);
-                }
-                out.flush();
-            }
-            System.out.print("end of listfile.");
-        } catch (IOException e) {
-            e.printStackTrace();
+    // 请求为 [目录][startAfter，空串表示从头开始][页大小]，响应为 [int 0][FileInfoCodec 编码的各子项][boolean 是否还有下一页]；
+    // 失败时异常交给 ClientSession 写出 [-1][原因]
+    private boolean listFile(DataInputStream in, DataOutputStream out) throws IOException {
+        String cur_dir = in.readUTF();
+        String startAfter = in.readUTF();
+        int pageSize = in.readInt();
+        DirectoryListing listing = new DirectoryListing(new ArrayList<String>(), false);
+        if (getFileInfo(cur_dir) != null) {
+            listing = listPage(cur_dir, startAfter.isEmpty() ? null : startAfter, pageSize);
         }
-
+        List<FileInfo> entries = listing.getEntries();
+        out.writeInt(0);
+        FileInfoCodec.Encoder encoder = new FileInfoCodec.Encoder(out, entries.size());
+        for (FileInfo entry : entries) {
+            encoder.write(entry, null);
+        }
+        out.writeBoolean(listing.hasMore());
+        return true;
     }
 
-    private void handleHeartBeat(DataInputStream in, DataOutputStream out) {
-        try {
-            String nodeName = in.readUTF(); // 数据服务器节点名称
-            System.out.println(new Date().toString() + " received heartBeat from DataServer: " + nodeName);
 
+    // 记录数据服务器心跳及其上报的存储状况（可以为 null），首次心跳时以 nodeName:dataPort 完成注册
+    public String registerHeartBeat(String nodeName, int dataPort, StorageReport report) throws IOException {
+        // 共享持有命名空间锁，保证新节点的注册记录与检查点镜像一致
+        PathLockManager.Locked locks = pathLocks.lock(Collections.<String>emptyList(), Collections.<String>emptyList());
+        try {
             Long now = System.currentTimeMillis();
-            if (storageNodes.containsKey(nodeName)) {
-                storageNodesUpTime.put(nodeName, now); // 更新心跳时间
-            } else {
+            storageNodesUpTime.put(nodeName, now); // 更新心跳时间
+            // 数据服务器以主机名作为节点名，块副本位置使用 主机名:端口
+            StorageNode node = new StorageNode(nodeName, nodeName, dataPort);
+            if (storageNodes.putIfAbsent(nodeName, node) == null) {
                 System.out.println("New DataServer registered: " + nodeName);
-                storageNodes.put(nodeName, new StorageNode(nodeName, "dynamic-ip", Config.DATA_SERVRE_PORT));
-                storageNodesUpTime.put(nodeName, now);
+                editLog.logEdit(EditOpCode.REGISTER_NODE, out -> {
+                    out.writeUTF(nodeName);
+                    out.writeUTF(node.getName());
+                    out.writeUTF(node.getHost());
+                    out.writeInt(node.getPort());
+                });
+            }
+            if (report != null) {
+                storageNodes.get(nodeName).updateReport(report);
             }
+        } finally {
+            locks.unlock();
+        }
+        editLog.logSync();
+        return "ACK from MetaServer for " + nodeName;
+    }
 
-            // 发送 ACK 确认信息
-            out.writeInt(0); // 成功代码
-            out.writeUTF("ACK from MetaServer for " + nodeName);
-            out.flush();
+    // 会话请求的指标快照，自服务器启动起累计
+    public ServerStats getStats() {
+        return metrics.snapshot();
+    }
+
+    // 在后台线程中启动会话服务、心跳服务与副本监控，用于在同一进程内启动整个集群
+    public void start() {
+        Thread server = new Thread(this::serve, "metadata-server");
+        server.setDaemon(true);
+        server.start();
+    }
+
+    // 停止接收新连接与心跳，关闭编辑日志与命名空间存储
+    public void shutdown() {
+        isRunning = false;
+        try {
+            serverSocket.close();
         } catch (IOException e) {
-            log.error("Failed to handle heartBeat: " + e.getMessage());
+            log.error("Failed to close server socket: " + e.getMessage());
+        }
+        heartbeats.stop();
+        if (monitorThread != null) {
+            monitorThread.interrupt();
+        }
+        stopThrift();
+        handlerPool.shutdown();
+        metrics.unregisterMBeans();
+        try {
+            editLog.close();
+            namespace.close();
+        } catch (IOException e) {
+            log.error("Failed to close namespace: " + e.getMessage());
         }
     }
 
-
     public static void main(String[] args) {
         MetadataServer metaServer = new MetadataServer();
+        try {
+            metaServer.serveThrift();
+        } catch (TTransportException e) {
+            log.error("Failed to start thrift metadata service: " + e.getMessage(), e);
+            System.exit(1);
+        }
+        metaServer.startCheckpointer();
         metaServer.serve();
     }
 
@@ -0,0 +1,151 @@
+package cn.scs.impl;
+
+import cn.scs.common.Config;
+import cn.scs.common.FileInfo;
+import cn.scs.common.MetadataThrift;
+import cn.scs.common.StorageReport;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * MetadataService 的 Thrift 处理器，把 RPC 调用转发给 MetadataServer。
+ * 由 TThreadedSelectorServer 的工作线程并发调用，线程安全由 MetadataServer 保证。
+ */
+public class MetadataThriftProcessor implements TProcessor {
+    private static Logger log = LogManager.getLogger(MetadataThriftProcessor.class);
+
+    private final MetadataServer server;
+
+    public MetadataThriftProcessor(MetadataServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void process(TProtocol in, TProtocol out) throws TException {
+        TMessage msg = in.readMessageBegin();
+        Object[] args;
+        try {
+            switch (msg.name) {
+                case MetadataThrift.CREATE_FILE:
+                    args = readArgs(in, 3);
+                    FileInfo created = server.createFile((String) args[1], (String) args[2], args[3] != null && (Boolean) args[3]);
+                    writeFileInfoResult(out, msg, created);
+                    break;
+                case MetadataThrift.RENAME_FILE:
+                    args = readArgs(in, 2);
+                    server.rename((String) args[1], (String) args[2]);
+                    writeVoidResult(out, msg);
+                    break;
+                case MetadataThrift.DEL_FILE:
+                    args = readArgs(in, 2);
+                    server.delete((String) args[1], (String) args[2]);
+                    writeVoidResult(out, msg);
+                    break;
+                case MetadataThrift.LIST_FILE:
+                    args = readArgs(in, 1);
+                    writeStringListResult(out, msg, server.list((String) args[1]));
+                    break;
+                case MetadataThrift.GET_FILE_INFO:
+                    args = readArgs(in, 1);
+                    FileInfo fileInfo = server.getFileInfo((String) args[1]);
+                    if (fileInfo == null) {
+                        throw new IOException("File/Directory not found: " + args[1]);
+                    }
+                    writeFileInfoResult(out, msg, fileInfo);
+                    break;
+                case MetadataThrift.HEART_BEAT:
+                    args = readArgs(in, 6);
+                    StorageReport report = null;
+                    if (args[2] != null) { // 旧版数据服务器只发送节点名
+                        report = new StorageReport((Long) args[2], (Long) args[3], (Long) args[4],
+                                args[5] == null ? 0 : (Integer) args[5], args[6] == null ? 0L : (Long) args[6]);
+                    }
+                    String ack = server.registerHeartBeat((String) args[1], Config.DATA_SERVRE_PORT, report);
+                    beginResult(out, msg);
+                    MetadataThrift.writeStringField(out, "success", MetadataThrift.SUCCESS_FIELD, ack);
+                    endResult(out);
+                    break;
+                case MetadataThrift.GET_REPLICAS:
+                    args = readArgs(in, 1);
+                    writeStringListResult(out, msg, server.getReplicas((String) args[1]));
+                    break;
+                default:
+                    TProtocolUtil.skip(in, TType.STRUCT);
+                    in.readMessageEnd();
+                    log.warn("Unknown thrift method: " + msg.name);
+                    writeApplicationException(out, msg, new TApplicationException(
+                            TApplicationException.UNKNOWN_METHOD, "Invalid method name: '" + msg.name + "'"));
+            }
+        } catch (IOException e) {
+            // 业务异常通过 MetaException 返回给客户端
+            beginResult(out, msg);
+            out.writeFieldBegin(new TField("e", TType.STRUCT, MetadataThrift.EXCEPTION_FIELD));
+            MetadataThrift.writeMetaException(out, -1, e.getMessage());
+            out.writeFieldEnd();
+            endResult(out);
+        } catch (RuntimeException e) {
+            log.error("Error processing thrift call " + msg.name + ": " + e.getMessage(), e);
+            writeApplicationException(out, msg, new TApplicationException(
+                    TApplicationException.INTERNAL_ERROR, "Internal error processing " + msg.name));
+        }
+    }
+
+    private Object[] readArgs(TProtocol in, int maxFieldId) throws TException {
+        Object[] args = MetadataThrift.readArgs(in, maxFieldId);
+        in.readMessageEnd();
+        return args;
+    }
+
+    private void beginResult(TProtocol out, TMessage msg) throws TException {
+        out.writeMessageBegin(new TMessage(msg.name, TMessageType.REPLY, msg.seqid));
+        out.writeStructBegin(new TStruct(msg.name + "_result"));
+    }
+
+    private void endResult(TProtocol out) throws TException {
+        out.writeFieldStop();
+        out.writeStructEnd();
+        out.writeMessageEnd();
+        out.getTransport().flush();
+    }
+
+    private void writeVoidResult(TProtocol out, TMessage msg) throws TException {
+        beginResult(out, msg);
+        endResult(out);
+    }
+
+    private void writeFileInfoResult(TProtocol out, TMessage msg, FileInfo fileInfo) throws TException {
+        beginResult(out, msg);
+        out.writeFieldBegin(new TField("success", TType.STRUCT, MetadataThrift.SUCCESS_FIELD));
+        MetadataThrift.writeFileInfo(out, fileInfo);
+        out.writeFieldEnd();
+        endResult(out);
+    }
+
+    private void writeStringListResult(TProtocol out, TMessage msg, List<String> values) throws TException {
+        beginResult(out, msg);
+        out.writeFieldBegin(new TField("success", TType.LIST, MetadataThrift.SUCCESS_FIELD));
+        MetadataThrift.writeStringList(out, values);
+        out.writeFieldEnd();
+        endResult(out);
+    }
+
+    private void writeApplicationException(TProtocol out, TMessage msg, TApplicationException e) throws TException {
+        out.writeMessageBegin(new TMessage(msg.name, TMessageType.EXCEPTION, msg.seqid));
+        e.write(out);
+        out.writeMessageEnd();
+        out.getTransport().flush();
+    }
+}
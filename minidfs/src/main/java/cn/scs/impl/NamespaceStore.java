@@ -0,0 +1,46 @@
+package cn.scs.impl;
+
+import cn.scs.common.FileInfo;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 元数据服务器的命名空间存储。MetadataServer 负责路径校验、权限与加锁，
+ * 存储只负责按路径查找 inode、维护父子关系以及持久化。
+ */
+public interface NamespaceStore extends Closeable {
+
+    // 按路径查找文件或目录，不存在时返回 null
+    FileInfo get(String path) throws IOException;
+
+    // 在 parent 目录下创建文件或目录
+    FileInfo create(FileInfo parent, String path, String owner, boolean isDirectory) throws IOException;
+
+    // 持久化文件属性（大小、副本位置等）的修改
+    void update(FileInfo fileInfo) throws IOException;
+
+    // 删除文件或目录，目录连同子树一起删除
+    void delete(FileInfo fileInfo) throws IOException;
+
+    // 把文件或目录移动到 newParent 下的 newPath
+    void rename(FileInfo fileInfo, FileInfo newParent, String newPath) throws IOException;
+
+    // 列出目录下的直接子项
+    List<FileInfo> list(FileInfo directory) throws IOException;
+
+    // 按文件名顺序列出名字在 startAfter 之后的至多 limit 个子项，startAfter 为 null 时从头开始
+    List<FileInfo> list(FileInfo directory, String startAfter, int limit) throws IOException;
+
+    // 检查点：把命名空间写入镜像；自身已持久化的存储可以只写入快照的引用
+    void saveImage(DataOutputStream out) throws IOException;
+
+    // 启动时从镜像恢复命名空间，之后回放镜像事务号之后的编辑日志
+    void loadImage(DataInputStream in) throws IOException;
+
+    // 启动时没有镜像：清空到只剩根目录，从头回放编辑日志
+    void clear() throws IOException;
+}
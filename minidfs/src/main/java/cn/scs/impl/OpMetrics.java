@@ -0,0 +1,119 @@
+package cn.scs.impl;
+
+import cn.scs.common.LatencyHistogram;
+import cn.scs.common.ServerStats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一种操作的指标：次数、失败数、在途数、收发字节数与延迟直方图。
+ * 每个请求调用一次 begin 和一次 end，中间可以多次累加字节数；各方法都不加锁。
+ */
+public class OpMetrics implements OpMetricsMBean {
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    OpMetrics(String name) {
+        this.name = name;
+    }
+
+    // 开始处理一个请求，返回的开始时间交给 end
+    public long begin() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void end(long startNanos) {
+        latency.record((System.nanoTime() - startNanos) / 1000);
+        inFlight.decrementAndGet();
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    public void addErrors(int count) {
+        if (count > 0) {
+            errors.add(count);
+        }
+    }
+
+    public void addBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void addBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ServerStats.OpStats snapshot() {
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        return new ServerStats.OpStats(name, snapshot.getCount(), errors.sum(), inFlight.get(),
+                bytesIn.sum(), bytesOut.sum(), snapshot);
+    }
+
+    @Override
+    public long getCount() {
+        return latency.snapshot().getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getMeanMicros() {
+        return latency.snapshot().getMeanMicros();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return latency.snapshot().percentile(0.5);
+    }
+
+    @Override
+    public long getP90Micros() {
+        return latency.snapshot().percentile(0.9);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return latency.snapshot().percentile(0.99);
+    }
+
+    @Override
+    public long getP999Micros() {
+        return latency.snapshot().percentile(0.999);
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return latency.snapshot().getMaxMicros();
+    }
+}
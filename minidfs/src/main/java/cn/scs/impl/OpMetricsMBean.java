@@ -0,0 +1,28 @@
+package cn.scs.impl;
+
+/**
+ * 单个操作在 JMX 上的属性，延迟单位为微秒，均自服务器启动起累计
+ */
+public interface OpMetricsMBean {
+    long getCount();
+
+    long getErrors();
+
+    int getInFlight();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getMeanMicros();
+
+    long getP50Micros();
+
+    long getP90Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+}
@@ -0,0 +1,128 @@
+package cn.scs.impl;
+
+import cn.scs.common.Span;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 命名空间的分段路径锁。修改操作对目标路径的所有祖先加读锁、对目标路径本身加写锁：
+ * 同一目录下不同文件的修改互不阻塞，而删除或重命名一个目录会与其子树中的任何修改互斥。
+ * 查询不加锁，直接读取并发安全的命名空间存储。
+ *
+ * 路径按哈希映射到固定数量的锁上，每次加锁前先合并出涉及的锁（同一把锁既要读又要写时取写），
+ * 再按编号从小到大依次加锁，因此多个操作之间不会死锁。
+ * 另有一把命名空间级的锁：普通修改共享持有，检查点独占持有，以得到与日志事务号一致的镜像。
+ */
+class PathLockManager {
+
+    private final ReentrantReadWriteLock namespaceLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock[] stripes;
+
+    PathLockManager(int stripeCount) {
+        stripes = new ReentrantReadWriteLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * 已持有的一组锁，调用方在 finally 中调用 unlock
+     */
+    class Locked {
+        private final List<ReentrantReadWriteLock.ReadLock> readLocks = new ArrayList<>();
+        private final List<ReentrantReadWriteLock.WriteLock> writeLocks = new ArrayList<>();
+
+        void unlock() {
+            for (ReentrantReadWriteLock.WriteLock lock : writeLocks) {
+                lock.unlock();
+            }
+            for (ReentrantReadWriteLock.ReadLock lock : readLocks) {
+                lock.unlock();
+            }
+            namespaceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 对 readPaths 加读锁、对 writePaths 加写锁
+     */
+    Locked lock(Collection<String> readPaths, Collection<String> writePaths) {
+        TreeMap<Integer, Boolean> wanted = new TreeMap<>(); // 锁编号 -> 是否需要写锁
+        for (String path : readPaths) {
+            wanted.putIfAbsent(stripeOf(path), false);
+        }
+        for (String path : writePaths) {
+            wanted.put(stripeOf(path), true);
+        }
+
+        // 追踪中记为等锁的时间
+        try (Span span = Span.current().child("lock").tag("stripes", wanted.size())) {
+            namespaceLock.readLock().lock();
+            Locked locked = new Locked();
+            for (Integer stripe : wanted.keySet()) {
+                if (wanted.get(stripe)) {
+                    stripes[stripe].writeLock().lock();
+                    locked.writeLocks.add(stripes[stripe].writeLock());
+                } else {
+                    stripes[stripe].readLock().lock();
+                    locked.readLocks.add(stripes[stripe].readLock());
+                }
+            }
+            return locked;
+        }
+    }
+
+    /**
+     * 修改 targets 所需的锁：祖先加读锁、目标加写锁。
+     * lockAncestorsForWrite 为 true 时除根目录外的祖先也加写锁，用于需要补建缺失父目录的操作。
+     */
+    Locked lockForMutation(boolean lockAncestorsForWrite, String... targets) {
+        List<String> readPaths = new ArrayList<>();
+        List<String> writePaths = new ArrayList<>();
+        for (String target : targets) {
+            for (String ancestor : ancestors(target)) {
+                if (lockAncestorsForWrite && !"/".equals(ancestor)) {
+                    writePaths.add(ancestor);
+                } else {
+                    readPaths.add(ancestor);
+                }
+            }
+            writePaths.add(target);
+        }
+        return lock(readPaths, writePaths);
+    }
+
+    // 检查点期间独占命名空间，等待进行中的修改结束并阻止新的修改
+    void lockNamespace() {
+        namespaceLock.writeLock().lock();
+    }
+
+    void unlockNamespace() {
+        namespaceLock.writeLock().unlock();
+    }
+
+    // 路径的所有祖先，从根目录开始，例如 /a/b/c -> [/, /a, /a/b]
+    static List<String> ancestors(String path) {
+        List<String> ancestors = new ArrayList<>();
+        if ("/".equals(path)) {
+            return ancestors;
+        }
+        ancestors.add("/");
+        int index = path.indexOf('/', 1);
+        while (index > 0) {
+            ancestors.add(path.substring(0, index));
+            index = path.indexOf('/', index + 1);
+        }
+        return ancestors;
+    }
+
+    private int stripeOf(String path) {
+        int h = path.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % stripes.length;
+    }
+}
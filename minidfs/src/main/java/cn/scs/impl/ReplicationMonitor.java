@@ -0,0 +1,314 @@
+package cn.scs.impl;
+
+import cn.scs.common.BlockCommand;
+import cn.scs.common.BlockInfo;
+import cn.scs.common.Config;
+import cn.scs.common.FileInfo;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 失联检测与副本恢复。后台线程每秒检查一次：
+ * 超过 TIMEOUT_OF_HEARTBEATS 秒没有心跳的数据服务器标记为失联，不再参与副本放置；
+ * 有节点失联时遍历命名空间，把存活副本数低于 REPLICATION 的块放入优先队列，存活副本越少越先恢复。
+ *
+ * 恢复时从一个已汇报持有该块的存活副本出发，以流水线方式复制到放置策略选出的新节点，
+ * 命令随源节点的下一次心跳下发；新节点在块汇报中出现该块后，把它写入文件的副本位置并去掉失联的位置。
+ * 每个节点同时作为源或目标参与的恢复数不超过 REPLICATION_MAX_STREAMS_PER_NODE，
+ * 恢复流量不会挤占前台读写；超过 REPLICATION_TIMEOUT_MS 仍未完成的恢复重新排队。
+ * 队列与进行中的恢复只由监控线程访问。
+ */
+class ReplicationMonitor implements Runnable {
+    private static Logger log = LogManager.getLogger(ReplicationMonitor.class);
+
+    private static final long CHECK_INTERVAL_MS = 1000L;
+
+    private final MetadataServer server;
+    private final HeartbeatManager heartbeats;
+    private final BlockPlacementPolicy placementPolicy;
+    private final long startTime = System.currentTimeMillis();
+
+    // 失联节点的 host:port
+    private final Set<String> deadLocations = ConcurrentHashMap.newKeySet();
+    // 等待恢复的块，存活副本少的在前
+    private final PriorityQueue<UnderReplicatedBlock> queue = new PriorityQueue<>();
+    private final Set<Long> queuedBlocks = new HashSet<>();
+    // 已下发复制命令、等待目标节点汇报的块
+    private final Map<Long, PendingReplication> pending = new HashMap<>();
+    // 各节点正在参与的恢复数
+    private final Map<String, Integer> streams = new HashMap<>();
+    private long sequence;
+
+    ReplicationMonitor(MetadataServer server, HeartbeatManager heartbeats, BlockPlacementPolicy placementPolicy) {
+        this.server = server;
+        this.heartbeats = heartbeats;
+        this.placementPolicy = placementPolicy;
+    }
+
+    private static class UnderReplicatedBlock implements Comparable<UnderReplicatedBlock> {
+        final String path;
+        final long blockId;
+        final int liveReplicas;
+        final long sequence; // 同样的存活副本数按入队顺序
+
+        UnderReplicatedBlock(String path, long blockId, int liveReplicas, long sequence) {
+            this.path = path;
+            this.blockId = blockId;
+            this.liveReplicas = liveReplicas;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(UnderReplicatedBlock other) {
+            if (liveReplicas != other.liveReplicas) {
+                return Integer.compare(liveReplicas, other.liveReplicas);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class PendingReplication {
+        final String path;
+        final long blockId;
+        final String source;
+        final List<String> targets;
+        final long startTime = System.currentTimeMillis();
+
+        PendingReplication(String path, long blockId, String source, List<String> targets) {
+            this.path = path;
+            this.blockId = blockId;
+            this.source = source;
+            this.targets = targets;
+        }
+    }
+
+    boolean isAlive(String location) {
+        return !deadLocations.contains(location);
+    }
+
+    // 可以放置副本的数据服务器：本次启动后发来过心跳且没有失联。
+    // 从镜像恢复或预先登记、但还没有心跳的节点不一定可达，在失联判定前也不参与放置
+    List<StorageNode> liveNodes() {
+        List<StorageNode> nodes = new ArrayList<>();
+        for (Map.Entry<String, StorageNode> entry : server.getStorageNodes().entrySet()) {
+            StorageNode node = entry.getValue();
+            if (server.getLastHeartbeat(entry.getKey()) != null && isAlive(locationOf(node))) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(CHECK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (checkHeartbeats()) {
+                    scanNamespace();
+                }
+                checkPending();
+                scheduleReplications();
+            } catch (IOException | RuntimeException e) {
+                log.error("Replication monitor error: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // 更新各节点的存活状态，返回是否有节点新近失联
+    private boolean checkHeartbeats() {
+        long now = System.currentTimeMillis();
+        boolean newlyDead = false;
+        for (Map.Entry<String, StorageNode> entry : server.getStorageNodes().entrySet()) {
+            Long lastHeartbeat = server.getLastHeartbeat(entry.getKey());
+            // 元数据服务器启动后还没有心跳的节点从启动时刻开始计时
+            long last = lastHeartbeat == null ? startTime : lastHeartbeat;
+            String location = locationOf(entry.getValue());
+            if (now - last > Config.TIMEOUT_OF_HEARTBEATS * 1000L) {
+                if (deadLocations.add(location)) {
+                    log.warn("DataServer " + entry.getKey() + " (" + location + ") is dead, no heartbeat for " + (now - last) + " ms");
+                    newlyDead = true;
+                }
+            } else if (deadLocations.remove(location)) {
+                log.info("DataServer " + entry.getKey() + " (" + location + ") is alive again");
+            }
+        }
+        return newlyDead;
+    }
+
+    // 找出存活副本不足的块
+    private void scanNamespace() throws IOException {
+        int before = queuedBlocks.size();
+        server.visitFiles(fileInfo -> {
+            for (BlockInfo block : fileInfo.getBlocks()) {
+                int live = countLive(block.getLocations());
+                if (live < Config.REPLICATION && !pending.containsKey(block.getBlockId())) {
+                    enqueue(fileInfo.getPath(), block.getBlockId(), live);
+                }
+            }
+        });
+        log.info("Namespace scan found " + (queuedBlocks.size() - before) + " under-replicated blocks, "
+                + queuedBlocks.size() + " queued, " + pending.size() + " in progress");
+    }
+
+    private void enqueue(String path, long blockId, int liveReplicas) {
+        if (queuedBlocks.add(blockId)) {
+            queue.add(new UnderReplicatedBlock(path, blockId, liveReplicas, sequence++));
+        }
+    }
+
+    // 目标节点都已汇报持有该块时登记新副本，超时则把已完成的部分登记后重新排队
+    private void checkPending() throws IOException {
+        long now = System.currentTimeMillis();
+        Iterator<PendingReplication> it = pending.values().iterator();
+        while (it.hasNext()) {
+            PendingReplication replication = it.next();
+            List<String> done = new ArrayList<>();
+            for (String target : replication.targets) {
+                if (heartbeats.getReportedBlocks(target).contains(replication.blockId)) {
+                    done.add(target);
+                }
+            }
+            boolean completed = done.size() == replication.targets.size();
+            boolean timedOut = now - replication.startTime > Config.REPLICATION_TIMEOUT_MS;
+            if (!completed && !timedOut) {
+                continue;
+            }
+            it.remove();
+            release(replication.source);
+            for (String target : replication.targets) {
+                release(target);
+            }
+            int live = done.isEmpty() ? -1 : server.updateBlockLocations(replication.path, replication.blockId, done, deadLocations);
+            if (completed) {
+                log.info("Replicated block " + replication.blockId + " of " + replication.path + " to " + done);
+            } else {
+                log.warn("Replication of block " + replication.blockId + " to " + replication.targets + " timed out");
+            }
+            if (!completed || (live >= 0 && live < Config.REPLICATION)) {
+                enqueue(replication.path, replication.blockId, Math.max(live, 0));
+            }
+        }
+    }
+
+    // 按优先级为排队的块下发复制命令，受每个节点的并发上限约束，暂时无法调度的块留在队列中
+    private void scheduleReplications() throws IOException {
+        List<UnderReplicatedBlock> deferred = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            UnderReplicatedBlock item = queue.poll();
+            queuedBlocks.remove(item.blockId);
+            BlockInfo block = findBlock(item.path, item.blockId);
+            if (block == null) {
+                continue; // 文件已被删除或改名，改名后的文件在下次扫描时重新发现
+            }
+            List<String> live = new ArrayList<>();
+            for (String location : block.getLocations()) {
+                if (isAlive(location)) {
+                    live.add(location);
+                }
+            }
+            int needed = Config.REPLICATION - live.size();
+            if (needed <= 0) {
+                continue;
+            }
+            if (live.isEmpty()) {
+                log.error("Block " + item.blockId + " of " + item.path + " has no live replica, cannot recover");
+                continue;
+            }
+
+            // 源节点：已汇报持有该块、恢复数未满的存活副本中最空闲的一个
+            String source = null;
+            for (String location : live) {
+                if (streamsOf(location) < Config.REPLICATION_MAX_STREAMS_PER_NODE
+                        && heartbeats.getReportedBlocks(location).contains(item.blockId)
+                        && (source == null || streamsOf(location) < streamsOf(source))) {
+                    source = location;
+                }
+            }
+            List<StorageNode> candidates = new ArrayList<>();
+            for (StorageNode node : liveNodes()) {
+                String location = locationOf(node);
+                if (!block.getLocations().contains(location) && streamsOf(location) < Config.REPLICATION_MAX_STREAMS_PER_NODE) {
+                    candidates.add(node);
+                }
+            }
+            if (source == null || candidates.isEmpty()) {
+                deferred.add(item);
+                continue;
+            }
+            List<String> targets = new ArrayList<>();
+            for (StorageNode node : placementPolicy.chooseTargets(candidates, needed, block.getNumBytes())) {
+                targets.add(locationOf(node));
+            }
+            if (targets.isEmpty()) {
+                deferred.add(item);
+                continue;
+            }
+            heartbeats.queueCommand(source, BlockCommand.replicate(item.blockId, targets));
+            pending.put(item.blockId, new PendingReplication(item.path, item.blockId, source, targets));
+            acquire(source);
+            for (String target : targets) {
+                acquire(target);
+            }
+            log.info("Scheduled replication of block " + item.blockId + " (" + live.size() + " live) from " + source + " to " + targets);
+        }
+        for (UnderReplicatedBlock item : deferred) {
+            enqueue(item.path, item.blockId, item.liveReplicas);
+        }
+    }
+
+    private BlockInfo findBlock(String path, long blockId) throws IOException {
+        FileInfo fileInfo = server.lookup(path);
+        if (fileInfo == null || fileInfo.isDirectory()) {
+            return null;
+        }
+        for (BlockInfo block : fileInfo.getBlocks()) {
+            if (block.getBlockId() == blockId) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    private int countLive(List<String> locations) {
+        int live = 0;
+        for (String location : locations) {
+            if (isAlive(location)) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    private int streamsOf(String location) {
+        Integer count = streams.get(location);
+        return count == null ? 0 : count;
+    }
+
+    private void acquire(String location) {
+        streams.merge(location, 1, Integer::sum);
+    }
+
+    private void release(String location) {
+        streams.computeIfPresent(location, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private static String locationOf(StorageNode node) {
+        return node.getHost() + ":" + node.getPort();
+    }
+}
@@ -0,0 +1,422 @@
+package cn.scs.impl;
+
+import cn.scs.common.BlockInfo;
+import cn.scs.common.FileInfo;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.rocksdb.Checkpoint;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 RocksDB 的持久化命名空间。
+ * 每个 inode 以 [8 字节父 inode 编号][文件名 UTF-8] 为键存储，同一目录下的子项在键空间中连续且按名字有序，
+ * 列目录即一次前缀扫描；重命名目录只需移动目录自身这一个键。
+ * 堆内只保留一个有界的近似 LRU 缓存（InodeCache，读取不加锁）存放热点 inode，命名空间大小不再受堆大小限制，重启时也无需重建。
+ * 所有修改都通过 WriteBatch 原子提交。
+ *
+ * 编辑日志的回放并不是对任意状态都幂等的（例如先创建后重命名的文件会被重新创建），
+ * 因此检查点时用 RocksDB Checkpoint 保存一份与镜像事务号一致的快照，启动时先恢复到快照再回放其后的日志。
+ */
+public class RocksDBNamespaceStore implements NamespaceStore {
+    private static Logger log = LogManager.getLogger(RocksDBNamespaceStore.class);
+
+    static {
+        RocksDB.loadLibrary();
+    }
+
+    public static final long ROOT_ID = 1L;
+    private static final int ID_BYTES = 8;
+    private static final byte[] ROOT_KEY = key(0L, "");
+    // 保留键：下一个可分配的 inode 编号，不会与任何目录前缀冲突
+    private static final byte[] NEXT_INODE_KEY = key(-1L, "nextInodeId");
+    private static final String CHECKPOINT_SUFFIX = ".ckpt-";
+
+    private final Options options;
+    private final WriteOptions writeOptions;
+    private final String path;
+    private RocksDB db;
+    private String lastCheckpoint; // 最近一次检查点快照的目录名
+    private final AtomicLong nextInodeId = new AtomicLong(ROOT_ID + 1);
+    private static final long INODE_ID_BATCH = 1024;
+    private long reservedInodeId = ROOT_ID + 1; // 已持久化的编号上界，分配出去的编号都小于它
+    private final InodeCache cache; // 路径到 inode 的缓存
+
+    public RocksDBNamespaceStore(String path, int cacheSize, boolean sync) throws IOException {
+        this.path = path;
+        File dir = new File(path);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create namespace directory: " + path);
+        }
+        options = new Options().setCreateIfMissing(true);
+        writeOptions = new WriteOptions().setSync(sync);
+        cache = new InodeCache(cacheSize);
+        open();
+    }
+
+    private void open() throws IOException {
+        try {
+            db = RocksDB.open(options, path);
+            nextInodeId.set(ROOT_ID + 1);
+            reservedInodeId = ROOT_ID + 1;
+            byte[] next = db.get(NEXT_INODE_KEY);
+            if (next != null) {
+                nextInodeId.set(ByteBuffer.wrap(next).getLong());
+                reservedInodeId = nextInodeId.get();
+            }
+            if (db.get(ROOT_KEY) == null) {
+                // 初始化根目录
+                FileInfo root = new FileInfo(null, "/", true, 0L, "root", 0L);
+                root.setInodeId(ROOT_ID);
+                db.put(writeOptions, ROOT_KEY, encode(root));
+                log.info("Initialized new namespace at " + path);
+            } else {
+                log.info("Loaded namespace from " + path + ", next inode id " + nextInodeId.get());
+            }
+        } catch (RocksDBException e) {
+            throw new IOException("Failed to open namespace store " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public FileInfo get(String path) throws IOException {
+        FileInfo cached = cache.get(path);
+        if (cached != null) {
+            return cached;
+        }
+        // 在解析父目录之前取得代数，期间父目录被重命名或删除时同样不会填入旧路径
+        long generation = cache.generation();
+        byte[] key;
+        long parentId;
+        if ("/".equals(path)) {
+            key = ROOT_KEY;
+            parentId = 0L;
+        } else {
+            // 逐级解析父目录，热点目录会留在缓存中
+            FileInfo parent = get(parentPath(path));
+            if (parent == null || !parent.isDirectory()) {
+                return null;
+            }
+            parentId = parent.getInodeId();
+            key = key(parentId, path.substring(path.lastIndexOf('/') + 1));
+        }
+        try {
+            byte[] value = db.get(key);
+            if (value == null) {
+                return null;
+            }
+            FileInfo fileInfo = decode(value, path, parentId);
+            // 读取不加路径锁：期间修改者可能已放入更新的对象，不能用刚读到的旧值覆盖它；
+            // 也可能已删除或重命名了该路径，此时 fill 不会把旧值留在缓存中
+            return cache.fill(path, fileInfo, generation);
+        } catch (RocksDBException e) {
+            throw new IOException("Failed to read inode " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public FileInfo create(FileInfo parent, String path, String owner, boolean isDirectory) throws IOException {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        FileInfo fileInfo = new FileInfo(name, path, isDirectory, -1, owner, System.currentTimeMillis());
+        fileInfo.setParentId(parent.getInodeId());
+        try {
+            fileInfo.setInodeId(allocateInodeId());
+            db.put(writeOptions, key(parent.getInodeId(), name), encode(fileInfo));
+        } catch (RocksDBException e) {
+            throw new IOException("Failed to create " + path + ": " + e.getMessage(), e);
+        }
+        cache.put(path, fileInfo);
+        return fileInfo;
+    }
+
+    /**
+     * 分配 inode 编号。不同目录下的创建可以并发执行，因此不逐个持久化下一个编号，
+     * 而是一次预留 INODE_ID_BATCH 个并持久化上界（单调递增），重启后从上界继续分配。
+     */
+    private long allocateInodeId() throws RocksDBException {
+        long id = nextInodeId.getAndIncrement();
+        synchronized (this) {
+            if (id >= reservedInodeId) {
+                reservedInodeId = id + INODE_ID_BATCH;
+                db.put(writeOptions, NEXT_INODE_KEY, ByteBuffer.allocate(ID_BYTES).putLong(reservedInodeId).array());
+            }
+        }
+        return id;
+    }
+
+    @Override
+    public void update(FileInfo fileInfo) throws IOException {
+        try {
+            db.put(writeOptions, keyOf(fileInfo), encode(fileInfo));
+        } catch (RocksDBException e) {
+            throw new IOException("Failed to update " + fileInfo.getPath() + ": " + e.getMessage(), e);
+        }
+        // 缓存中可能是并发读取时解码的另一个对象，替换为刚写入的这个，后续修改才不会基于旧值
+        cache.put(fileInfo.getPath(), fileInfo);
+    }
+
+    @Override
+    public void delete(FileInfo fileInfo) throws IOException {
+        try (WriteBatch batch = new WriteBatch()) {
+            if (fileInfo.isDirectory()) {
+                deleteChildren(fileInfo.getInodeId(), batch);
+            }
+            batch.delete(keyOf(fileInfo));
+            db.write(writeOptions, batch);
+        } catch (RocksDBException e) {
+            throw new IOException("Failed to delete " + fileInfo.getPath() + ": " + e.getMessage(), e);
+        }
+        invalidate(fileInfo);
+    }
+
+    // 把目录下所有子孙的键加入 batch
+    private void deleteChildren(long dirId, WriteBatch batch) throws IOException, RocksDBException {
+        byte[] prefix = key(dirId, "");
+        try (RocksIterator it = db.newIterator()) {
+            for (it.seek(prefix); it.isValid() && hasPrefix(it.key(), prefix); it.next()) {
+                batch.delete(it.key());
+                FileInfo child = decode(it.value(), null, dirId);
+                if (child.isDirectory()) {
+                    deleteChildren(child.getInodeId(), batch);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void rename(FileInfo fileInfo, FileInfo newParent, String newPath) throws IOException {
+        String newName = newPath.substring(newPath.lastIndexOf('/') + 1);
+        String oldPath = fileInfo.getPath();
+        try (WriteBatch batch = new WriteBatch()) {
+            batch.delete(keyOf(fileInfo));
+            fileInfo.setParentId(newParent.getInodeId());
+            fileInfo.setFileName(newName);
+            fileInfo.setPath(newPath);
+            // 子项以目录自身的 inode 编号为前缀，移动目录不需要改写子树
+            batch.put(keyOf(fileInfo), encode(fileInfo));
+            db.write(writeOptions, batch);
+        } catch (RocksDBException e) {
+            throw new IOException("Failed to rename to " + newPath + ": " + e.getMessage(), e);
+        }
+        // 写入之后再失效旧路径，期间并发读到旧键的读者不会把它留在缓存中
+        invalidate(oldPath, fileInfo.isDirectory());
+        cache.put(newPath, fileInfo);
+    }
+
+    @Override
+    public List<FileInfo> list(FileInfo directory) throws IOException {
+        return list(directory, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 从 [父 inode][startAfter] 处开始前缀扫描，子项按文件名的 UTF-8 字节序返回
+     */
+    @Override
+    public List<FileInfo> list(FileInfo directory, String startAfter, int limit) throws IOException {
+        List<FileInfo> children = new ArrayList<>();
+        byte[] prefix = key(directory.getInodeId(), "");
+        byte[] start = startAfter == null ? prefix : key(directory.getInodeId(), startAfter);
+        String dirPath = directory.getPath();
+        try (RocksIterator it = db.newIterator()) {
+            for (it.seek(start); it.isValid() && hasPrefix(it.key(), prefix) && children.size() < limit; it.next()) {
+                byte[] key = it.key();
+                if (startAfter != null && Arrays.equals(key, start)) {
+                    continue;
+                }
+                String name = new String(key, ID_BYTES, key.length - ID_BYTES, StandardCharsets.UTF_8);
+                String path = "/".equals(dirPath) ? "/" + name : dirPath + "/" + name;
+                children.add(decode(it.value(), path, directory.getInodeId()));
+            }
+        }
+        return children;
+    }
+
+    /**
+     * 在数据目录旁创建一份 RocksDB 快照（SST 以硬链接方式共享），镜像中只记录快照目录名。
+     * 只保留当前镜像引用的上一个快照和新快照，更早的快照删除。
+     */
+    @Override
+    public void saveImage(DataOutputStream out) throws IOException {
+        File dir = new File(path).getAbsoluteFile();
+        String name = dir.getName() + CHECKPOINT_SUFFIX + System.currentTimeMillis();
+        try (Checkpoint checkpoint = Checkpoint.create(db)) {
+            checkpoint.createCheckpoint(new File(dir.getParentFile(), name).getPath());
+        } catch (RocksDBException e) {
+            throw new IOException("Failed to checkpoint namespace store: " + e.getMessage(), e);
+        }
+        out.writeUTF(name);
+        File[] snapshots = dir.getParentFile().listFiles((d, n) -> n.startsWith(dir.getName() + CHECKPOINT_SUFFIX));
+        if (snapshots != null) {
+            for (File snapshot : snapshots) {
+                if (!snapshot.getName().equals(name) && !snapshot.getName().equals(lastCheckpoint)) {
+                    deleteRecursively(snapshot);
+                }
+            }
+        }
+        lastCheckpoint = name;
+    }
+
+    /**
+     * 用镜像引用的快照替换当前数据目录，之后由编辑日志把命名空间推进到最新
+     */
+    @Override
+    public void loadImage(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        File dir = new File(path).getAbsoluteFile();
+        File snapshot = new File(dir.getParentFile(), name);
+        if (!snapshot.isDirectory()) {
+            throw new IOException("Namespace snapshot referenced by the image is missing: " + snapshot);
+        }
+        db.close();
+        deleteRecursively(dir);
+        if (!dir.mkdirs()) {
+            throw new IOException("Failed to recreate namespace directory: " + dir);
+        }
+        File[] files = snapshot.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            File target = new File(dir, file.getName());
+            if (file.getName().endsWith(".sst")) {
+                Files.createLink(target.toPath(), file.toPath()); // SST 文件不可变，可以共享
+            } else {
+                Files.copy(file.toPath(), target.toPath());
+            }
+        }
+        cache.clear();
+        open();
+        lastCheckpoint = name;
+        log.info("Restored namespace store from snapshot " + snapshot);
+    }
+
+    /**
+     * 没有镜像时编辑日志包含全部历史，从空命名空间开始回放
+     */
+    @Override
+    public void clear() throws IOException {
+        db.close();
+        deleteRecursively(new File(path));
+        cache.clear();
+        open();
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    // 删除或移动后，缓存中该路径（目录则包括整个子树）的条目都已失效
+    private void invalidate(FileInfo fileInfo) {
+        invalidate(fileInfo.getPath(), fileInfo.isDirectory());
+    }
+
+    private void invalidate(String path, boolean isDirectory) {
+        cache.remove(path);
+        if (isDirectory) {
+            cache.removePrefix(path + "/");
+        }
+    }
+
+    @Override
+    public void close() {
+        db.close();
+        writeOptions.close();
+        options.close();
+    }
+
+    private static String parentPath(String path) {
+        int lastSeparatorIndex = path.lastIndexOf('/');
+        return lastSeparatorIndex <= 0 ? "/" : path.substring(0, lastSeparatorIndex);
+    }
+
+    private static byte[] keyOf(FileInfo fileInfo) {
+        if (fileInfo.getInodeId() == ROOT_ID) {
+            return ROOT_KEY;
+        }
+        return key(fileInfo.getParentId(), fileInfo.getFileName());
+    }
+
+    private static byte[] key(long parentId, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(ID_BYTES + nameBytes.length).putLong(parentId).put(nameBytes).array();
+    }
+
+    private static boolean hasPrefix(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encode(FileInfo fileInfo) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(fileInfo.getInodeId());
+        out.writeBoolean(fileInfo.isDirectory());
+        out.writeLong(fileInfo.getFileSize());
+        out.writeLong(fileInfo.getCreationTime());
+        out.writeUTF(fileInfo.getOwner() == null ? "" : fileInfo.getOwner());
+        out.writeUTF(fileInfo.getGroup() == null ? "" : fileInfo.getGroup());
+        out.writeUTF(fileInfo.getFileId());
+        out.writeInt(fileInfo.getLocations().size());
+        for (String location : fileInfo.getLocations()) {
+            out.writeUTF(location);
+        }
+        out.writeLong(fileInfo.getBlockSize());
+        BlockInfo.writeList(out, fileInfo.getBlocks());
+        return bytes.toByteArray();
+    }
+
+    private static FileInfo decode(byte[] value, String path, long parentId) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        long inodeId = in.readLong();
+        boolean isDirectory = in.readBoolean();
+        long fileSize = in.readLong();
+        long creationTime = in.readLong();
+        String owner = in.readUTF();
+        String group = in.readUTF();
+        String fileName = path == null || "/".equals(path) ? null : path.substring(path.lastIndexOf('/') + 1);
+        FileInfo fileInfo = new FileInfo(fileName, path, isDirectory, fileSize, owner, creationTime);
+        fileInfo.setGroup(group.isEmpty() ? null : group);
+        fileInfo.setFileId(in.readUTF());
+        int count = in.readInt();
+        List<String> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(in.readUTF());
+        }
+        fileInfo.setLocations(locations);
+        fileInfo.setBlockSize(in.readLong());
+        fileInfo.setBlocks(BlockInfo.readList(in));
+        fileInfo.setInodeId(inodeId);
+        fileInfo.setParentId(parentId);
+        return fileInfo;
+    }
+}
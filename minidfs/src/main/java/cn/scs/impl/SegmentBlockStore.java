@@ -0,0 +1,606 @@
+package cn.scs.impl;
+
+import cn.scs.common.Config;
+import cn.scs.common.DataChecksum;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 面向小块的日志结构块存储。不超过 DATA_SEGMENT_BLOCK_LIMIT 的块连同校验和作为一条记录追加到
+ * segments/seg_<编号> 段文件中，段写满 DATA_SEGMENT_SIZE 后滚动到新段；更大的块仍交给 FileBlockStore 单独成文件。
+ * 大量小块不再各占两个 inode，打开和读取一个小块只需在已打开的段文件上做一次定位读。
+ *
+ * 块记录为 [int 魔数][byte 1][long blockId][byte 校验类型][int bytesPerChecksum][long 数据长度][int 校验和长度][校验和][数据]，
+ * 删除记录为 [int 魔数][byte 2][long blockId]。内存中的索引记录每个块所在的段与偏移。
+ * 索引定期连同各段已覆盖的长度写入 segments.idx，启动时加载它，只需扫描各段在其后追加的记录，
+ * 末尾不完整的记录（写到一半时退出）被截掉。
+ *
+ * 后台线程定期把失效数据比例超过 DATA_COMPACT_GARBAGE_RATIO 的旧段中仍有效的记录搬到当前段，
+ * 写出新的索引后删除旧段；正在被读取的段等读取结束后再删除。搬空但还没删除的段记录在索引中，
+ * 重启时（包括删除之前退出的情况）先删除它们再扫描，旧段中过时的记录不会覆盖搬走后的位置，
+ * 也不会让删除记录在其他段中的块重新出现。
+ */
+public class SegmentBlockStore implements BlockStore {
+    private static Logger log = LogManager.getLogger(SegmentBlockStore.class);
+
+    private static final int RECORD_MAGIC = 0x53454731; // "SEG1"
+    private static final byte RECORD_BLOCK = 1;
+    private static final byte RECORD_DELETE = 2;
+    private static final int RECORD_PREFIX_SIZE = 4 + 1 + 8;
+    private static final int BLOCK_HEADER_SIZE = RECORD_PREFIX_SIZE + 1 + 4 + 8 + 4;
+    private static final String SEGMENT_PREFIX = "seg_";
+    private static final String INDEX_FILE = "segments.idx";
+    private static final int INDEX_MAGIC = 0x53494458; // "SIDX"
+
+    private final File dir;
+    private final FileBlockStore largeBlocks;
+    private final long smallBlockLimit;
+    private final long segmentSize;
+    // 以下状态由 this 保护；index 可以不加锁读取
+    private final Map<Long, Entry> index = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    // 已搬空、等待删除的段：仍有读者的段（值为段对象），以及上次启动时没能删除的段文件（值为 null）
+    private final TreeMap<Long, Segment> retired = new TreeMap<>();
+    private Segment active;
+    private boolean dirty; // 索引自上次写出后是否有变化
+    private final ScheduledExecutorService compactor;
+
+    // 一个块在段中的位置
+    private static class Entry {
+        final long segmentId;
+        final long offset; // 记录的起始位置
+        final long length; // 数据长度
+        final byte checksumType;
+        final int bytesPerChecksum;
+        final int sumsLength;
+
+        Entry(long segmentId, long offset, long length, byte checksumType, int bytesPerChecksum, int sumsLength) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+            this.checksumType = checksumType;
+            this.bytesPerChecksum = bytesPerChecksum;
+            this.sumsLength = sumsLength;
+        }
+
+        long sumsOffset() {
+            return offset + BLOCK_HEADER_SIZE;
+        }
+
+        long dataOffset() {
+            return sumsOffset() + sumsLength;
+        }
+
+        long recordSize() {
+            return BLOCK_HEADER_SIZE + sumsLength + length;
+        }
+    }
+
+    private static class Segment {
+        final long id;
+        final File file;
+        final FileChannel channel;
+        long size;      // 已追加的长度
+        long garbage;   // 被删除或被搬走的记录占用的字节数
+        int readers;    // 正在读取它的 StoredBlock 数
+        boolean retired;
+
+        Segment(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+    }
+
+    public SegmentBlockStore(File storageDir) throws IOException {
+        this.largeBlocks = new FileBlockStore(storageDir);
+        this.dir = new File(storageDir, "segments");
+        this.smallBlockLimit = Config.DATA_SEGMENT_BLOCK_LIMIT;
+        this.segmentSize = Config.DATA_SEGMENT_SIZE;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create segment directory: " + dir);
+        }
+        load();
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "segment-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::maintain, Config.DATA_COMPACT_INTERVAL_SECS, Config.DATA_COMPACT_INTERVAL_SECS, TimeUnit.SECONDS);
+    }
+
+    // 加载索引文件并扫描其后追加的记录
+    private void load() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.matches(SEGMENT_PREFIX + "\\d+"));
+        if (files != null) {
+            for (File file : files) {
+                long id = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length()));
+                segments.put(id, new Segment(id, file));
+            }
+        }
+        Map<Long, Long> scanned = loadIndex();
+        // 上次压缩后没来得及删除的段不参与扫描，其中的记录都已搬走或已删除
+        for (Long id : new ArrayList<>(retired.keySet())) {
+            Segment segment = segments.remove(id);
+            if (segment != null) {
+                removeSegmentFile(segment);
+            } else {
+                retired.remove(id);
+            }
+        }
+        for (Segment segment : segments.values()) {
+            Long from = scanned.get(segment.id);
+            scan(segment, from == null ? 0 : from);
+        }
+        if (!segments.isEmpty()) {
+            active = segments.lastEntry().getValue();
+        } else {
+            active = newSegment(retired.isEmpty() ? 1 : retired.lastKey() + 1);
+        }
+        log.info("Segment store loaded: " + index.size() + " blocks in " + segments.size() + " segments");
+    }
+
+    // 读取索引文件，返回各段已被索引覆盖的长度；没有索引文件或已损坏时返回空表，随后全量扫描
+    private Map<Long, Long> loadIndex() {
+        Map<Long, Long> scanned = new HashMap<>();
+        File indexFile = new File(dir, INDEX_FILE);
+        if (!indexFile.exists()) {
+            return scanned;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("bad magic");
+            }
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                long id = in.readLong();
+                long length = in.readLong();
+                long garbage = in.readLong();
+                Segment segment = segments.get(id);
+                if (segment != null) {
+                    scanned.put(id, Math.min(length, segment.size));
+                    segment.garbage = garbage;
+                }
+            }
+            int retiredCount = in.readInt();
+            for (int i = 0; i < retiredCount; i++) {
+                retired.put(in.readLong(), null);
+            }
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                long blockId = in.readLong();
+                Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong(), in.readByte(), in.readInt(), in.readInt());
+                if (segments.containsKey(entry.segmentId)) {
+                    index.put(blockId, entry);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable segment index " + indexFile + ": " + e.getMessage());
+            index.clear();
+            scanned.clear();
+            retired.clear();
+            for (Segment segment : segments.values()) {
+                segment.garbage = 0;
+            }
+        }
+        return scanned;
+    }
+
+    // 从 position 开始扫描段中的记录并更新索引，遇到不完整的记录时截断
+    private void scan(Segment segment, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        while (position < segment.size) {
+            header.clear();
+            header.limit(RECORD_PREFIX_SIZE);
+            if (!readFully(segment.channel, header, position) || header.getInt(0) != RECORD_MAGIC) {
+                break;
+            }
+            byte kind = header.get(4);
+            long blockId = header.getLong(5);
+            if (kind == RECORD_DELETE) {
+                Entry removed = index.remove(blockId);
+                if (removed != null) {
+                    segments.get(removed.segmentId).garbage += removed.recordSize();
+                }
+                segment.garbage += RECORD_PREFIX_SIZE;
+                position += RECORD_PREFIX_SIZE;
+                continue;
+            }
+            if (kind != RECORD_BLOCK) {
+                break;
+            }
+            header.limit(BLOCK_HEADER_SIZE);
+            header.position(RECORD_PREFIX_SIZE);
+            if (!readFully(segment.channel, header, position + RECORD_PREFIX_SIZE)) {
+                break;
+            }
+            Entry entry = new Entry(segment.id, position, header.getLong(18), header.get(13), header.getInt(14), header.getInt(26));
+            if (entry.length < 0 || entry.sumsLength < 0 || position + entry.recordSize() > segment.size) {
+                break;
+            }
+            Entry previous = index.put(blockId, entry);
+            if (previous != null) {
+                segments.get(previous.segmentId).garbage += previous.recordSize();
+            }
+            position += entry.recordSize();
+        }
+        if (position < segment.size) {
+            log.warn("Truncating incomplete record at " + segment.file + ":" + position);
+            segment.channel.truncate(position);
+            segment.size = position;
+        }
+        dirty = true;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                return false;
+            }
+            position += n;
+        }
+        return true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        Segment segment = new Segment(id, new File(dir, SEGMENT_PREFIX + id));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    // 追加一条记录，返回它在当前段中的起始位置；调用方持有 this
+    private long append(ByteBuffer record) throws IOException {
+        if (active.size > 0 && active.size + record.remaining() > segmentSize) {
+            active = newSegment(active.id + 1);
+        }
+        long offset = active.size;
+        writeFully(active.channel, record, offset);
+        active.size = offset + record.limit();
+        dirty = true;
+        return offset;
+    }
+
+    private synchronized void commitSmall(long blockId, DataChecksum checksum, byte[] data, int length, byte[] sums, int sumsLength) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(BLOCK_HEADER_SIZE + sumsLength + length);
+        record.putInt(RECORD_MAGIC).put(RECORD_BLOCK).putLong(blockId)
+                .put(checksum.getType()).putInt(checksum.getBytesPerChecksum()).putLong(length).putInt(sumsLength)
+                .put(sums, 0, sumsLength).put(data, 0, length);
+        record.flip();
+        long offset = append(record);
+        Entry previous = index.put(blockId, new Entry(active.id, offset, length, checksum.getType(), checksum.getBytesPerChecksum(), sumsLength));
+        if (previous != null) {
+            segments.get(previous.segmentId).garbage += previous.recordSize();
+        }
+    }
+
+    /**
+     * 先把块缓存在内存中，超过 smallBlockLimit 时转交给 FileBlockStore 写成单独的文件，
+     * 否则提交时作为一条记录一次写入段文件
+     */
+    private class SegmentBlockWriter implements BlockWriter {
+        private final long blockId;
+        private final DataChecksum checksum;
+        private byte[] data = new byte[4096];
+        private byte[] sums = new byte[64];
+        private int length;
+        private int sumsLength;
+        private BlockWriter spilled;
+
+        SegmentBlockWriter(long blockId, DataChecksum checksum) {
+            this.blockId = blockId;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len, byte[] s, int sumOff, int sumLen) throws IOException {
+            if (spilled == null && length + len > smallBlockLimit) {
+                spilled = largeBlocks.create(blockId, checksum);
+                spilled.write(data, 0, length, sums, 0, sumsLength);
+                data = null;
+                sums = null;
+            }
+            if (spilled != null) {
+                spilled.write(b, off, len, s, sumOff, sumLen);
+                return;
+            }
+            if (length + len > data.length) {
+                data = Arrays.copyOf(data, (int) Math.min(smallBlockLimit, Math.max(data.length * 2L, length + len)));
+            }
+            if (sumsLength + sumLen > sums.length) {
+                sums = Arrays.copyOf(sums, Math.max(sums.length * 2, sumsLength + sumLen));
+            }
+            System.arraycopy(b, off, data, length, len);
+            System.arraycopy(s, sumOff, sums, sumsLength, sumLen);
+            length += len;
+            sumsLength += sumLen;
+        }
+
+        @Override
+        public void commit() throws IOException {
+            if (spilled != null) {
+                spilled.commit();
+            } else {
+                commitSmall(blockId, checksum, data, length, sums, sumsLength);
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (spilled != null) {
+                spilled.abort();
+            }
+        }
+    }
+
+    private class SegmentStoredBlock implements StoredBlock {
+        private final Segment segment;
+        private final Entry entry;
+        private final DataChecksum checksum;
+        private boolean closed;
+
+        SegmentStoredBlock(Segment segment, Entry entry) throws IOException {
+            this.segment = segment;
+            this.entry = entry;
+            this.checksum = DataChecksum.newInstance(entry.checksumType, entry.bytesPerChecksum);
+        }
+
+        @Override
+        public FileChannel getChannel() {
+            return segment.channel;
+        }
+
+        @Override
+        public long getDataOffset() {
+            return entry.dataOffset();
+        }
+
+        @Override
+        public long getLength() {
+            return entry.length;
+        }
+
+        @Override
+        public DataChecksum getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public void readChecksums(long chunkIndex, byte[] dst, int off, int length) throws IOException {
+            if (!readFully(segment.channel, ByteBuffer.wrap(dst, off, length), entry.sumsOffset() + chunkIndex * DataChecksum.CHECKSUM_SIZE)) {
+                throw new EOFException("Segment " + segment.file + " is truncated");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (SegmentBlockStore.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                segment.readers--;
+                if (segment.retired && segment.readers == 0) {
+                    removeSegmentFile(segment);
+                }
+            }
+        }
+    }
+
+    @Override
+    public StoredBlock open(long blockId) throws IOException {
+        synchronized (this) {
+            Entry entry = index.get(blockId);
+            if (entry != null) {
+                Segment segment = segments.get(entry.segmentId);
+                SegmentStoredBlock block = new SegmentStoredBlock(segment, entry);
+                segment.readers++;
+                return block;
+            }
+        }
+        return largeBlocks.open(blockId);
+    }
+
+    @Override
+    public BlockWriter create(long blockId, DataChecksum checksum) {
+        return new SegmentBlockWriter(blockId, checksum);
+    }
+
+    @Override
+    public boolean delete(long blockId) throws IOException {
+        synchronized (this) {
+            Entry entry = index.remove(blockId);
+            if (entry != null) {
+                ByteBuffer record = ByteBuffer.allocate(RECORD_PREFIX_SIZE);
+                record.putInt(RECORD_MAGIC).put(RECORD_DELETE).putLong(blockId);
+                record.flip();
+                append(record);
+                segments.get(entry.segmentId).garbage += entry.recordSize();
+                active.garbage += RECORD_PREFIX_SIZE;
+                return true;
+            }
+        }
+        return largeBlocks.delete(blockId);
+    }
+
+    @Override
+    public List<Long> listBlocks() {
+        List<Long> blockIds = new ArrayList<>(index.keySet());
+        blockIds.addAll(largeBlocks.listBlocks());
+        return blockIds;
+    }
+
+    @Override
+    public long getUsed() {
+        long used = largeBlocks.getUsed();
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                used += segment.size;
+            }
+        }
+        return used;
+    }
+
+    // 后台维护：压缩失效数据过多的段，索引有变化时写出（包内可见，测试中直接触发）
+    void maintain() {
+        try {
+            List<Segment> candidates = new ArrayList<>();
+            synchronized (this) {
+                for (Segment segment : segments.values()) {
+                    if (segment != active && segment.size > 0
+                            && segment.garbage >= segment.size * Config.DATA_COMPACT_GARBAGE_RATIO) {
+                        candidates.add(segment);
+                    }
+                }
+            }
+            for (Segment segment : candidates) {
+                compact(segment);
+            }
+            synchronized (this) {
+                if (dirty) {
+                    saveIndex();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Segment maintenance failed: " + e.getMessage(), e);
+        }
+    }
+
+    // 把段中仍有效的记录搬到当前段，写出索引后删除该段
+    private void compact(Segment segment) throws IOException {
+        long moved = 0;
+        for (Map.Entry<Long, Entry> e : index.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.segmentId != segment.id) {
+                continue;
+            }
+            // 旧段只会被本线程删除，记录可以在锁外读取
+            ByteBuffer record = ByteBuffer.allocate((int) entry.recordSize());
+            if (!readFully(segment.channel, record, entry.offset)) {
+                throw new EOFException("Segment " + segment.file + " is truncated");
+            }
+            record.flip();
+            synchronized (this) {
+                if (index.get(e.getKey()) != entry) {
+                    continue; // 期间被删除
+                }
+                long offset = append(record);
+                index.put(e.getKey(), new Entry(active.id, offset, entry.length, entry.checksumType, entry.bytesPerChecksum, entry.sumsLength));
+                moved += entry.recordSize();
+            }
+        }
+        synchronized (this) {
+            // 先写出不再引用旧段、并把它记为待删除的索引，再删除旧段；
+            // 有读者时旧段留到读取结束，期间退出的话下次启动时删除，不会被重新扫描
+            segments.remove(segment.id);
+            retired.put(segment.id, segment);
+            segment.retired = true;
+            saveIndex();
+            if (segment.readers == 0) {
+                removeSegmentFile(segment);
+            }
+        }
+        log.info("Compacted " + segment.file + ": moved " + moved + " of " + segment.size + " bytes");
+    }
+
+    // 删除已搬空的段文件；删除失败时仍记在索引中，下次启动时重试。调用方持有 this
+    private void removeSegmentFile(Segment segment) throws IOException {
+        segment.channel.close();
+        if (!segment.file.delete() && segment.file.exists()) {
+            log.warn("Failed to delete compacted segment " + segment.file);
+            retired.put(segment.id, null);
+            return;
+        }
+        retired.remove(segment.id);
+        dirty = true;
+    }
+
+    // 写出索引与各段已覆盖的长度；调用方持有 this
+    private void saveIndex() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel.force(false);
+        }
+        File indexFile = new File(dir, INDEX_FILE);
+        File tmpFile = new File(dir, INDEX_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(segments.size());
+            for (Segment segment : segments.values()) {
+                out.writeLong(segment.id);
+                out.writeLong(segment.size);
+                out.writeLong(segment.garbage);
+            }
+            out.writeInt(retired.size());
+            for (Long id : retired.keySet()) {
+                out.writeLong(id);
+            }
+            out.writeInt(index.size());
+            for (Map.Entry<Long, Entry> e : index.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeLong(e.getKey());
+                out.writeLong(entry.segmentId);
+                out.writeLong(entry.offset);
+                out.writeLong(entry.length);
+                out.writeByte(entry.checksumType);
+                out.writeInt(entry.bytesPerChecksum);
+                out.writeInt(entry.sumsLength);
+            }
+            out.flush();
+            fos.getChannel().force(true);
+        }
+        Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        synchronized (this) {
+            // 仍有读者的已搬空段也一并删除，索引中不再留下它们
+            for (Segment segment : new ArrayList<>(retired.values())) {
+                if (segment != null) {
+                    removeSegmentFile(segment);
+                }
+            }
+            saveIndex();
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        }
+        largeBlocks.close();
+    }
+}
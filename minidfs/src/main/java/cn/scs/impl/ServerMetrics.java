@@ -0,0 +1,139 @@
+package cn.scs.impl;
+
+import cn.scs.common.Config;
+import cn.scs.common.LatencyHistogram;
+import cn.scs.common.ServerStats;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个服务器的请求指标，按操作码分别统计，操作码的 ordinal 即数组下标，记录时不需要查表或加锁。
+ * 通过 STATS 请求返回快照，并注册到 JMX：整体指标为 cn.scs:type=<type>,name=<name>，
+ * 各操作为 cn.scs:type=<type>,name=<name>,op=<操作码>。
+ */
+public class ServerMetrics<E extends Enum<E>> implements ServerMetricsMBean {
+    private static Logger log = LogManager.getLogger(ServerMetrics.class);
+
+    private final String type;
+    private final String name;
+    private final long startTime = System.currentTimeMillis();
+    private final OpMetrics[] ops;
+    private final AtomicInteger queueLength = new AtomicInteger();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    public ServerMetrics(String type, String name, E[] opCodes) {
+        this.type = type;
+        this.name = name;
+        this.ops = new OpMetrics[opCodes.length];
+        for (E op : opCodes) {
+            ops[op.ordinal()] = new OpMetrics(op.name());
+        }
+    }
+
+    public OpMetrics op(E op) {
+        return ops[op.ordinal()];
+    }
+
+    // 请求交给处理线程池时调用，返回入队时间
+    public long enqueued() {
+        queueLength.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    // 处理线程取到请求时调用
+    public void dequeued(long enqueuedNanos) {
+        queueLength.decrementAndGet();
+        queueWait.record((System.nanoTime() - enqueuedNanos) / 1000);
+    }
+
+    public ServerStats snapshot() {
+        List<ServerStats.OpStats> opStats = new ArrayList<>(ops.length);
+        for (OpMetrics op : ops) {
+            opStats.add(op.snapshot());
+        }
+        LatencyHistogram.Snapshot waits = queueWait.snapshot();
+        ServerStats.OpStats queue = new ServerStats.OpStats("QUEUE_WAIT", waits.getCount(), 0, queueLength.get(), 0, 0, waits);
+        return new ServerStats(getUptimeMillis(), getInFlight(), queueLength.get(), queue, opStats);
+    }
+
+    // 注册到平台 MBeanServer；同名的已经存在时（如同一进程内重启）只记录警告
+    public void registerMBeans() {
+        if (!Config.METRICS_JMX_ENABLED) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String prefix = "cn.scs:type=" + type + ",name=" + name;
+        try {
+            register(server, new ObjectName(prefix), this);
+            for (OpMetrics op : ops) {
+                register(server, new ObjectName(prefix + ",op=" + op.getName()), op);
+            }
+        } catch (JMException e) {
+            log.warn("Failed to register metrics for " + prefix + " with JMX: " + e.getMessage());
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName objectName, Object mbean) throws JMException {
+        server.registerMBean(mbean, objectName);
+        synchronized (registered) {
+            registered.add(objectName);
+        }
+    }
+
+    public void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registered) {
+            for (ObjectName objectName : registered) {
+                try {
+                    server.unregisterMBean(objectName);
+                } catch (JMException e) {
+                    log.warn("Failed to unregister " + objectName + ": " + e.getMessage());
+                }
+            }
+            registered.clear();
+        }
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    @Override
+    public int getInFlight() {
+        int total = 0;
+        for (OpMetrics op : ops) {
+            total += op.getInFlight();
+        }
+        return total;
+    }
+
+    @Override
+    public int getQueueLength() {
+        return queueLength.get();
+    }
+
+    @Override
+    public long getQueueWaitP50Micros() {
+        return queueWait.snapshot().percentile(0.5);
+    }
+
+    @Override
+    public long getQueueWaitP99Micros() {
+        return queueWait.snapshot().percentile(0.99);
+    }
+
+    @Override
+    public long getQueueWaitMaxMicros() {
+        return queueWait.snapshot().getMaxMicros();
+    }
+}
@@ -0,0 +1,18 @@
+package cn.scs.impl;
+
+/**
+ * 服务器整体在 JMX 上的属性：在途与排队的请求数，以及请求在处理线程池中的排队时间（微秒）
+ */
+public interface ServerMetricsMBean {
+    long getUptimeMillis();
+
+    int getInFlight();
+
+    int getQueueLength();
+
+    long getQueueWaitP50Micros();
+
+    long getQueueWaitP99Micros();
+
+    long getQueueWaitMaxMicros();
+}
@@ -1,12 +1,15 @@
 package cn.scs.impl;
 
 import cn.scs.client.Connection;
+import cn.scs.common.StorageReport;
 
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class StorageNode {
 
@@ -15,6 +18,9 @@ public class StorageNode {
     private int port; // 存储节点的端口
     private Connection connection;
     private Map<String, byte[]> fileStorage; // 文件存储，文件路径到文件数据的映射
+    private volatile StorageReport report; // 最近一次心跳上报的存储与负载状况，尚未上报时为 null
+    // 上次心跳之后分配到本节点的块数，下次心跳前用来估计新增的负载
+    private final AtomicInteger scheduledBlocks = new AtomicInteger();
 
     // 修改构造函数，添加 name, host 和 port 参数
     public StorageNode(String name, String host, int port) {
@@ -55,9 +61,13 @@ public class StorageNode {
             System.out.println("File not found: " + localFilePath);
             return null;
         }
-        try (FileInputStream fis = new FileInputStream(file)) {
+        if (file.length() > Integer.MAX_VALUE - 8) {
+            System.out.println("File too large to keep in memory: " + localFilePath + ", use DistributedFileSystemClient.uploadFile instead");
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
             byte[] data = new byte[(int) file.length()];
-            fis.read(data);
+            in.readFully(data);
             return data;
         } catch (IOException e) {
             System.out.println("Error reading file: " + e.getMessage());
@@ -80,6 +90,24 @@ public class StorageNode {
         return port;
     }
 
+    public StorageReport getReport() {
+        return report;
+    }
+
+    // 心跳带来新的上报，之前分配的块已经反映在上报的负载中
+    public void updateReport(StorageReport report) {
+        this.report = report;
+        scheduledBlocks.set(0);
+    }
+
+    public int getScheduledBlocks() {
+        return scheduledBlocks.get();
+    }
+
+    public void incScheduledBlocks() {
+        scheduledBlocks.incrementAndGet();
+    }
+
     // 断开与存储节点的连接
     public void disconnect() throws IOException {
         if (connection != null) {
@@ -0,0 +1,466 @@
+package cn.scs.impl;
+
+import cn.scs.client.DistributedFileSystemClient;
+import cn.scs.client.MetaBatch;
+import cn.scs.client.MetaServerClient;
+import cn.scs.common.Config;
+import cn.scs.common.DirectoryListing;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 单机端到端吞吐基准：在本进程内启动一个元数据服务器和若干数据服务器（回环地址、空闲端口、临时目录），
+ * 由多个客户端线程按给定比例混合执行 create、stat、list、write、read，输出每种操作的吞吐与延迟分位数。
+ * 每个线程使用独立的客户端连接；默认关闭客户端的 FileInfo 缓存，stat 测的是元数据服务器本身。
+ * 最后附上各服务器 STATS 的快照，可以对照客户端延迟看出服务器内的排队与处理时间。
+ *
+ * 用法：java -cp target/minidfs-1.0-SNAPSHOT-jar-with-dependencies.jar cn.scs.impl.ThroughputBenchmark
+ *   [-dataServers 3] [-threads 16] [-duration 30] [-warmup 5] [-mix create=30,stat=40,list=10,write=10,read=10]
+ *   [-files 1000] [-fileSize 65536] [-replication 3] [-blockSize 134217728] [-clientCache 0]
+ *   [-store memory|rocksdb] [-blockStore file|segment] [-traceRate 0.01] [-dir 工作目录] [-keep] [-verbose]
+ * -traceRate 大于 0 时按该比例追踪测量阶段的客户端操作，span 写入 TRACE_DIR，可以逐个拆解长尾请求的各阶段耗时。
+ */
+public class ThroughputBenchmark {
+    private static Logger log = LogManager.getLogger(ThroughputBenchmark.class);
+
+    private static final String[] OPS = {"create", "stat", "list", "write", "read"};
+    private static final String DATA_DIR = "/bench/data";
+    private static final String WORK_DIR = "/bench/work";
+
+    private int dataServers = 3;
+    private int threads = 16;
+    private int durationSecs = 30;
+    private int warmupSecs = 5;
+    private final Map<String, Integer> mix = new LinkedHashMap<>();
+    private int files = 1000;
+    private int fileSize = 64 * 1024;
+    private int replication = 3;
+    private long blockSize = Config.BLOCK_SIZE;
+    private int clientCache = 0;
+    private String store = Config.META_STORE;
+    private String blockStore = Config.DATA_STORE;
+    private double traceRate = 0;
+    private File dir;
+    private boolean keep;
+    private boolean verbose;
+
+    private MetadataServer metadataServer;
+    private final List<DataServer> servers = new ArrayList<>();
+    private byte[] data;
+
+    // 一个线程记录的某种操作的延迟（纳秒）与失败次数
+    private static class Samples {
+        private long[] values = new long[1024];
+        private int size;
+        private long errors;
+
+        void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        void addAll(Samples other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+            errors += other.errors;
+        }
+
+        // 排序后取第 p 分位（0 < p <= 1）的值
+        long percentile(double p) {
+            if (size == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * size) - 1;
+            return values[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+
+    private ThroughputBenchmark(String[] args) {
+        mix.put("create", 30);
+        mix.put("stat", 40);
+        mix.put("list", 10);
+        mix.put("write", 10);
+        mix.put("read", 10);
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-keep".equals(arg)) {
+                keep = true;
+                continue;
+            }
+            if ("-verbose".equals(arg)) {
+                verbose = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "-dataServers": dataServers = Integer.parseInt(value); break;
+                case "-threads": threads = Integer.parseInt(value); break;
+                case "-duration": durationSecs = Integer.parseInt(value); break;
+                case "-warmup": warmupSecs = Integer.parseInt(value); break;
+                case "-mix": parseMix(value); break;
+                case "-files": files = Integer.parseInt(value); break;
+                case "-fileSize": fileSize = Integer.parseInt(value); break;
+                case "-replication": replication = Integer.parseInt(value); break;
+                case "-blockSize": blockSize = Long.parseLong(value); break;
+                case "-clientCache": clientCache = Integer.parseInt(value); break;
+                case "-store": store = value; break;
+                case "-blockStore": blockStore = value; break;
+                case "-traceRate": traceRate = Double.parseDouble(value); break;
+                case "-dir": dir = new File(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (dataServers < 1 || threads < 1 || durationSecs < 1 || files < 1) {
+            throw new IllegalArgumentException("dataServers, threads, duration and files must be positive");
+        }
+    }
+
+    // 形如 create=30,stat=40 的比例，未列出的操作比例为 0
+    private void parseMix(String value) {
+        for (String op : OPS) {
+            mix.put(op, 0);
+        }
+        for (String part : value.split(",")) {
+            String[] kv = part.split("=");
+            if (kv.length != 2 || !mix.containsKey(kv[0].trim())) {
+                throw new IllegalArgumentException("Invalid mix entry: " + part);
+            }
+            mix.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+        }
+    }
+
+    /**
+     * 配置并启动集群：各服务使用空闲端口，元数据与块数据放在工作目录下，
+     * 数据服务器预先登记为 127.0.0.1 上的节点，全部发来心跳后才返回
+     */
+    private void startCluster() throws IOException, InterruptedException {
+        if (dir == null) {
+            dir = Files.createTempDirectory("minidfs-bench").toFile();
+        }
+        Config.META_SERVRE_HOST = "127.0.0.1";
+        Config.META_SERVRE_PORT = freePort();
+        Config.META_HEARTBEAT_PORT = freePort();
+        Config.META_THRIFT_PORT = freePort();
+        Config.META_DIR = new File(dir, "meta").getPath();
+        Config.META_STORE = store;
+        Config.META_STORE_PATH = new File(dir, "meta/namespace").getPath();
+        Config.STORAGE_PATH = new File(dir, "data").getPath();
+        Config.DATA_STORE = blockStore;
+        Config.REPLICATION = Math.min(replication, dataServers);
+        Config.BLOCK_SIZE = blockSize;
+        Config.HEARTBEAT_SECS = 1;
+        Config.CLIENT_META_CACHE_SIZE = clientCache;
+
+        metadataServer = new MetadataServer();
+        List<StorageNode> nodes = new ArrayList<>();
+        int[] ports = new int[dataServers];
+        for (int i = 0; i < dataServers; i++) {
+            ports[i] = freePort();
+            nodes.add(new StorageNode(nodeName(i), "127.0.0.1", ports[i]));
+        }
+        metadataServer.setStorageNode(nodes);
+        metadataServer.start();
+
+        for (int i = 0; i < dataServers; i++) {
+            DataServer server = new DataServer(nodeName(i), ports[i], new File(Config.STORAGE_PATH, "dn" + i).getPath());
+            servers.add(server);
+            server.start();
+        }
+        long deadline = System.currentTimeMillis() + Config.TIMEOUT_OF_HEARTBEATS * 1000L;
+        for (int i = 0; i < dataServers; i++) {
+            while (metadataServer.getLastHeartbeat(nodeName(i)) == null || metadataServer.getStorageNodes().get(nodeName(i)).getReport() == null) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("DataServer " + nodeName(i) + " did not send a heartbeat");
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static String nodeName(int i) {
+        return "bench-dn" + i;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * 预先创建 stat、list、read 使用的文件：有读操作时写入数据，否则只批量创建元数据
+     */
+    private void prepare() throws Exception {
+        data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        boolean withData = mix.get("read") > 0;
+        if (!withData) {
+            MetaServerClient client = new MetaServerClient();
+            try {
+                MetaBatch batch = new MetaBatch();
+                for (int i = 0; i < files; i++) {
+                    batch.createFile(dataPath(i));
+                }
+                client.batch(batch);
+            } finally {
+                client.close();
+            }
+            return;
+        }
+        AtomicLong next = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                DistributedFileSystemClient client = null;
+                try {
+                    client = new DistributedFileSystemClient();
+                    for (long i = next.getAndIncrement(); i < files; i = next.getAndIncrement()) {
+                        if (!client.writeFile(dataPath((int) i), data)) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                } finally {
+                    disconnect(client);
+                }
+            }, "bench-prepare-" + t);
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        if (failed.get() > 0) {
+            throw new IOException(failed.get() + " files failed to prepare");
+        }
+    }
+
+    private static String dataPath(int i) {
+        return DATA_DIR + "/f" + i;
+    }
+
+    // 一个客户端线程：按比例随机选择操作，预热期结束后开始记录
+    private Map<String, Samples> runClient(int id, long measureStart, long end) throws IOException {
+        Map<String, Samples> samples = new LinkedHashMap<>();
+        for (String op : OPS) {
+            samples.put(op, new Samples());
+        }
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        MetaServerClient meta = new MetaServerClient();
+        DistributedFileSystemClient dfs = new DistributedFileSystemClient();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long seq = 0;
+        try {
+            while (System.nanoTime() < end) {
+                int r = random.nextInt(total);
+                String op = null;
+                for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+                    r -= entry.getValue();
+                    if (r < 0) {
+                        op = entry.getKey();
+                        break;
+                    }
+                }
+                String target = WORK_DIR + "/t" + id + "/" + op.charAt(0) + (seq++);
+                long start = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = execute(op, target, meta, dfs, random);
+                } catch (IOException e) {
+                    ok = false;
+                }
+                long elapsed = System.nanoTime() - start;
+                if (start >= measureStart) {
+                    Samples s = samples.get(op);
+                    s.add(elapsed);
+                    if (!ok) {
+                        s.errors++;
+                    }
+                }
+            }
+        } finally {
+            meta.close();
+            disconnect(dfs);
+        }
+        return samples;
+    }
+
+    // 执行一次操作，返回是否成功
+    private boolean execute(String op, String target, MetaServerClient meta, DistributedFileSystemClient dfs,
+                            ThreadLocalRandom random) throws IOException {
+        switch (op) {
+            case "create":
+                return meta.createFile(target) != null;
+            case "stat":
+                return meta.getFileInfo(dataPath(random.nextInt(files))) != null;
+            case "list":
+                DirectoryListing listing = meta.listFiles(DATA_DIR, null, Config.LIST_PAGE_SIZE);
+                return !listing.getNames().isEmpty();
+            case "write":
+                return dfs.writeFile(target, data);
+            default:
+                byte[] read = dfs.readFile(dataPath(random.nextInt(files)), 0, 0);
+                return read != null && read.length == fileSize;
+        }
+    }
+
+    private static void disconnect(DistributedFileSystemClient client) {
+        if (client != null) {
+            try {
+                client.disconnect();
+            } catch (IOException e) {
+                log.error("Failed to disconnect client: " + e.getMessage());
+            }
+        }
+    }
+
+    private Map<String, Samples> run() throws InterruptedException {
+        long measureStart = System.nanoTime() + warmupSecs * 1_000_000_000L;
+        long end = measureStart + durationSecs * 1_000_000_000L;
+        List<Map<String, Samples>> results = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    Map<String, Samples> samples = runClient(id, measureStart, end);
+                    synchronized (results) {
+                        results.add(samples);
+                    }
+                } catch (IOException e) {
+                    log.error("Client " + id + " failed: " + e.getMessage(), e);
+                }
+            }, "bench-client-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Map<String, Samples> merged = new LinkedHashMap<>();
+        for (String op : OPS) {
+            Samples all = new Samples();
+            for (Map<String, Samples> result : results) {
+                all.addAll(result.get(op));
+            }
+            Arrays.sort(all.values, 0, all.size);
+            merged.put(op, all);
+        }
+        if (results.size() < threads) {
+            log.error((threads - results.size()) + " client threads failed");
+        }
+        return merged;
+    }
+
+    private void report(PrintStream out, Map<String, Samples> results) {
+        out.printf("dataServers=%d threads=%d duration=%ds warmup=%ds files=%d fileSize=%d replication=%d store=%s blockStore=%s clientCache=%d%n",
+                dataServers, threads, durationSecs, warmupSecs, files, fileSize, Config.REPLICATION, store, blockStore, clientCache);
+        out.printf("%-8s %10s %12s %10s %10s %10s %10s %8s%n", "op", "count", "ops/sec", "p50(us)", "p99(us)", "p999(us)", "max(us)", "errors");
+        long totalCount = 0;
+        long totalErrors = 0;
+        for (Map.Entry<String, Samples> entry : results.entrySet()) {
+            Samples s = entry.getValue();
+            if (mix.get(entry.getKey()) == 0) {
+                continue;
+            }
+            totalCount += s.size;
+            totalErrors += s.errors;
+            out.printf("%-8s %10d %12.1f %10d %10d %10d %10d %8d%n", entry.getKey(), s.size, s.size / (double) durationSecs,
+                    s.percentile(0.5) / 1000, s.percentile(0.99) / 1000, s.percentile(0.999) / 1000, s.percentile(1.0) / 1000, s.errors);
+        }
+        out.printf("%-8s %10d %12.1f %43s %8d%n", "total", totalCount, totalCount / (double) durationSecs, "", totalErrors);
+        // 服务器端的统计自启动起累计，包含准备数据与预热阶段
+        out.println();
+        out.println("metadata server:");
+        out.println(metadataServer.getStats());
+        for (DataServer server : servers) {
+            out.println("data server " + server.nodeName + ":");
+            out.println(server.getStats());
+        }
+    }
+
+    private void stopCluster() {
+        for (DataServer server : servers) {
+            server.shutdown();
+        }
+        if (metadataServer != null) {
+            metadataServer.shutdown();
+        }
+        if (!keep && dir != null) {
+            try (Stream<Path> paths = Files.walk(dir.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            } catch (IOException e) {
+                log.error("Failed to remove " + dir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ThroughputBenchmark benchmark = new ThroughputBenchmark(args);
+        PrintStream stdout = System.out;
+        if (!benchmark.verbose) {
+            // 服务器与客户端每个操作都会打印日志，测量期间丢弃，避免控制台输出成为瓶颈
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+        }
+        int status = 0;
+        try {
+            stdout.println("Starting cluster in " + (benchmark.dir == null ? "a temporary directory" : benchmark.dir) + " ...");
+            benchmark.startCluster();
+            stdout.println("Preparing " + benchmark.files + " files ...");
+            benchmark.prepare();
+            stdout.println("Running for " + benchmark.warmupSecs + "s warmup + " + benchmark.durationSecs + "s ...");
+            // 只追踪预热与测量阶段
+            Config.TRACE_SAMPLE_RATE = benchmark.traceRate;
+            benchmark.report(stdout, benchmark.run());
+            if (benchmark.traceRate > 0) {
+                stdout.println("Sampled spans are written to " + new File(Config.TRACE_DIR).getAbsolutePath());
+            }
+        } catch (Exception e) {
+            stdout.println("Benchmark failed: " + e);
+            log.error("Benchmark failed", e);
+            status = 1;
+        } finally {
+            benchmark.stopCluster();
+            System.setOut(stdout);
+        }
+        System.exit(status);
+    }
+}
@@ -3,6 +3,9 @@ package cn.scs.interf;
 import cn.scs.common.FileInfo;
 
 import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 public interface DistributedFileSystem {
@@ -49,6 +52,12 @@ public interface DistributedFileSystem {
     // 读取文件
     byte[] readFile(String remoteFilePath, long offset, int length);
 
+    // 以流的方式写入文件，关闭输出流时提交；只缓冲固定大小的数据，适合任意大小的文件
+    OutputStream createFile(String remoteFilePath) throws IOException;
+
+    // 从 offset 开始以流的方式读取文件，只缓冲固定大小的数据
+    InputStream openFile(String remoteFilePath, long offset) throws IOException;
+
     // 获取文件大小
     long getFileSize(String remoteFilePath);
 
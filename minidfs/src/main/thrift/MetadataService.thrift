@@ -0,0 +1,46 @@
+/**
+ * 元数据服务的 Thrift 接口定义
+ * 服务端运行在 TThreadedSelectorServer 上，传输层为 TFramedTransport，协议为 TCompactProtocol
+ */
+namespace java cn.scs.thrift
+
+struct TFileInfo {
+    1: string fileName,
+    2: string path,
+    3: bool isDirectory,
+    4: i64 fileSize,
+    5: string owner,
+    6: i64 creationTime,
+    7: string fileId,
+    8: list<string> locations
+}
+
+exception MetaException {
+    1: i32 code,
+    2: string message
+}
+
+service MetadataService {
+
+    // 创建文件或目录，返回新建（或已存在）的文件信息
+    TFileInfo createFile(1: string path, 2: string owner, 3: bool isDirectory) throws (1: MetaException e),
+
+    // 重命名文件或目录
+    void renameFile(1: string oldPath, 2: string newPath) throws (1: MetaException e),
+
+    // 删除文件或目录（目录递归删除）
+    void deleteFile(1: string path, 2: string requester) throws (1: MetaException e),
+
+    // 列出目录下的文件名
+    list<string> listFile(1: string path) throws (1: MetaException e),
+
+    // 获取文件或目录信息
+    TFileInfo getFileInfo(1: string path) throws (1: MetaException e),
+
+    // 数据服务器心跳/注册，附带存储与负载状况供副本放置使用（旧版只发送 nodeName）
+    string heartBeat(1: string nodeName, 2: i64 capacity, 3: i64 dfsUsed, 4: i64 remaining,
+                     5: i32 activeTransfers, 6: i64 ioLatencyMicros),
+
+    // 获取文件副本所在位置
+    list<string> getReplicas(1: string path)
+}
@@ -0,0 +1,57 @@
+package cn.scs.impl;
+
+import cn.scs.common.FileInfo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 读者填入与修改者失效交错时，缓存中不能留下已删除或已重命名的旧路径
+ */
+public class InodeCacheTest {
+
+    private static FileInfo file(String path) {
+        return new FileInfo(path.substring(path.lastIndexOf('/') + 1), path, false, 0L, "test", 0L);
+    }
+
+    @Test
+    public void fillWithoutInvalidationIsCached() {
+        InodeCache cache = new InodeCache(16);
+        FileInfo f = file("/a/f");
+        long generation = cache.generation();
+        assertSame(f, cache.fill("/a/f", f, generation));
+        assertSame(f, cache.get("/a/f"));
+    }
+
+    @Test
+    public void fillAfterRemoveIsDropped() {
+        InodeCache cache = new InodeCache(16);
+        FileInfo stale = file("/a/f");
+        long generation = cache.generation(); // 读者在删除之前读到了旧值
+        cache.remove("/a/f");                  // 修改者写入后失效
+        assertSame(stale, cache.fill("/a/f", stale, generation));
+        assertNull(cache.get("/a/f"));
+    }
+
+    @Test
+    public void fillAfterDirectoryInvalidationIsDropped() {
+        InodeCache cache = new InodeCache(16);
+        FileInfo stale = file("/a/f");
+        long generation = cache.generation(); // 读者解析到了重命名之前的父目录
+        cache.remove("/a");
+        cache.removePrefix("/a/");
+        cache.fill("/a/f", stale, generation);
+        assertNull(cache.get("/a/f"));
+    }
+
+    @Test
+    public void fillDoesNotReplaceNewerEntry() {
+        InodeCache cache = new InodeCache(16);
+        long generation = cache.generation();
+        FileInfo updated = file("/a/f");
+        cache.put("/a/f", updated);            // 修改者放入了更新后的对象
+        assertSame(updated, cache.fill("/a/f", file("/a/f"), generation));
+        assertSame(updated, cache.get("/a/f"));
+    }
+}
@@ -0,0 +1,151 @@
+package cn.scs.impl;
+
+import cn.scs.common.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 重启后命名空间必须与重启前一致：从检查点镜像加载，再回放其后的编辑日志。
+ * 回放须是幂等的，RocksDB 存储中已经有的修改不能被重复应用（先建后改名的文件不能在原路径重新出现）。
+ */
+public class MetadataServerRestartTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private String savedMetaDir;
+    private String savedStore;
+    private String savedStorePath;
+    private int savedPort;
+    private int savedHeartbeatPort;
+    private MetadataServer server;
+
+    @Before
+    public void setUp() {
+        savedMetaDir = Config.META_DIR;
+        savedStore = Config.META_STORE;
+        savedStorePath = Config.META_STORE_PATH;
+        savedPort = Config.META_SERVRE_PORT;
+        savedHeartbeatPort = Config.META_HEARTBEAT_PORT;
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.shutdown();
+        }
+        Config.META_DIR = savedMetaDir;
+        Config.META_STORE = savedStore;
+        Config.META_STORE_PATH = savedStorePath;
+        Config.META_SERVRE_PORT = savedPort;
+        Config.META_HEARTBEAT_PORT = savedHeartbeatPort;
+    }
+
+    @Test
+    public void memoryStoreReplaysEditLog() throws Exception {
+        replaysEditLog("memory");
+    }
+
+    @Test
+    public void rocksdbStoreReplaysEditLog() throws Exception {
+        replaysEditLog("rocksdb");
+    }
+
+    @Test
+    public void memoryStoreRestoresCheckpointAndLaterEdits() throws Exception {
+        restoresCheckpointAndLaterEdits("memory");
+    }
+
+    @Test
+    public void rocksdbStoreRestoresCheckpointAndLaterEdits() throws Exception {
+        restoresCheckpointAndLaterEdits("rocksdb");
+    }
+
+    // 没有检查点：重启时回放全部日志
+    private void replaysEditLog(String store) throws Exception {
+        configure(store);
+        server = new MetadataServer();
+        server.createFile("/a", "test", true);
+        server.createFile("/a/f", "test", false);
+        server.rename("/a/f", "/a/g");
+        server.createFile("/b", "test", true);
+        server.createFile("/b/x", "test", false);
+        server.rename("/b", "/c");
+
+        restart();
+        assertNull(server.getFileInfo("/a/f"));
+        assertNotNull(server.getFileInfo("/a/g"));
+        assertNull(server.getFileInfo("/b"));
+        assertNull(server.getFileInfo("/b/x"));
+        assertTrue(server.getFileInfo("/c").isDirectory());
+        assertNotNull(server.getFileInfo("/c/x"));
+        assertEquals(1, server.list("/a").size());
+
+        // 再次重启，回放已经回放过的日志结果不变
+        restart();
+        assertNull(server.getFileInfo("/a/f"));
+        assertNotNull(server.getFileInfo("/a/g"));
+        assertNotNull(server.getFileInfo("/c/x"));
+    }
+
+    // 检查点之前与之后的修改都要恢复，且检查点之前的修改不被再次应用
+    private void restoresCheckpointAndLaterEdits(String store) throws Exception {
+        configure(store);
+        server = new MetadataServer();
+        server.createFile("/a", "test", true);
+        server.createFile("/a/f", "test", false);
+        server.rename("/a/f", "/a/g");
+        server.saveCheckpoint();
+        server.createFile("/a/h", "test", false);
+        server.rename("/a/g", "/d/g"); // 目标父目录不存在，改名时自动创建
+
+        restart();
+        assertNull(server.getFileInfo("/a/f"));
+        assertNull(server.getFileInfo("/a/g"));
+        assertNotNull(server.getFileInfo("/a/h"));
+        assertTrue(server.getFileInfo("/d").isDirectory());
+        assertNotNull(server.getFileInfo("/d/g"));
+
+        // 重启后再做一次检查点并重启，结果不变
+        server.saveCheckpoint();
+        restart();
+        assertNull(server.getFileInfo("/a/f"));
+        assertNull(server.getFileInfo("/a/g"));
+        assertNotNull(server.getFileInfo("/a/h"));
+        assertNotNull(server.getFileInfo("/d/g"));
+        assertFalse(server.list("/a").contains("f"));
+    }
+
+    private void configure(String store) throws IOException {
+        File metaDir = tmp.newFolder("meta");
+        Config.META_DIR = metaDir.getPath();
+        Config.META_STORE = store;
+        Config.META_STORE_PATH = new File(metaDir, "namespace").getPath();
+        Config.META_SERVRE_PORT = freePort();
+        Config.META_HEARTBEAT_PORT = freePort();
+    }
+
+    private void restart() {
+        server.shutdown();
+        server = new MetadataServer();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
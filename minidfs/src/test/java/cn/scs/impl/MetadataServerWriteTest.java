@@ -0,0 +1,86 @@
+package cn.scs.impl;
+
+import cn.scs.common.BlockInfo;
+import cn.scs.common.Config;
+import cn.scs.common.FileInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 写文件的元数据流程：createFile、逐个 addBlock、completeFile
+ */
+public class MetadataServerWriteTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private String savedMetaDir;
+    private int savedPort;
+    private int savedHeartbeatPort;
+    private MetadataServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        savedMetaDir = Config.META_DIR;
+        savedPort = Config.META_SERVRE_PORT;
+        savedHeartbeatPort = Config.META_HEARTBEAT_PORT;
+        Config.META_DIR = tmp.newFolder("meta").getPath();
+        Config.META_SERVRE_PORT = freePort();
+        Config.META_HEARTBEAT_PORT = freePort();
+        server = new MetadataServer();
+        server.registerHeartBeat("dn1", 9526, null);
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+        Config.META_DIR = savedMetaDir;
+        Config.META_SERVRE_PORT = savedPort;
+        Config.META_HEARTBEAT_PORT = savedHeartbeatPort;
+    }
+
+    // 覆盖写已有文件时从空文件重新开始，旧块不会留在块列表中
+    @Test
+    public void overwriteTruncatesExistingFile() throws Exception {
+        long oldBlockId = write("/f", 100L);
+        assertEquals(100L, server.lookup("/f").getFileSize());
+
+        FileInfo created = server.createFile("/f", "test", false);
+        assertEquals(0L, created.getFileSize());
+        assertTrue(created.getBlocks().isEmpty());
+
+        long newBlockId = write("/f", 10L);
+        FileInfo fileInfo = server.lookup("/f");
+        assertEquals(10L, fileInfo.getFileSize());
+        assertEquals(1, fileInfo.getBlocks().size());
+        assertEquals(newBlockId, fileInfo.getBlocks().get(0).getBlockId());
+        assertNotEquals(oldBlockId, newBlockId);
+    }
+
+    // 写入只有一个块的文件，返回块编号
+    private long write(String path, long numBytes) throws IOException {
+        server.createFile(path, "test", false);
+        BlockInfo block = server.addBlock(path);
+        List<BlockInfo> written = Collections.singletonList(new BlockInfo(block.getBlockId(), numBytes, block.getLocations()));
+        server.completeFile(path, written);
+        return block.getBlockId();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
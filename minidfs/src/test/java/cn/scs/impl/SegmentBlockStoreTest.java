@@ -0,0 +1,128 @@
+package cn.scs.impl;
+
+import cn.scs.common.Config;
+import cn.scs.common.DataChecksum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 压缩后仍有读者的旧段：无论是正常关闭还是在删除之前退出，重启后都不能从旧段中恢复出过时的记录
+ */
+public class SegmentBlockStoreTest {
+
+    private static final int BLOCK_BYTES = 100;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private long savedSegmentSize;
+    private int savedCompactInterval;
+    private File storageDir;
+
+    @Before
+    public void setUp() throws IOException {
+        savedSegmentSize = Config.DATA_SEGMENT_SIZE;
+        savedCompactInterval = Config.DATA_COMPACT_INTERVAL_SECS;
+        // 一个段放下两个块，第三个块滚动到新段；压缩只由测试触发
+        Config.DATA_SEGMENT_SIZE = 300;
+        Config.DATA_COMPACT_INTERVAL_SECS = 3600;
+        storageDir = tmp.newFolder("data");
+    }
+
+    @After
+    public void tearDown() {
+        Config.DATA_SEGMENT_SIZE = savedSegmentSize;
+        Config.DATA_COMPACT_INTERVAL_SECS = savedCompactInterval;
+    }
+
+    @Test
+    public void restartAfterCrashIgnoresRetiredSegment() throws Exception {
+        SegmentBlockStore store = new SegmentBlockStore(storageDir);
+        BlockStore.StoredBlock reader = compactWhileReading(store);
+        assertTrue(segmentFile(1).exists()); // 还有读者，旧段留在磁盘上
+
+        // 不关闭 store，模拟在删除旧段之前退出
+        SegmentBlockStore restarted = new SegmentBlockStore(storageDir);
+        assertFalse(segmentFile(1).exists());
+        assertNull(restarted.open(1L));
+        assertArrayEquals(data(2), read(restarted, 2L));
+        assertArrayEquals(data(3), read(restarted, 3L));
+        restarted.close();
+        reader.close();
+    }
+
+    @Test
+    public void closeDeletesRetiredSegmentStillBeingRead() throws Exception {
+        SegmentBlockStore store = new SegmentBlockStore(storageDir);
+        BlockStore.StoredBlock reader = compactWhileReading(store);
+        store.close();
+        assertFalse(segmentFile(1).exists());
+        reader.close();
+
+        SegmentBlockStore restarted = new SegmentBlockStore(storageDir);
+        assertNull(restarted.open(1L));
+        assertArrayEquals(data(2), read(restarted, 2L));
+        assertArrayEquals(data(3), read(restarted, 3L));
+        restarted.close();
+    }
+
+    /**
+     * 块 1、2 写入段 1，块 3 滚动到段 2，删除块 1 的记录也在段 2 中；
+     * 在块 2 被读取期间压缩段 1，块 2 搬到段 2，段 1 被搬空但因为有读者而暂不删除。返回这个读者
+     */
+    private BlockStore.StoredBlock compactWhileReading(SegmentBlockStore store) throws IOException {
+        write(store, 1L);
+        write(store, 2L);
+        write(store, 3L);
+        assertTrue(store.delete(1L));
+        BlockStore.StoredBlock reader = store.open(2L);
+        store.maintain();
+        assertArrayEquals(data(2), read(store, 2L));
+        return reader;
+    }
+
+    private File segmentFile(long id) {
+        return new File(new File(storageDir, "segments"), "seg_" + id);
+    }
+
+    private static byte[] data(long blockId) {
+        byte[] data = new byte[BLOCK_BYTES];
+        Arrays.fill(data, (byte) blockId);
+        return data;
+    }
+
+    private static void write(BlockStore store, long blockId) throws IOException {
+        DataChecksum checksum = DataChecksum.newDefault();
+        byte[] data = data(blockId);
+        byte[] sums = new byte[checksum.checksumLength(data.length)];
+        checksum.calculateChunks(data, 0, data.length, sums, 0);
+        BlockStore.BlockWriter writer = store.create(blockId, checksum);
+        writer.write(data, 0, data.length, sums, 0, sums.length);
+        writer.commit();
+    }
+
+    private static byte[] read(BlockStore store, long blockId) throws IOException {
+        try (BlockStore.StoredBlock block = store.open(blockId)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) block.getLength());
+            while (buffer.hasRemaining()) {
+                if (block.getChannel().read(buffer, block.getDataOffset() + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of block " + blockId);
+                }
+            }
+            return buffer.array();
+        }
+    }
+}